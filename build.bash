@@ -8,7 +8,7 @@ set -ue
 progname=$(basename "$0")
 
 showHelp() {
-  printf >&2 "Usage: %s { build | run <PROGRAM> | test | clean }\n" "$progname"
+  printf >&2 "Usage: %s { build | run <PROGRAM> | test | bench [--against <REV>] [OPTIONS...] | clean }\n" "$progname"
   exit 2
 }
 
@@ -74,6 +74,61 @@ doTest() {
   run java -cp "$classPath" org.junit.platform.console.ConsoleLauncher execute --scan-classpath
 }
 
+# Print the revision to measure the tree against: where HEAD forked from
+# the upstream branch ($BENCH_UPSTREAM, origin/HEAD by default), or, on the
+# upstream branch itself with nothing changed, the commit before HEAD.
+benchBase() {
+  local upstream=${BENCH_UPSTREAM:-origin/HEAD} base
+  if git rev-parse -q --verify "$upstream" >/dev/null; then
+    base=$(git merge-base HEAD "$upstream")
+  else
+    base=$(git rev-parse HEAD)
+  fi
+  if [ "$base" = "$(git rev-parse HEAD)" ] && git diff --quiet HEAD -- "$srcDir"; then
+    base=$(git rev-parse HEAD^)
+  fi
+  printf "%s" "$base"
+}
+
+# Unless a stored baseline is used (--baseline, --record), build the
+# revision given with --against (or benchBase's) and measure both builds in
+# the same run.
+doBench() {
+  doBuild
+
+  local against="" stored="" args=()
+  while [ $# -gt 0 ]; do
+    case "$1" in
+      --against)
+        [ $# -ge 2 ] || showHelp
+        against=$2
+        shift 2
+        ;;
+      --baseline|--record)
+        stored=1
+        args+=("$1")
+        shift
+        ;;
+      *)
+        args+=("$1")
+        shift
+        ;;
+    esac
+  done
+
+  if [ -z "$stored" ]; then
+    [ -n "$against" ] || against=$(benchBase)
+    baseDir=$(mktemp -d)
+    trap 'rm -rf "$baseDir"' EXIT
+    git archive "$against" "$srcDir" | tar -x -C "$baseDir"
+    mkdir "$baseDir/$buildDir"
+    run javac -nowarn -d "$baseDir/$buildDir" -cp "$classPath" "$baseDir/$srcDir"/**/*.java "$baseDir/$srcDir"/*.java
+    args=(--against "$baseDir/$buildDir" ${args[@]+"${args[@]}"})
+  fi
+
+  run java -cp "$classPath" architecture.Benchmark ${args[@]+"${args[@]}"}
+}
+
 case "$1" in
   build)
     [ $# = 1 ] || showHelp
@@ -92,5 +147,9 @@ case "$1" in
     [ $# = 1 ] || showHelp
     doTest
     ;;
+  bench)
+    shift
+    doBench "$@"
+    ;;
   *) showHelp ;;
 esac
@@ -81,6 +81,41 @@ public class TestAll {
 		assertEquals(11, arch.tGetREG0().getData());
 	}
 
+	@Test
+	public void testImagePath() {
+		String[] codeLines = new String[] {
+			"move 10 %reg0",
+			"move 15 %reg1",
+			"jgt %reg1 %reg0 end",
+			"move 20 %reg1",
+			"end:",
+			"add %reg0 %reg1",
+		};
+		Assembler linesAssembler = new Assembler();
+		Assembler imageAssembler = new Assembler();
+		try {
+			linesAssembler.readLines(codeLines);
+			linesAssembler.parseAll();
+			imageAssembler.readLines(codeLines);
+			imageAssembler.parseAll();
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+
+		// the image is the same executable, without going through strings
+		String[] executable = linesAssembler.makeExecutableLines();
+		int[] image = imageAssembler.makeExecutableImage();
+		assertEquals(executable.length, image.length);
+		for (int i = 0; i < image.length; i++)
+			assertEquals(Integer.parseInt(executable[i]), image[i]);
+
+		Architecture architecture = new Architecture(false);
+		architecture.loadImage(image);
+		architecture.controlUnitEexec();
+		assertEquals(runCode(codeLines).stateHash(), architecture.stateHash());
+		assertEquals(25, architecture.tGetREG1().getData());
+	}
+
 	private static <T> String arrayToString(T[] arr) {
 		if (arr.length == 0)
 			return "[]";
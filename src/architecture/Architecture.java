@@ -1,43 +1,72 @@
 package architecture;
 
 import java.io.BufferedReader;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Scanner;
 
 import components.Bus;
+import components.ComponentListener;
 import components.Demux;
 import components.Memory;
+import components.ObservedBus;
+import components.ObservedMemory;
+import components.ObservedRegister;
 import components.Register;
 import components.Ula;
 
 public class Architecture {
+	/**
+	 * The commands of the instruction set.
+	 *
+	 * Each command knows how many argument words follow it in memory, and how
+	 * many micro-operations its implementation below takes (the fetch, which
+	 * every command goes through, takes FETCH_CYCLES more). The latter is what
+	 * the tools use as the cycle cost of a command.
+	 */
 	public enum CommandID {
-		ADD_REG_REG, // add %<regA> %<regB>
-		ADD_MEM_REG, // add <mem> %<regA>
-		ADD_REG_MEM, // add %<regA> <mem>
-		SUB_REG_REG, // sub <regA> <regB>
-		SUB_MEM_REG, // sub <mem> %<regA>
-		SUB_REG_MEM, // sub %<regA> <mem>
-		MOVE_MEM_REG, // move <mem> %<regA>
-		MOVE_REG_MEM, // move %<regA> <mem>
-		MOVE_REG_REG, // move %<regA> %<regB>
-		MOVE_IMM_REG, // move imm %<regA>
-		INC_REG, // inc %<regA>
-		INC_MEM, // inc <mem>
-		JMP, // jmp <mem>
-		JN, // jn <mem>
-		JZ, // jz <mem>
-		JNZ, // jnz <mem>
-		JEQ, // jeq %<regA> %<regB> <mem>
-		JGT, // jgt %<regA> %<regB> <mem>
-		JLW, // jlw %<regA> %<regB> <mem>
-		CALL, // call <mem>
-		RET; // ret
+		ADD_REG_REG(2, 37), // add %<regA> %<regB>
+		ADD_MEM_REG(2, 36), // add <mem> %<regA>
+		ADD_REG_MEM(2, 39), // add %<regA> <mem>
+		SUB_REG_REG(2, 37), // sub <regA> <regB>
+		SUB_MEM_REG(2, 36), // sub <mem> %<regA>
+		SUB_REG_MEM(2, 39), // sub %<regA> <mem>
+		MOVE_MEM_REG(2, 28), // move <mem> %<regA>
+		MOVE_REG_MEM(2, 29), // move %<regA> <mem>
+		MOVE_REG_REG(2, 29), // move %<regA> %<regB>
+		MOVE_IMM_REG(2, 27), // move imm %<regA>
+		INC_REG(1, 22), // inc %<regA>
+		INC_MEM(1, 28), // inc <mem>
+		JMP(1, 11), // jmp <mem>
+		JN(1, 19), // jn <mem>
+		JZ(1, 19), // jz <mem>
+		JNZ(1, 19), // jnz <mem>
+		JEQ(3, 49), // jeq %<regA> %<regB> <mem>
+		JGT(3, 49), // jgt %<regA> %<regB> <mem>
+		JLW(3, 49), // jlw %<regA> %<regB> <mem>
+		CALL(1, 35), // call <mem>
+		RET(0, 12); // ret
+
+		/** Micro-operations taken by fetch(). */
+		public static final int FETCH_CYCLES = 10;
 
 		static private CommandID[] variants = CommandID.values();
 
+		private int argCount;
+		private int cycles;
+
+		private CommandID(int argCount, int cycles) {
+			this.argCount = argCount;
+			this.cycles = cycles;
+		}
+
 		static public CommandID fromInt(int x) {
 			if (x < 0 || x >= variants.length)
 				return null;
@@ -47,12 +76,124 @@ public class Architecture {
 		public int toInt() {
 			return this.ordinal();
 		}
+
+		public int getArgCount() {
+			return argCount;
+		}
+
+		/**
+		 * Get the number of words the command takes in memory.
+		 */
+		public int getSize() {
+			return argCount + 1;
+		}
+
+		/**
+		 * Get the number of micro-operations the command takes, fetch included.
+		 */
+		public int getCycles() {
+			return FETCH_CYCLES + cycles;
+		}
+	}
+
+	/**
+	 * Why the machine halted.
+	 */
+	public enum HaltReason {
+		/** The halt instruction (-1) was executed. */
+		HALT,
+		/** An unknown command was fetched. */
+		BAD_INSTRUCTION,
+		/** The PC went past the end of the memory. */
+		BAD_ADDRESS,
+	}
+
+	/**
+	 * Why step() stopped.
+	 */
+	public enum StopReason {
+		/** The machine halted (see getHaltReason()). */
+		HALTED,
+		/** All the commands asked for were run. */
+		STEPS_DONE,
+		/** The next command is at a PC breakpoint. */
+		BREAKPOINT,
+		/** The last command hit a memory watchpoint. */
+		WATCHPOINT,
+		/** A register condition became true with the last command. */
+		REGISTER_CONDITION,
+	}
+
+	public enum Comparison {
+		EQ, NE, LT, LE, GT, GE;
+
+		boolean test(int a, int b) {
+			switch (this) {
+			case EQ: return a == b;
+			case NE: return a != b;
+			case LT: return a < b;
+			case LE: return a <= b;
+			case GT: return a > b;
+			default: return a >= b;
+			}
+		}
+	}
+
+	/**
+	 * Breakpoint on `register <comparison> value`, triggered when it becomes
+	 * true.
+	 */
+	private static class RegisterCondition {
+		int register;
+		Comparison comparison;
+		int value;
+		boolean held;
 	}
 
 	private static int MAIN_MEMORY_SIZE = 256;
 
 	private boolean simulation;
 	private boolean halt;
+	private HaltReason haltReason;
+
+	/**
+	 * Number of commands fetched since the machine was created or reset.
+	 */
+	private long instructionCount;
+
+	/**
+	 * PC breakpoints and register conditions (null when there are none, so
+	 * step() doesn't check them at all), and what made step() stop.
+	 */
+	private boolean[] breakpoints;
+	private int breakpointCount;
+	private ArrayList<RegisterCondition> registerConditions;
+	private int breakAddress;
+
+	/**
+	 * Execution profile being collected, or null if not profiling.
+	 */
+	private ExecutionProfile profile;
+
+	/**
+	 * Host time histograms being collected, or null if not measuring.
+	 */
+	private OpcodeLatency latency;
+
+	/**
+	 * The last commands run since the last reset(), and where they are
+	 * printed when the machine halts on an error (null for nowhere). The
+	 * history is only allocated when it's first needed, and never with a
+	 * size of 0.
+	 */
+	private CommandHistory history;
+	private int historySize;
+	private PrintStream postMortem;
+	private String executableName;
+	private int executableLength;
+	private int executableHash;
+	private DebugSymbols symbols;
+	private boolean symbolsLoaded;
 
 	private Bus intBus;
 	private Bus extBus;
@@ -121,40 +262,81 @@ public class Architecture {
 		return -1;
 	}
 
-	private void componentsInstances() {
-		intBus = new Bus();
-		extBus = new Bus();
-
-		memory = new Memory(MAIN_MEMORY_SIZE, extBus);
-		statusMem = new Memory(2, intBus);
+	/**
+	 * Create the components, observed ones if there is a listener.
+	 */
+	private void componentsInstances(ComponentListener listener) {
+		historySize = CommandHistory.DEFAULT_SIZE;
+		postMortem = System.err;
+
+		if (listener == null) {
+			intBus = new Bus();
+			extBus = new Bus();
+			memory = new Memory(MAIN_MEMORY_SIZE, extBus);
+			statusMem = new Memory(2, intBus);
+		} else {
+			intBus = new ObservedBus(listener);
+			extBus = new ObservedBus(listener);
+			memory = new ObservedMemory(MAIN_MEMORY_SIZE, extBus, listener);
+			statusMem = new ObservedMemory(2, intBus, listener);
+		}
 
-		PC = new Register("PC", intBus, intBus);
-		IR = new Register("IR", intBus, intBus);
-		StkTOP = new Register("StkTOP", intBus, intBus);
-		StkBOT = new Register("StkBOT", intBus, intBus);
+		PC = newRegister("PC", listener);
+		IR = newRegister("IR", listener);
+		StkTOP = newRegister("StkTOP", listener);
+		StkBOT = newRegister("StkBOT", listener);
 
-		Flags = new Register(2, intBus);
+		Flags = listener == null ? new Register(2, intBus) : new ObservedRegister(2, intBus, listener);
 
-		REG0 = new Register("REG0", intBus, intBus);
-		REG1 = new Register("REG1", intBus, intBus);
-		REG2 = new Register("REG2", intBus, intBus);
-		REG3 = new Register("REG3", intBus, intBus);
+		REG0 = newRegister("REG0", listener);
+		REG1 = newRegister("REG1", listener);
+		REG2 = newRegister("REG2", listener);
+		REG3 = newRegister("REG3", listener);
 
 		registerList = new Register[] { IR, REG0, REG1, REG2, REG3, PC, StkTOP, StkBOT, Flags };
 		ula = new Ula(extBus, intBus);
 		demux = new Demux();
 	}
 
+	private Register newRegister(String name, ComponentListener listener) {
+		if (listener == null)
+			return new Register(name, intBus, intBus);
+		return new ObservedRegister(name, intBus, intBus, listener);
+	}
+
 	public Architecture() {
-		componentsInstances();
-		simulation = false;
+		this(false);
 	}
 
 	public Architecture(boolean sim) {
-		componentsInstances();
+		this(sim, null);
+	}
+
+	/**
+	 * Create a machine whose buses, registers and memories tell `listener`
+	 * about the data they move (see ObservedArchitecture). Without a listener
+	 * the plain components are used, which don't pay anything for it.
+	 */
+	protected Architecture(boolean sim, ComponentListener listener) {
+		componentsInstances(listener);
 		simulation = sim;
 	}
 
+	/**
+	 * Count every executed instruction into `profile` (null to stop profiling).
+	 */
+	public void setProfile(ExecutionProfile profile) {
+		this.profile = profile;
+	}
+
+	/**
+	 * Measure the host time of some of the commands into `latency` (null to
+	 * stop measuring).
+	 */
+	public void setLatency(OpcodeLatency latency) {
+		this.latency = latency;
+	}
+
 	public void setStatusFlags(int result) {
 		Flags.setBit(0, 0);
 		Flags.setBit(1, 0);
@@ -1082,6 +1264,17 @@ public class Architecture {
 	}
 
 	public void readExec(String filename) throws IOException {
+		// its symbols are only loaded when asked for
+		symbols = null;
+		symbolsLoaded = false;
+		executableName = filename;
+
+		SimulatorEvents.ProgramLoad event = null;
+		if (SimulatorEvents.PROGRAM_LOAD.isEnabled()) {
+			event = new SimulatorEvents.ProgramLoad();
+			event.begin();
+		}
+
 		BufferedReader br = new BufferedReader(new FileReader(filename + ".dxf"));
 		String linha;
 		int i=0;
@@ -1095,6 +1288,15 @@ public class Architecture {
 			i++;
 		}
 		br.close();
+		// before the program can change itself
+		executableLength = i;
+		executableHash = DebugSymbols.hashExecutable(memory.getDataList(), i);
+
+		if (event != null) {
+			event.source = filename + ".dxf";
+			event.words = i;
+			event.commit();
+		}
 	}
 
 	public void readExecLines(String[] lines) {
@@ -1114,20 +1316,459 @@ public class Architecture {
 		}
 	}
 
-	public void controlUnitEexec() {
-		while (!halt)
+	/**
+	 * Load an executable image (as made by Assembler.makeExecutableImage())
+	 * into the memory with a single bulk copy.
+	 */
+	public void loadImage(int[] image) {
+		loadImage(IntBuffer.wrap(image));
+	}
+
+	public void loadImage(IntBuffer image) {
+		SimulatorEvents.ProgramLoad event = null;
+		if (SimulatorEvents.PROGRAM_LOAD.isEnabled()) {
+			event = new SimulatorEvents.ProgramLoad();
+			event.begin();
+			event.source = "image";
+			event.words = image.remaining();
+		}
+
+		// the symbols of an executable read before don't describe this image
+		setDebugSymbols(null);
+		memory.load(image);
+
+		if (event != null)
+			event.commit();
+	}
+
+	/**
+	 * Bring the machine back to the state it was created in (zeroed memory
+	 * and registers, not halted, not profiling), so it can be reused for
+	 * another program instead of creating a new one.
+	 */
+	public void reset() {
+		memory.clear();
+		statusMem.clear();
+		for (Register r : registerList)
+			r.setData(0);
+		Flags.setBit(0, 0);
+		Flags.setBit(1, 0);
+		intBus.put(0);
+		extBus.put(0);
+		ula.clear();
+		demux.setValue(0);
+
+		halt = false;
+		haltReason = null;
+		instructionCount = 0;
+		profile = null;
+		latency = null;
+		if (history != null)
+			history.clear();
+		setDebugSymbols(null);
+	}
+
+	/**
+	 * Get the debug symbols of the executable read by readExec(), mapped
+	 * from its .dsym (see DebugSymbols) the first time they're asked for.
+	 *
+	 * @return null if the executable has no symbols
+	 */
+	public DebugSymbols getDebugSymbols() {
+		if (symbolsLoaded || executableName == null)
+			return symbols;
+
+		symbolsLoaded = true;
+		Path path = Paths.get(executableName + ".dsym");
+		if (Files.exists(path)) {
+			try {
+				symbols = DebugSymbols.open(path);
+				if (symbols.getMemorySize() != getMemorySize()) {
+					System.err.println("Ignoring debug symbols made for another memory size: " + path);
+					symbols = null;
+				} else if (!symbols.describes(executableLength, executableHash)) {
+					System.err.println("Ignoring debug symbols made for another executable: " + path);
+					symbols = null;
+				}
+			} catch (IOException | DebugSymbols.SymbolsException ex) {
+				System.err.println("Ignoring debug symbols: " + ex.getMessage());
+			}
+		}
+		return symbols;
+	}
+
+	/**
+	 * Set the debug symbols of the program, for programs not read by
+	 * readExec() (null for none).
+	 */
+	public void setDebugSymbols(DebugSymbols symbols) {
+		this.symbols = symbols;
+		this.symbolsLoaded = true;
+		this.executableName = null;
+	}
+
+	public boolean isHalted() {
+		return halt;
+	}
+
+	/**
+	 * Get the values of all registers, in registerList order, with the Flags
+	 * register encoded as Z + 2 * N.
+	 */
+	public int[] saveRegisters() {
+		int[] ret = new int[registerList.length];
+		for (int i = 0; i < registerList.length; i++)
+			ret[i] = registerValue(i);
+		return ret;
+	}
+
+	/**
+	 * Get the value of the register `id`, as saveRegisters() gives it.
+	 */
+	private int registerValue(int id) {
+		if (registerList[id] == Flags)
+			return Flags.getBit(0) + 2 * Flags.getBit(1);
+		return registerList[id].getData();
+	}
+
+	/**
+	 * Set the values of all registers, as returned by saveRegisters().
+	 */
+	public void restoreRegisters(int[] values) {
+		for (int i = 0; i < registerList.length; i++) {
+			if (registerList[i] == Flags) {
+				Flags.setBit(0, values[i] & 1);
+				Flags.setBit(1, (values[i] >> 1) & 1);
+			} else {
+				registerList[i].setData(values[i]);
+			}
+		}
+	}
+
+	/**
+	 * Get a hash of the visible machine state: registers, status memory and
+	 * main memory (FNV-1a over the words).
+	 */
+	public long stateHash() {
+		long h = 0xcbf29ce484222325L;
+		for (int v : saveRegisters())
+			h = (h ^ v) * 0x100000001b3L;
+		for (int v : statusMem.getDataList())
+			h = (h ^ v) * 0x100000001b3L;
+		for (int v : memory.getDataList())
+			h = (h ^ v) * 0x100000001b3L;
+		return h;
+	}
+
+	/**
+	 * Get why the machine halted, or null if it hasn't.
+	 */
+	public HaltReason getHaltReason() {
+		return haltReason;
+	}
+
+	public long getInstructionCount() {
+		return instructionCount;
+	}
+
+	/**
+	 * Run until the machine halts or `maxInstructions` more commands are
+	 * fetched, whichever comes first.
+	 *
+	 * @return why the machine halted, or null if it reached the limit
+	 */
+	public HaltReason run(long maxInstructions) {
+		runUntil(limitAfter(maxInstructions));
+		return haltReason;
+	}
+
+	/**
+	 * Run until the machine halts or the instruction count gets to `limit`,
+	 * recording the run (and throughput samples along it) when Flight
+	 * Recorder records them.
+	 */
+	private void runUntil(long limit) {
+		SimulatorEvents.Run event = null;
+		long start = instructionCount;
+		if (SimulatorEvents.RUN.isEnabled()) {
+			event = new SimulatorEvents.Run();
+			event.begin();
+		}
+
+		if (SimulatorEvents.THROUGHPUT.isEnabled()) {
+			while (!halt && instructionCount < limit) {
+				long chunkStart = instructionCount;
+				long chunkLimit = Math.min(limit, limitAfter(SimulatorEvents.THROUGHPUT_INTERVAL));
+				SimulatorEvents.Throughput sample = new SimulatorEvents.Throughput();
+				sample.begin();
+				while (!halt && instructionCount < chunkLimit)
+					controlUnitCycle();
+				sample.commands = instructionCount - chunkStart;
+				sample.instructionCount = instructionCount;
+				sample.commit();
+			}
+		} else {
+			while (!halt && instructionCount < limit)
+				controlUnitCycle();
+		}
+
+		if (event != null) {
+			event.commands = instructionCount - start;
+			event.instructionCount = instructionCount;
+			event.haltReason = halt ? haltReason.toString() : "LIMIT";
+			event.commit();
+		}
+	}
+
+	private void checkAddress(int address) {
+		if (address < 0 || address >= MAIN_MEMORY_SIZE)
+			throw new IllegalArgumentException("address out of range: " + address);
+	}
+
+	public void addBreakpoint(int address) {
+		checkAddress(address);
+		if (breakpoints == null)
+			breakpoints = new boolean[MAIN_MEMORY_SIZE];
+		if (!breakpoints[address])
+			breakpointCount++;
+		breakpoints[address] = true;
+	}
+
+	public void removeBreakpoint(int address) {
+		checkAddress(address);
+		if (breakpoints == null || !breakpoints[address])
+			return;
+		breakpoints[address] = false;
+		if (--breakpointCount == 0)
+			breakpoints = null;
+	}
+
+	public boolean isBreakpoint(int address) {
+		return breakpoints != null && address >= 0 && address < breakpoints.length && breakpoints[address];
+	}
+
+	/**
+	 * Watch a memory address (see Memory.watch()).
+	 *
+	 * @param kinds Memory.WATCH_* or-ed together, 0 to stop watching
+	 */
+	public void watch(int address, int kinds) {
+		checkAddress(address);
+		memory.watch(address, kinds);
+	}
+
+	/**
+	 * Break when `register <comparison> value` becomes true.
+	 */
+	public void addRegisterBreakpoint(String register, Comparison comparison, int value) {
+		int id = getRegisterID(register);
+		if (id < 0)
+			throw new IllegalArgumentException("unknown register " + register);
+
+		RegisterCondition c = new RegisterCondition();
+		c.register = id;
+		c.comparison = comparison;
+		c.value = value;
+		c.held = comparison.test(registerValue(id), value);
+
+		if (registerConditions == null)
+			registerConditions = new ArrayList<>();
+		registerConditions.add(c);
+	}
+
+	public void clearRegisterBreakpoints() {
+		registerConditions = null;
+	}
+
+	/**
+	 * Get what made step() stop: the address of the PC breakpoint or of the
+	 * watchpoint, or the ID of the register of the condition.
+	 */
+	public int getBreakAddress() {
+		return breakAddress;
+	}
+
+	/**
+	 * Run up to `n` commands, stopping early at breakpoints, watchpoints and
+	 * register conditions. A breakpoint at the first command doesn't stop
+	 * it, so stepping from a breakpoint goes on.
+	 */
+	public StopReason step(long n) {
+		long limit = limitAfter(n);
+		boolean first = true;
+		memory.clearWatchHit();
+
+		while (!halt && instructionCount < limit) {
+			if (breakpoints != null && !first && isBreakpoint(PC.getData())) {
+				breakAddress = PC.getData();
+				return StopReason.BREAKPOINT;
+			}
+			first = false;
+
 			controlUnitCycle();
 
+			if (memory.getWatchHitAddress() >= 0) {
+				breakAddress = memory.getWatchHitAddress();
+				return StopReason.WATCHPOINT;
+			}
+			if (registerConditions != null && checkRegisterConditions())
+				return StopReason.REGISTER_CONDITION;
+		}
+
+		return halt ? StopReason.HALTED : StopReason.STEPS_DONE;
+	}
+
+	/**
+	 * Run until the machine halts or something makes it break (see step()).
+	 */
+	public StopReason runUntilBreak() {
+		return step(Long.MAX_VALUE);
+	}
+
+	private boolean checkRegisterConditions() {
+		boolean hit = false;
+		// no iterator either: this runs after every command
+		for (int i = 0; i < registerConditions.size(); i++) {
+			RegisterCondition c = registerConditions.get(i);
+			boolean held = c.comparison.test(registerValue(c.register), c.value);
+			if (held && !c.held && !hit) {
+				breakAddress = c.register;
+				hit = true;
+			}
+			c.held = held;
+		}
+		return hit;
+	}
+
+	/**
+	 * Restore the instruction count and halt state, along with a saved state
+	 * of the registers and memories.
+	 */
+	void restoreRunState(long instructionCount, HaltReason haltReason) {
+		this.instructionCount = instructionCount;
+		this.haltReason = haltReason;
+		this.halt = haltReason != null;
+	}
+
+	/**
+	 * Get the instruction count after `n` more commands, saturating instead of
+	 * overflowing (so Long.MAX_VALUE means no limit).
+	 */
+	long limitAfter(long n) {
+		return n > Long.MAX_VALUE - instructionCount ? Long.MAX_VALUE : instructionCount + n;
+	}
+
+	/**
+	 * Get the last commands run, or null if the history is off.
+	 */
+	public CommandHistory getCommandHistory() {
+		if (history == null && historySize > 0)
+			history = new CommandHistory(historySize);
+		return history;
+	}
+
+	/**
+	 * Set how many commands the history keeps (a power of two, or 0 for no
+	 * history at all; it's CommandHistory.DEFAULT_SIZE by default), dropping
+	 * the ones kept so far. Many machines in one JVM may want a small one.
+	 */
+	public void setCommandHistorySize(int size) {
+		if (size != 0 && (size < 0 || (size & (size - 1)) != 0))
+			throw new IllegalArgumentException("history size must be 0 or a power of two");
+		historySize = size;
+		history = null;
+	}
+
+	private void addHistory(int pc, int command) {
+		if (history == null) {
+			if (historySize == 0)
+				return;
+			history = new CommandHistory(historySize);
+		}
+		history.add(pc, command);
+	}
+
+	/**
+	 * Set where the command history is printed when the machine halts on an
+	 * error (null for nowhere; it's System.err by default).
+	 */
+	public void setPostMortem(PrintStream out) {
+		this.postMortem = out;
+	}
+
+	private void halted(int pc, int command) {
+		if (SimulatorEvents.HALT.isEnabled()) {
+			SimulatorEvents.Halt event = new SimulatorEvents.Halt();
+			event.reason = haltReason.toString();
+			event.pc = pc;
+			event.command = command;
+			event.instructionCount = instructionCount;
+			event.commit();
+		}
+		dumpHistory();
+	}
+
+	private void dumpHistory() {
+		if (postMortem == null || haltReason == HaltReason.HALT)
+			return;
+		DebugSymbols symbols = getDebugSymbols();
+		postMortem.printf("Machine halted on %s after %d commands, at PC %d", haltReason, instructionCount, PC.getData());
+		if (symbols != null)
+			postMortem.printf(" (%s)", symbols.describe(PC.getData()));
+		postMortem.println();
+		if (history != null)
+			history.dump(postMortem, symbols);
+		postMortem.printf("intBus: %d | extBus: %d\n", intBus.get(), extBus.get());
+		postMortem.print("All registers: ");
+		int[] registers = saveRegisters();
+		for (int i = 0; i < registers.length; i++) {
+			postMortem.printf("%s: %d", registerList[i].getRegisterName(), registers[i]);
+			if (i < registers.length - 1)
+				postMortem.print(" | ");
+		}
+		postMortem.println();
+	}
+
+	public void controlUnitEexec() {
+		runUntil(Long.MAX_VALUE);
+
 		if (simulation)
 			System.out.println("--- EXECUTION HALTED ---");
 	}
 
 	public void controlUnitCycle() {
 		if (halt) return;
+		int pc = PC.getData();
+		if (profile != null)
+			profile.countExecution(pc);
+		instructionCount++;
 		fetch();
 
-		if (halt) return;
-		decodeExecute();
+		int command = IR.getData();
+		if (halt) {
+			addHistory(pc, command);
+			halted(pc, command);
+			return;
+		}
+		if (latency == null || !latency.tick()) {
+			decodeExecute();
+		} else {
+			long t = System.nanoTime();
+			decodeExecute();
+			latency.record(command, System.nanoTime() - t);
+		}
+		addHistory(pc, command);
+		if (halt)
+			halted(pc, command);
+
+		if (profile != null)
+			profileTaken(pc);
+	}
+
+	private void profileTaken(int pc) {
+		CommandID id = CommandID.fromInt(memory.getDataList()[pc]);
+		if (id != null && PC.getData() != pc + id.getSize())
+			profile.countTaken(pc);
 	}
 
 	private void decodeExecute() {
@@ -1163,11 +1804,13 @@ public class Architecture {
 			if (simulation)
 				System.out.printf("End of the program reached.\n", command);
 			halt = true;
+			haltReason = HaltReason.HALT;
 			 break;
 		default:
 			if (simulation)
 				System.out.printf("Bad instruction %d encountered! Halting.\n", command);
 			halt = true;
+			haltReason = HaltReason.BAD_INSTRUCTION;
 			break;
 		}
 
@@ -1181,6 +1824,7 @@ public class Architecture {
 			if (simulation)
 				System.out.printf("Bad instruction address %d encountered! Halting.\n", intBus.get());
 			halt = true;
+			haltReason = HaltReason.BAD_ADDRESS;
 			return;
 		}
 
@@ -1262,17 +1906,159 @@ public class Architecture {
 		return MAIN_MEMORY_SIZE;
 	}
 
+	private static LabelMap labelsOf(Architecture arch) {
+		DebugSymbols symbols = arch.getDebugSymbols();
+		return symbols != null ? symbols.getLabelMap() : new LabelMap();
+	}
+
+	private static void usage() {
+		System.err.println("Usage: architecture [--profile <OUTPUT>] [--trace <OUTPUT>] [--stacks <OUTPUT> [--stack-interval <N>]] [--callgraph <OUTPUT>] [--heatmap <OUTPUT>] <INPUT>");
+		System.err.println("       architecture --headless [--limit <N>] [--engine <ENGINE>] [--registers] [--memory <START>[:<END>]]... [--stats] [--latency <N>] <INPUT>");
+		System.err.println("INPUT must be the name of a .dxf file, without the extension");
+		System.err.println("With --profile, the program runs without interaction and its execution profile is saved into OUTPUT.dpf");
+		System.err.println("With --trace, the program runs without interaction and its trace is saved into OUTPUT.dtr, indexed by OUTPUT.idx");
+		System.err.printf("With --stacks, the program runs without interaction and its stack is sampled every N cycles (default %d)\n",
+				StackSampler.DEFAULT_INTERVAL);
+		System.err.println("into OUTPUT.folded, as collapsed stacks for flame graphs, named after the labels in INPUT.dsym if it's there");
+		System.err.println("With --callgraph, the program runs without interaction and the cycles and commands spent in each subroutine,");
+		System.err.println("and the calls between them, are saved into OUTPUT.calls");
+		System.err.println("With --heatmap, the program runs without interaction, a heatmap of its memory accesses is printed when it halts,");
+		System.err.println("and the accesses to each address and the working set over time are saved into OUTPUT.csv and OUTPUT-ws.csv");
+		System.err.println("With --headless, the program runs without interaction, for up to N commands, on ENGINE (plain or observed),");
+		System.err.println("then prints the registers, the memory from START to END and the run statistics if asked, as key=value lines.");
+		System.err.println("With --latency, the host time of 1 in N commands is measured and its percentiles for each command are printed too.");
+		System.err.printf("The exit status is %d if the program halted, %d if it reached the limit, %d on a bad instruction, %d on a bad address,\n",
+				HeadlessRun.EXIT_HALT, HeadlessRun.EXIT_LIMIT, HeadlessRun.EXIT_BAD_INSTRUCTION, HeadlessRun.EXIT_BAD_ADDRESS);
+		System.err.printf("%d if the program made the simulator fail (host_fault tells how), and %d if INPUT.dxf can't be loaded\n",
+				HeadlessRun.EXIT_HOST_FAULT, HeadlessRun.EXIT_BAD_EXECUTABLE);
+		System.exit(2);
+	}
+
 	public static void main(String[] args) throws IOException {
-		if (args.length != 1) {
-			System.err.println("Usage: architecture <INPUT>");
-			System.err.println("INPUT must be the name of a .dxf file, without the extension");
-			System.exit(2);
+		String filename = null;
+		String profileName = null;
+		String traceName = null;
+		String stacksName = null;
+		long stackInterval = StackSampler.DEFAULT_INTERVAL;
+		String callGraphName = null;
+		String heatmapName = null;
+		boolean headless = false;
+		long limit = Long.MAX_VALUE;
+		Engine engine = Engine.PLAIN;
+		boolean registers = false;
+		boolean stats = false;
+		boolean latency = false;
+		int latencyInterval = 0;
+		ArrayList<String> ranges = new ArrayList<>();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("--profile") && i + 1 < args.length)
+					profileName = args[++i];
+				else if (args[i].equals("--trace") && i + 1 < args.length)
+					traceName = args[++i];
+				else if (args[i].equals("--stacks") && i + 1 < args.length)
+					stacksName = args[++i];
+				else if (args[i].equals("--stack-interval") && i + 1 < args.length)
+					stackInterval = Long.parseLong(args[++i]);
+				else if (args[i].equals("--callgraph") && i + 1 < args.length)
+					callGraphName = args[++i];
+				else if (args[i].equals("--heatmap") && i + 1 < args.length)
+					heatmapName = args[++i];
+				else if (args[i].equals("--headless"))
+					headless = true;
+				else if (args[i].equals("--limit") && i + 1 < args.length)
+					limit = Long.parseLong(args[++i]);
+				else if (args[i].equals("--engine") && i + 1 < args.length && Engine.fromName(args[i + 1]) != null)
+					engine = Engine.fromName(args[++i]);
+				else if (args[i].equals("--registers"))
+					registers = true;
+				else if (args[i].equals("--memory") && i + 1 < args.length)
+					ranges.add(args[++i]);
+				else if (args[i].equals("--stats"))
+					stats = true;
+				else if (args[i].equals("--latency") && i + 1 < args.length) {
+					latency = true;
+					latencyInterval = Integer.parseInt(args[++i]);
+				} else if (filename == null && !args[i].startsWith("-"))
+					filename = args[i];
+				else
+					usage();
+			}
+		} catch (NumberFormatException ex) {
+			usage();
+		}
+
+		if (filename == null)
+			usage();
+
+		if (headless) {
+			Architecture arch = engine.newMachine();
+			try {
+				arch.readExec(filename);
+			} catch (IOException | RuntimeException ex) {
+				// missing, not made of words, or bigger than the memory
+				System.err.printf("Can't load %s.dxf: %s\n", filename, ex);
+				System.exit(HeadlessRun.EXIT_BAD_EXECUTABLE);
+			}
+			HeadlessRun run = new HeadlessRun(arch);
+			run.setLimit(limit);
+			run.setRegisters(registers);
+			run.setStats(stats);
+			try {
+				if (latency)
+					run.setLatency(latencyInterval);
+				for (String range : ranges)
+					run.addMemoryRange(range);
+			} catch (IllegalArgumentException ex) {
+				System.err.println(ex.getMessage());
+				usage();
+			}
+			System.exit(run.run(System.out));
 		}
 
-		String filename = args[0];
-		Architecture arch = new Architecture(true);
+		boolean interactive = profileName == null && traceName == null && stacksName == null && callGraphName == null && heatmapName == null;
+		Architecture arch;
+		MemoryHeatmap heatmap = null;
+		if (heatmapName != null) {
+			ObservedArchitecture observed = new ObservedArchitecture(false);
+			heatmap = new MemoryHeatmap(observed, MemoryHeatmap.DEFAULT_WINDOW);
+			heatmap.setHaltReport(System.out);
+			arch = observed;
+		} else {
+			arch = new Architecture(interactive);
+		}
 		arch.readExec(filename);
-		arch.controlUnitEexec();
+
+		ExecutionProfile profile = null;
+		if (profileName != null) {
+			profile = new ExecutionProfile(arch.getMemorySize());
+			arch.setProfile(profile);
+		}
+
+		if (traceName != null) {
+			try (TraceWriter trace = new TraceWriter(arch, new FileOutputStream(traceName + ".dtr"),
+					TraceWriter.DEFAULT_KEYFRAME_INTERVAL, new FileOutputStream(traceName + ".idx"))) {
+				trace.run(Long.MAX_VALUE);
+			}
+		} else if (stacksName != null) {
+			StackSampler sampler = new StackSampler(arch, labelsOf(arch), stackInterval);
+			sampler.run(Long.MAX_VALUE);
+			sampler.write(stacksName + ".folded");
+		} else if (callGraphName != null) {
+			CallGraphProfiler profiler = new CallGraphProfiler(arch, labelsOf(arch));
+			profiler.run(Long.MAX_VALUE);
+			try (PrintStream out = new PrintStream(callGraphName + ".calls")) {
+				profiler.write(out);
+			}
+		} else {
+			arch.controlUnitEexec();
+		}
+
+		if (profile != null)
+			profile.write(profileName);
+		if (heatmap != null)
+			heatmap.writeCsv(heatmapName);
 	}
 
 	// Functions prefixed with 't' should only be used in testing
@@ -0,0 +1,543 @@
+package architecture;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import assembler.Assembler;
+import assembler.Assembler.ParseException;
+
+/**
+ * Runs a fixed corpus of programs (the examples and some bigger generated
+ * ones) on every Engine, measuring the guest MIPS, the allocation rate and
+ * how many source lines per second the assembler goes through, so they can
+ * be compared against a baseline (see compare()).
+ *
+ * The baseline is either another build measured in the same run (--against,
+ * which `./build.bash bench` uses with the build of the revision the tree
+ * forked from), so both see the same host, or results recorded before.
+ *
+ * Every measurement is the best of a few rounds of a fixed time, after a
+ * longer round to warm up, as the best round is the one least disturbed by
+ * the rest of the host. Results are named `<workload>.<metric>` or
+ * `<workload>.<engine>.<metric>`.
+ *
+ * From the command line, the assembler and each engine are measured in a
+ * JVM of their own, so that the code run for one doesn't change how the
+ * JIT compiles the other: in a single JVM, the results depend on the order
+ * of the measurements far more than on the code measured. With --against,
+ * each part is measured on the other build right before this one.
+ */
+public class Benchmark {
+	public static final String DEFAULT_BASELINE = "benchmarks/baseline.properties";
+	public static final String DEFAULT_CORPUS = "examples";
+	/** Biggest drop of throughput, in percent, not taken as a regression. */
+	public static final double DEFAULT_TOLERANCE = 25;
+	public static final int DEFAULT_ROUNDS = 5;
+	public static final long DEFAULT_ROUND_TIME = 200;
+	public static final long DEFAULT_WARMUP_TIME = 1000;
+
+	public static final String GUEST_MIPS = "guest_mips";
+	public static final String ALLOCATION = "alloc_bytes_per_s";
+	public static final String ASSEMBLER_LINES = "assembler_lines_per_s";
+
+	/** Name of the part measuring the assembler, the others being engines. */
+	static final String ASSEMBLER_PART = "assembler";
+
+	/** Instructions after which a run is stopped, for programs that don't halt. */
+	static final long RUN_LIMIT = 10_000_000;
+
+	private ArrayList<String> workloadNames = new ArrayList<>();
+	private ArrayList<String[]> workloadSources = new ArrayList<>();
+	private int rounds = DEFAULT_ROUNDS;
+	private long roundTime = DEFAULT_ROUND_TIME;
+	private long warmupTime = DEFAULT_WARMUP_TIME;
+	private boolean assembler = true;
+	private ArrayList<Engine> engines = new ArrayList<>(Arrays.asList(Engine.values()));
+
+	public void setRounds(int rounds) {
+		this.rounds = rounds;
+	}
+
+	/**
+	 * Set how long each round of a measurement takes, in milliseconds.
+	 */
+	public void setRoundTime(long roundTime) {
+		this.roundTime = roundTime;
+	}
+
+	/**
+	 * Set how long the round before each measurement takes, in
+	 * milliseconds.
+	 */
+	public void setWarmupTime(long warmupTime) {
+		this.warmupTime = warmupTime;
+	}
+
+	/**
+	 * Measure only the assembler (`assembler`) or only an engine (its name).
+	 */
+	public void setPart(String part) {
+		assembler = part.equals(ASSEMBLER_PART);
+		engines.clear();
+		if (!assembler) {
+			Engine engine = Engine.fromName(part);
+			if (engine == null)
+				throw new IllegalArgumentException("no engine called " + part);
+			engines.add(engine);
+		}
+	}
+
+	public void addWorkload(String name, String[] source) {
+		workloadNames.add(name);
+		workloadSources.add(source);
+	}
+
+	/**
+	 * Add the .dsf files of `dir`, in order of name, then the generated
+	 * workloads.
+	 */
+	public void addCorpus(String dir) throws IOException {
+		String[] names = new File(dir).list((d, name) -> name.endsWith(".dsf"));
+		if (names == null)
+			throw new IOException("can't list " + dir);
+		Arrays.sort(names);
+		for (String name : names)
+			addWorkload(name.substring(0, name.length() - 4), readSource(new File(dir, name)));
+
+		addWorkload("gen-loop", generateLoop(100_000));
+		addWorkload("gen-calls", generateCalls(50_000));
+		addWorkload("gen-unrolled", generateUnrolled(20, 5_000));
+	}
+
+	private static String[] readSource(File file) throws IOException {
+		ArrayList<String> lines = new ArrayList<>();
+		try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = br.readLine()) != null)
+				lines.add(line);
+		}
+		return lines.toArray(new String[0]);
+	}
+
+	/**
+	 * Generate a loop running `n` times over registers and a variable.
+	 */
+	public static String[] generateLoop(int n) {
+		return new String[] {
+			"\ttotal",
+			"\tmove 0 %reg0",
+			"\tmove " + n + " %reg1",
+			"loop:",
+			"\tinc %reg0",
+			"\tadd %reg0 total",
+			"\tmove total %reg2",
+			"\tsub %reg0 %reg2",
+			"\tjlw %reg0 %reg1 loop",
+		};
+	}
+
+	/**
+	 * Generate a loop making `n` calls, each making another one.
+	 */
+	public static String[] generateCalls(int n) {
+		return new String[] {
+			"\tcount",
+			"\tmove 0 %reg0",
+			"\tmove " + n + " %reg1",
+			"loop:",
+			"\tcall outer",
+			"\tjlw %reg0 %reg1 loop",
+			"\tjmp end",
+			"outer:",
+			"\tcall inner",
+			"\tinc count",
+			"\tret",
+			"inner:",
+			"\tinc %reg0",
+			"\tret",
+			"end:",
+		};
+	}
+
+	/**
+	 * Generate `blocks` labeled blocks of straight code, run `n` times: a
+	 * long source nearly filling the memory.
+	 */
+	public static String[] generateUnrolled(int blocks, int n) {
+		ArrayList<String> lines = new ArrayList<>();
+		for (int v = 0; v < 4; v++)
+			lines.add("\tv" + v);
+		lines.add("\tmove 0 %reg0");
+		lines.add("\tmove " + n + " %reg1");
+		lines.add("again:");
+		for (int b = 0; b < blocks; b++) {
+			lines.add("block" + b + ":");
+			lines.add("\tmove " + b + " %reg2");
+			lines.add("\tadd %reg2 %reg3");
+			lines.add("\tinc v" + b % 4);
+			lines.add("\tjmp block" + (b + 1));
+		}
+		lines.add("block" + blocks + ":");
+		lines.add("\tinc %reg0");
+		lines.add("\tjlw %reg0 %reg1 again");
+		return lines.toArray(new String[0]);
+	}
+
+	/**
+	 * Measure every workload.
+	 *
+	 * @param progress where to tell what's being measured (null for nowhere)
+	 */
+	public TreeMap<String, Double> measure(PrintStream progress) throws ParseException {
+		TreeMap<String, Double> results = new TreeMap<>();
+		for (int w = 0; w < workloadNames.size(); w++) {
+			String name = workloadNames.get(w);
+			String[] source = workloadSources.get(w);
+			if (assembler) {
+				if (progress != null)
+					progress.printf("Measuring %s on the assembler\n", name);
+				results.put(name + "." + ASSEMBLER_LINES, measureAssembler(source));
+			}
+
+			int[] image = assemble(source);
+			for (Engine engine : engines) {
+				String engineName = engine.name().toLowerCase(Locale.ROOT);
+				if (progress != null)
+					progress.printf("Measuring %s on %s\n", name, engineName);
+				String prefix = name + "." + engineName + ".";
+				double[] run = measureRun(engine, image);
+				results.put(prefix + GUEST_MIPS, run[0]);
+				if (run[1] >= 0)
+					results.put(prefix + ALLOCATION, run[1]);
+			}
+		}
+		return results;
+	}
+
+	private static int[] assemble(String[] source) throws ParseException {
+		Assembler assembler = new Assembler();
+		assembler.readLines(source);
+		assembler.parseAll();
+		return assembler.makeExecutableImage();
+	}
+
+	/**
+	 * Get the best number of source lines assembled per second.
+	 */
+	private double measureAssembler(String[] source) throws ParseException {
+		double best = 0;
+		for (int round = 0; round <= rounds; round++) {
+			long lines = 0;
+			long start = System.nanoTime();
+			long elapsed;
+			do {
+				assemble(source);
+				lines += source.length;
+				elapsed = System.nanoTime() - start;
+			} while (elapsed < (round == 0 ? warmupTime : roundTime) * 1_000_000);
+			// round 0 only warms up
+			if (round > 0)
+				best = Math.max(best, lines * 1e9 / elapsed);
+		}
+		return best;
+	}
+
+	/**
+	 * Get the best guest MIPS of running `image` on `engine`, and the bytes
+	 * allocated per second in that round (-1 if the JVM can't tell).
+	 */
+	private double[] measureRun(Engine engine, int[] image) {
+		Architecture arch = engine.newMachine();
+		double[] best = { 0, -1 };
+		for (int round = 0; round <= rounds; round++) {
+			long instructions = 0;
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			long elapsed;
+			do {
+				arch.reset();
+				arch.loadImage(image);
+				arch.run(RUN_LIMIT);
+				instructions += arch.getInstructionCount();
+				elapsed = System.nanoTime() - start;
+			} while (elapsed < (round == 0 ? warmupTime : roundTime) * 1_000_000);
+			allocated = allocated < 0 ? -1 : allocatedBytes() - allocated;
+
+			double mips = instructions * 1e3 / elapsed;
+			// round 0 only warms up
+			if (round > 0 && mips > best[0]) {
+				best[0] = mips;
+				best[1] = allocated < 0 ? -1 : allocated * 1e9 / elapsed;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Get the bytes allocated by this thread so far, or -1 if the JVM can't
+	 * tell.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes();
+		return -1;
+	}
+
+	/**
+	 * Tell whether a metric is a throughput, so that a drop of it is a
+	 * regression.
+	 */
+	static boolean isThroughput(String key) {
+		return key.endsWith("." + GUEST_MIPS) || key.endsWith("." + ASSEMBLER_LINES);
+	}
+
+	/**
+	 * Read a baseline written by writeBaseline().
+	 */
+	public static TreeMap<String, Double> readBaseline(String filename) throws IOException {
+		try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+			return readBaseline(br, filename);
+		}
+	}
+
+	static TreeMap<String, Double> readBaseline(BufferedReader br, String name) throws IOException {
+		TreeMap<String, Double> ret = new TreeMap<>();
+		String line;
+		int lineNumber = 0;
+		while ((line = br.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+			int eq = line.indexOf('=');
+			try {
+				ret.put(line.substring(0, eq).trim(), Double.parseDouble(line.substring(eq + 1).trim()));
+			} catch (IndexOutOfBoundsException | NumberFormatException ex) {
+				throw new IOException(name + ":" + lineNumber + ": bad baseline line: " + line);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Write the results as `key=value` lines, after a comment telling which
+	 * host they were measured on.
+	 */
+	public static void writeBaseline(PrintWriter out, TreeMap<String, Double> results) {
+		out.printf("# Recorded by architecture.Benchmark --record on Java %s, %s, %d processors\n",
+				System.getProperty("java.version"), System.getProperty("os.arch"),
+				Runtime.getRuntime().availableProcessors());
+		for (String key : results.keySet())
+			out.printf(Locale.ROOT, "%s=%.3f\n", key, results.get(key));
+	}
+
+	public static void writeBaseline(String filename, TreeMap<String, Double> results) throws IOException {
+		File parent = new File(filename).getAbsoluteFile().getParentFile();
+		if (parent != null)
+			parent.mkdirs();
+		try (PrintWriter out = new PrintWriter(filename)) {
+			writeBaseline(out, results);
+		}
+	}
+
+	/**
+	 * Print every metric of `baseline` and `current` with its change, and
+	 * tell the throughputs that dropped by more than `tolerance` percent.
+	 * Metrics only in one of them are shown but never regressions.
+	 *
+	 * @return the keys of the regressions
+	 */
+	public static ArrayList<String> compare(TreeMap<String, Double> baseline, TreeMap<String, Double> current,
+			double tolerance, PrintStream out) {
+		TreeSet<String> keys = new TreeSet<>(baseline.keySet());
+		keys.addAll(current.keySet());
+
+		ArrayList<String> regressions = new ArrayList<>();
+		out.printf("%-40s %14s %14s %9s\n", "metric", "baseline", "current", "change");
+		for (String key : keys) {
+			Double before = baseline.get(key);
+			Double now = current.get(key);
+			if (before == null) {
+				out.printf(Locale.ROOT, "%-40s %14s %14.3f %9s\n", key, "-", now, "new");
+				continue;
+			}
+			if (now == null) {
+				out.printf(Locale.ROOT, "%-40s %14.3f %14s %9s\n", key, before, "-", "missing");
+				continue;
+			}
+
+			double change = before == 0 ? 0 : (now - before) * 100 / before;
+			boolean regressed = isThroughput(key) && change < -tolerance;
+			out.printf(Locale.ROOT, "%-40s %14.3f %14.3f %+8.1f%%%s\n", key, before, now, change,
+					regressed ? "  <-- regression" : "");
+			if (regressed)
+				regressions.add(key);
+		}
+
+		if (regressions.isEmpty())
+			out.printf(Locale.ROOT, "No throughput dropped by more than %.0f%%\n", tolerance);
+		else
+			out.printf(Locale.ROOT, "%d throughputs dropped by more than %.0f%%: %s\n",
+					regressions.size(), tolerance, String.join(", ", regressions));
+		return regressions;
+	}
+
+	/**
+	 * Measure `part` (see setPart()) in a new JVM with the class path
+	 * `classPath`, running this class with `--part` and the options in
+	 * `options`.
+	 */
+	private static TreeMap<String, Double> measureForked(String part, ArrayList<String> options, String classPath)
+			throws IOException {
+		ArrayList<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.add("-cp");
+		command.add(classPath);
+		command.add(Benchmark.class.getName());
+		command.add("--part");
+		command.add(part);
+		command.addAll(options);
+
+		Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		TreeMap<String, Double> ret;
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			ret = readBaseline(br, "measurement of " + part);
+		}
+		try {
+			if (process.waitFor() != 0)
+				throw new IOException("the measurement of " + part + " failed");
+		} catch (InterruptedException ex) {
+			process.destroy();
+			throw new IOException("interrupted while measuring " + part);
+		}
+		return ret;
+	}
+
+	private static void usage() {
+		System.err.println("Usage: benchmark [--against <CLASSES> | --record | --baseline <FILE>] [--corpus <DIR>] [--tolerance <PERCENT>]");
+		System.err.println("                 [--rounds <N>] [--round-time <MS>] [--warmup <MS>] [--in-process]");
+		System.err.printf("Measures the programs of DIR (default %s) and some generated ones on the assembler and every engine,\n", DEFAULT_CORPUS);
+		System.err.println("then compares the results with the same measurements of the build in the directory CLASSES,");
+		System.err.printf("or else with FILE (default %s), failing if a throughput dropped by more than PERCENT\n", DEFAULT_BASELINE);
+		System.err.printf("(default %.0f). With --record, the results are saved into FILE instead.\n", DEFAULT_TOLERANCE);
+		System.err.println("Each measurement is the best of N rounds of MS milliseconds, after a warmup round.");
+		System.err.println("The assembler and each engine are measured in a new JVM, unless --in-process is given");
+		System.err.println("(which can't be used with --against).");
+		System.err.println("The exit status is 0 if nothing regressed, 1 if something did");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean record = false;
+		String baselineName = DEFAULT_BASELINE;
+		String against = null;
+		String corpus = DEFAULT_CORPUS;
+		double tolerance = DEFAULT_TOLERANCE;
+		boolean inProcess = false;
+		String part = null;
+		Benchmark benchmark = new Benchmark();
+		// given to the JVMs measuring each part
+		ArrayList<String> options = new ArrayList<>();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("--record"))
+					record = true;
+				else if (args[i].equals("--baseline") && i + 1 < args.length)
+					baselineName = args[++i];
+				else if (args[i].equals("--against") && i + 1 < args.length)
+					against = args[++i];
+				else if (args[i].equals("--tolerance") && i + 1 < args.length)
+					tolerance = Double.parseDouble(args[++i]);
+				else if (args[i].equals("--in-process"))
+					inProcess = true;
+				else if (args[i].equals("--part") && i + 1 < args.length)
+					part = args[++i];
+				else if (args[i].equals("--corpus") && i + 1 < args.length)
+					corpus = args[++i];
+				else if (args[i].equals("--rounds") && i + 1 < args.length)
+					benchmark.setRounds(Integer.parseInt(args[i + 1]));
+				else if (args[i].equals("--round-time") && i + 1 < args.length)
+					benchmark.setRoundTime(Long.parseLong(args[i + 1]));
+				else if (args[i].equals("--warmup") && i + 1 < args.length)
+					benchmark.setWarmupTime(Long.parseLong(args[i + 1]));
+				else
+					usage();
+
+				if (args[i].equals("--corpus") || args[i].equals("--rounds") || args[i].equals("--round-time") || args[i].equals("--warmup")) {
+					options.add(args[i]);
+					options.add(args[++i]);
+				}
+			}
+			if (part != null)
+				benchmark.setPart(part);
+		} catch (IllegalArgumentException ex) {
+			usage();
+		}
+		if (against != null && (record || inProcess || part != null))
+			usage();
+
+		TreeMap<String, Double> baseline = null;
+		if (against != null) {
+			baseline = new TreeMap<>();
+		} else if (!record && part == null) {
+			if (!new File(baselineName).exists()) {
+				System.err.printf("There's no baseline in %s: record one with --record, or compare with another build with --against\n",
+						baselineName);
+				System.exit(2);
+			}
+			baseline = readBaseline(baselineName);
+		}
+
+		TreeMap<String, Double> results = new TreeMap<>();
+		try {
+			if (part == null && !inProcess) {
+				String classPath = System.getProperty("java.class.path");
+				// the other build comes first, so only the classes it lacks
+				// come from this one
+				String againstPath = against + File.pathSeparator + classPath;
+				ArrayList<String> parts = new ArrayList<>();
+				parts.add(ASSEMBLER_PART);
+				for (Engine engine : Engine.values())
+					parts.add(engine.name().toLowerCase(Locale.ROOT));
+				for (String p : parts) {
+					if (against != null)
+						baseline.putAll(measureForked(p, options, againstPath));
+					results.putAll(measureForked(p, options, classPath));
+				}
+			} else {
+				benchmark.addCorpus(corpus);
+				results = benchmark.measure(System.err);
+			}
+		} catch (ParseException ex) {
+			System.err.println("Error while parsing: " + ex);
+			System.exit(2);
+		}
+
+		if (part != null) {
+			// measuring a part for another JVM
+			PrintWriter out = new PrintWriter(System.out);
+			writeBaseline(out, results);
+			out.flush();
+		} else if (record) {
+			writeBaseline(baselineName, results);
+			System.err.printf("Baseline saved into %s\n", baselineName);
+		} else if (!compare(baseline, results, tolerance, System.out).isEmpty()) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package architecture;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+import architecture.Architecture.CommandID;
+import architecture.Architecture.HaltReason;
+
+/**
+ * Exact call graph profiler: runs the machine, keeping a shadow stack of the
+ * subroutines it's in, and charges every command (its cycles, see
+ * CommandID.getCycles(), and itself) to them.
+ *
+ * Each subroutine, named after the label it starts at, gets the cost of its
+ * own commands (exclusive) and of those of everything it called too
+ * (inclusive, counted once for recursive subroutines), and each caller to
+ * callee edge gets its number of calls.
+ *
+ * The shadow stack remembers the StkTOP each call left, so it doesn't need
+ * call and ret to be balanced: after every command, the frames whose StkTOP
+ * is below the current one are gone, whether a ret or a direct write to
+ * StkTOP took them off.
+ */
+public class CallGraphProfiler {
+	static final String ROOT = "main";
+
+	/**
+	 * The cost charged to a subroutine.
+	 */
+	public static class Entry {
+		private String name;
+		private long calls;
+		private long inclusiveCycles;
+		private long exclusiveCycles;
+		private long inclusiveInstructions;
+		private long exclusiveInstructions;
+
+		// frames of this subroutine on the shadow stack
+		private int active;
+
+		private Entry(String name) {
+			this.name = name;
+		}
+
+		private Entry copy() {
+			Entry ret = new Entry(name);
+			ret.calls = calls;
+			ret.inclusiveCycles = inclusiveCycles;
+			ret.exclusiveCycles = exclusiveCycles;
+			ret.inclusiveInstructions = inclusiveInstructions;
+			ret.exclusiveInstructions = exclusiveInstructions;
+			ret.active = active;
+			return ret;
+		}
+
+		public String getName() { return name; }
+		public long getCalls() { return calls; }
+		public long getInclusiveCycles() { return inclusiveCycles; }
+		public long getExclusiveCycles() { return exclusiveCycles; }
+		public long getInclusiveInstructions() { return inclusiveInstructions; }
+		public long getExclusiveInstructions() { return exclusiveInstructions; }
+	}
+
+	private static class Frame {
+		Entry entry;
+		int address;
+		int stackTop;
+		long cycles;
+		long instructions;
+	}
+
+	private Architecture arch;
+	private LabelMap labels;
+	private HashMap<Integer, Entry> entries;
+	private HashMap<Long, Long> edges;
+	private ArrayList<Frame> stack;
+
+	public CallGraphProfiler(Architecture arch, LabelMap labels) {
+		this.arch = arch;
+		this.labels = labels;
+		this.entries = new HashMap<>();
+		this.edges = new HashMap<>();
+		this.stack = new ArrayList<>();
+
+		Frame root = new Frame();
+		root.entry = entry(-1);
+		root.entry.active = 1;
+		root.address = -1;
+		root.stackTop = Integer.MAX_VALUE;
+		stack.add(root);
+	}
+
+	private Entry entry(int address) {
+		Entry e = entries.get(address);
+		if (e == null) {
+			e = new Entry(address < 0 ? ROOT : labels.nameOf(address));
+			entries.put(address, e);
+		}
+		return e;
+	}
+
+	/**
+	 * Run until the machine halts or `maxInstructions` more commands are
+	 * fetched, profiling every command.
+	 *
+	 * @return why the machine halted, or null if it reached the limit
+	 */
+	public HaltReason run(long maxInstructions) {
+		long limit = arch.limitAfter(maxInstructions);
+		int[] mem = arch.tGetMemory().getDataList();
+		while (!arch.isHalted() && arch.getInstructionCount() < limit) {
+			int pc = arch.tGetPC().getData();
+			int command = pc >= 0 && pc < mem.length ? mem[pc] : -1;
+			arch.controlUnitCycle();
+			step(command);
+		}
+		return arch.getHaltReason();
+	}
+
+	private void step(int command) {
+		CommandID id = CommandID.fromInt(command);
+		int cycles = id != null ? id.getCycles() : CommandID.FETCH_CYCLES;
+		Frame top = stack.get(stack.size() - 1);
+		top.cycles += cycles;
+		top.instructions++;
+		top.entry.exclusiveCycles += cycles;
+		top.entry.exclusiveInstructions++;
+
+		int stackTop = arch.tGetStkTOP().getData();
+		while (stack.size() > 1 && top.stackTop < stackTop) {
+			pop();
+			top = stack.get(stack.size() - 1);
+		}
+
+		if (id == CommandID.CALL && !arch.isHalted())
+			push(arch.tGetPC().getData(), stackTop);
+	}
+
+	private void push(int target, int stackTop) {
+		Frame caller = stack.get(stack.size() - 1);
+		Frame f = new Frame();
+		f.entry = entry(target);
+		f.entry.calls++;
+		f.entry.active++;
+		f.address = target;
+		f.stackTop = stackTop;
+		stack.add(f);
+
+		edges.merge(edgeKey(caller.address, target), 1L, Long::sum);
+	}
+
+	/**
+	 * Get the key of the calls from `caller` to `callee` in `edges`.
+	 */
+	private static long edgeKey(int caller, int callee) {
+		return ((long) caller << 32) | (callee & 0xffffffffL);
+	}
+
+	private static int callerOf(long edgeKey) {
+		return (int) (edgeKey >> 32);
+	}
+
+	private static int calleeOf(long edgeKey) {
+		return (int) edgeKey;
+	}
+
+	private void pop() {
+		Frame f = stack.remove(stack.size() - 1);
+		charge(f, f.entry);
+		Frame parent = stack.get(stack.size() - 1);
+		parent.cycles += f.cycles;
+		parent.instructions += f.instructions;
+	}
+
+	/**
+	 * Charge the cost of a frame that's done (its own, plus that of the
+	 * frames it called) to its subroutine.
+	 */
+	private static void charge(Frame f, Entry e) {
+		e.active--;
+		// the frames of a recursive subroutine below this one are charged
+		// for it once they're done
+		if (e.active == 0) {
+			e.inclusiveCycles += f.cycles;
+			e.inclusiveInstructions += f.instructions;
+		}
+	}
+
+	/**
+	 * Get the cost charged to each subroutine so far (the frames still on
+	 * the shadow stack are charged as if they were done now), most
+	 * inclusive cycles first.
+	 */
+	public ArrayList<Entry> getEntries() {
+		HashMap<Entry, Entry> copies = new HashMap<>();
+		for (Entry e : entries.values())
+			copies.put(e, e.copy());
+
+		long cycles = 0;
+		long instructions = 0;
+		for (int i = stack.size() - 1; i >= 0; i--) {
+			Frame f = stack.get(i);
+			Frame done = new Frame();
+			done.cycles = f.cycles + cycles;
+			done.instructions = f.instructions + instructions;
+			charge(done, copies.get(f.entry));
+			cycles = done.cycles;
+			instructions = done.instructions;
+		}
+
+		ArrayList<Entry> ret = new ArrayList<>(copies.values());
+		Collections.sort(ret, (a, b) -> Long.compare(b.inclusiveCycles, a.inclusiveCycles));
+		return ret;
+	}
+
+	/**
+	 * Get how many times `caller` called `callee` (by name; the program
+	 * itself is "main").
+	 */
+	public long getCalls(String caller, String callee) {
+		long ret = 0;
+		for (HashMap.Entry<Long, Long> e : edges.entrySet()) {
+			long key = e.getKey();
+			if (entries.get(callerOf(key)).name.equals(caller) && entries.get(calleeOf(key)).name.equals(callee))
+				ret += e.getValue();
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the depth of the shadow stack (0 when not in any subroutine).
+	 */
+	public int getDepth() {
+		return stack.size() - 1;
+	}
+
+	public void write(PrintStream out) {
+		out.printf("%-20s %10s %14s %14s %12s %12s\n", "subroutine", "calls", "incl. cycles", "excl. cycles", "incl. cmds", "excl. cmds");
+		for (Entry e : getEntries()) {
+			out.printf("%-20s %10d %14d %14d %12d %12d\n", e.name, e.calls,
+					e.inclusiveCycles, e.exclusiveCycles, e.inclusiveInstructions, e.exclusiveInstructions);
+		}
+
+		out.println();
+		out.printf("%-20s %-20s %10s\n", "caller", "callee", "calls");
+		ArrayList<Long> keys = new ArrayList<>(edges.keySet());
+		Collections.sort(keys);
+		for (long key : keys) {
+			String caller = entries.get(callerOf(key)).name;
+			String callee = entries.get(calleeOf(key)).name;
+			out.printf("%-20s %-20s %10d\n", caller, callee, edges.get(key));
+		}
+	}
+}
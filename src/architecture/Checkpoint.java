@@ -0,0 +1,77 @@
+package architecture;
+
+import components.Memory;
+
+import architecture.Architecture.HaltReason;
+
+/**
+ * A snapshot of a machine: registers (flags included), status memory and
+ * main memory, plus its instruction count and halt state.
+ *
+ * The main memory is kept as pages. A checkpoint taken after another one
+ * only copies the pages written since then (see Memory.isPageDirty()) and
+ * shares the others with the previous checkpoint, so a sequence of
+ * checkpoints costs about the memory the program actually touches.
+ */
+class Checkpoint {
+	final long instructionCount;
+	final HaltReason haltReason;
+	final int[] registers;
+	final int[] statusMem;
+	final int[][] pages;
+
+	// pages copied for this checkpoint (not shared with the previous one)
+	final int copiedPages;
+
+	private Checkpoint(Architecture arch, int[][] pages, int copiedPages) {
+		this.instructionCount = arch.getInstructionCount();
+		this.haltReason = arch.getHaltReason();
+		this.registers = arch.saveRegisters();
+		this.statusMem = arch.tGetStatusMem().getDataList().clone();
+		this.pages = pages;
+		this.copiedPages = copiedPages;
+	}
+
+	/**
+	 * Take a checkpoint of the machine, sharing the pages that weren't
+	 * written since `previous` was taken (null to copy everything), and
+	 * start tracking the pages written from now on.
+	 */
+	static Checkpoint take(Architecture arch, Checkpoint previous) {
+		Memory memory = arch.tGetMemory();
+		memory.setStoreTracking(true);
+		int[] data = memory.getDataList();
+		int[][] pages = new int[memory.getPageCount()][];
+		int copied = 0;
+
+		for (int p = 0; p < pages.length; p++) {
+			if (previous != null && !memory.isPageDirty(p)) {
+				pages[p] = previous.pages[p];
+			} else {
+				int start = p * Memory.PAGE_SIZE;
+				int end = Math.min(start + Memory.PAGE_SIZE, data.length);
+				pages[p] = new int[end - start];
+				System.arraycopy(data, start, pages[p], 0, end - start);
+				copied++;
+			}
+		}
+
+		memory.clearDirtyPages();
+		return new Checkpoint(arch, pages, copied);
+	}
+
+	/**
+	 * Bring the machine back to this checkpoint.
+	 */
+	void restore(Architecture arch) {
+		Memory memory = arch.tGetMemory();
+		int[] data = memory.getDataList();
+		for (int p = 0; p < pages.length; p++)
+			System.arraycopy(pages[p], 0, data, p * Memory.PAGE_SIZE, pages[p].length);
+		memory.clearDirtyPages();
+
+		System.arraycopy(statusMem, 0, arch.tGetStatusMem().getDataList(), 0, statusMem.length);
+		arch.restoreRegisters(registers);
+		arch.restoreRunState(instructionCount, haltReason);
+	}
+}
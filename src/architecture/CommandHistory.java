@@ -0,0 +1,129 @@
+package architecture;
+
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+import architecture.Architecture.CommandID;
+
+/**
+ * Fixed-size ring of the last commands a machine ran, to see what led to a
+ * crash.
+ *
+ * Each entry is a long holding the address of a command in its high word and
+ * the command word fetched in its low one (when the address was bad, nothing
+ * is fetched and it's the previous command word).
+ *
+ * Only the thread running the machine adds entries, without locks: it writes
+ * the slot, then publishes the new count with a release store. Any other
+ * thread can take a snapshot() at any time; entries that get overwritten
+ * while it copies them are left out of it.
+ */
+public class CommandHistory {
+	public static final int DEFAULT_SIZE = 1024;
+
+	private static final VarHandle COUNT;
+	static {
+		try {
+			COUNT = MethodHandles.lookup().findVarHandle(CommandHistory.class, "count", long.class);
+		} catch (ReflectiveOperationException ex) {
+			throw new ExceptionInInitializerError(ex);
+		}
+	}
+
+	private final long[] entries;
+	private final int mask;
+	private long count; // written through COUNT, with release semantics
+
+	/**
+	 * @param size how many entries to keep, a power of two
+	 */
+	public CommandHistory(int size) {
+		if (size <= 0 || (size & (size - 1)) != 0)
+			throw new IllegalArgumentException("history size must be a power of two");
+		this.entries = new long[size];
+		this.mask = size - 1;
+	}
+
+	public int getSize() {
+		return entries.length;
+	}
+
+	/**
+	 * Get how many entries were ever added.
+	 */
+	public long getCount() {
+		return (long) COUNT.getAcquire(this);
+	}
+
+	/**
+	 * Forget every entry. Only the thread running the machine may do it.
+	 */
+	void clear() {
+		COUNT.setRelease(this, 0L);
+	}
+
+	void add(int pc, int command) {
+		long c = count;
+		// readers must see the count of the previous entry before the oldest
+		// one starts getting overwritten
+		VarHandle.storeStoreFence();
+		entries[(int) c & mask] = ((long) pc << 32) | (command & 0xffffffffL);
+		COUNT.setRelease(this, c + 1);
+	}
+
+	public static int pc(long entry) {
+		return (int) (entry >> 32);
+	}
+
+	public static int command(long entry) {
+		return (int) entry;
+	}
+
+	/**
+	 * Copy the entries still in the ring (at most size - 1), oldest first.
+	 * Safe from any thread.
+	 */
+	public long[] snapshot() {
+		while (true) {
+			long end = getCount();
+			long start = Math.max(0, end - entries.length);
+			long[] copy = new long[(int) (end - start)];
+			for (int k = 0; k < copy.length; k++)
+				copy[k] = entries[(int) (start + k) & mask];
+
+			// entries added meanwhile may have overwritten the oldest ones we
+			// copied: keep the ones that surely weren't (the slot of the entry
+			// after the last one counted may be being written)
+			VarHandle.loadLoadFence();
+			long firstValid = Math.max(start, getCount() + 1 - entries.length);
+			if (firstValid == start)
+				return copy;
+			if (firstValid >= end)
+				continue;
+			return Arrays.copyOfRange(copy, (int) (firstValid - start), copy.length);
+		}
+	}
+
+	public void dump(PrintStream out) {
+		dump(out, null);
+	}
+
+	/**
+	 * Print the history, with where each command came from in the source if
+	 * there are debug symbols.
+	 */
+	public void dump(PrintStream out, DebugSymbols symbols) {
+		long[] snapshot = snapshot();
+		out.printf("Last %d commands, oldest first:\n", snapshot.length);
+		for (long e : snapshot) {
+			CommandID id = CommandID.fromInt(command(e));
+			String name = id != null ? id.toString() : command(e) == -1 ? "halt" : "invalid";
+			if (symbols != null)
+				out.printf("  %4d: %d (%s) at %s\n", pc(e), command(e), name, symbols.describe(pc(e)));
+			else
+				out.printf("  %4d: %d (%s)\n", pc(e), command(e), name);
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package architecture;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Debug symbols of an executable (`.dsym`, written next to the `.dxf` by the
+ * assembler with -g), memory-mapped: what each address of the executable
+ * came from in the source.
+ *
+ * Format (big-endian): the "DSFY" magic, a version int, the memory size,
+ * the length and hash of the executable (see hashExecutable()), the number
+ * of ranges and the number of labels, then the ranges sorted by address,
+ * then the labels sorted by address, then the strings:
+ *
+ *     <start> <end> <source line> <label> <variable>    (range, 5 ints)
+ *     <address> <name>                                  (label, 2 ints)
+ *
+ * A range covers the addresses from start to end (exclusive); its line is 0
+ * when it has no source (like the prefix the assembler adds), and its label
+ * is the one enclosing it. Labels and variables are offsets into the
+ * strings, -1 for none, and each string is its length (unsigned short) and
+ * its UTF-8 bytes. Lookups are binary searches over the mapped file.
+ *
+ * The length and hash let a loader tell whether the symbols still describe
+ * the executable next to them; they're -1 and 0 for symbols not made for an
+ * executable file.
+ */
+public class DebugSymbols {
+	static final int MAGIC = 0x44534659; // "DSFY"
+	static final int VERSION = 2;
+	static final int HEADER_SIZE = 28;
+	static final int RANGE_SIZE = 20;
+	static final int LABEL_SIZE = 8;
+
+	private ByteBuffer buffer;
+	private int memorySize;
+	private int executableLength;
+	private int executableHash;
+	private int ranges;
+	private int labels;
+	private int labelsStart;
+	private int stringsStart;
+	private LabelMap labelMap;
+
+	private DebugSymbols(ByteBuffer buffer) throws SymbolsException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new SymbolsException("not a debug symbols file");
+		if (buffer.getInt(4) != VERSION)
+			throw new SymbolsException("unsupported debug symbols version");
+
+		this.memorySize = buffer.getInt(8);
+		this.executableLength = buffer.getInt(12);
+		this.executableHash = buffer.getInt(16);
+		this.ranges = buffer.getInt(20);
+		this.labels = buffer.getInt(24);
+		this.labelsStart = HEADER_SIZE + ranges * RANGE_SIZE;
+		this.stringsStart = labelsStart + labels * LABEL_SIZE;
+		if (ranges < 0 || labels < 0 || stringsStart > buffer.capacity())
+			throw new SymbolsException("debug symbols file is truncated");
+	}
+
+	/**
+	 * Map a debug symbols file.
+	 */
+	public static DebugSymbols open(Path path) throws IOException, SymbolsException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// the mapping stays valid after the channel is closed
+			return new DebugSymbols(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	public int getMemorySize() {
+		return memorySize;
+	}
+
+	/**
+	 * Tell whether these are the symbols of an executable of `length` words
+	 * hashing to `hash`.
+	 */
+	public boolean describes(int length, int hash) {
+		return executableLength == length && executableHash == hash;
+	}
+
+	/**
+	 * Get the hash of an executable: the CRC-32 of its first `length` words,
+	 * big-endian.
+	 */
+	public static int hashExecutable(int[] words, int length) {
+		ByteBuffer bytes = ByteBuffer.allocate(4 * length);
+		bytes.asIntBuffer().put(words, 0, length);
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		return (int) crc.getValue();
+	}
+
+	public int getRangeCount() {
+		return ranges;
+	}
+
+	/**
+	 * Get the index of the range holding `address`, or -1 if there's none.
+	 */
+	public int findRange(int address) {
+		int lo = 0;
+		int hi = ranges - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int p = HEADER_SIZE + mid * RANGE_SIZE;
+			if (address < buffer.getInt(p))
+				hi = mid - 1;
+			else if (address >= buffer.getInt(p + 4))
+				lo = mid + 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the source line `address` came from, or 0 if it has none.
+	 */
+	public int getLine(int address) {
+		int r = findRange(address);
+		return r < 0 ? 0 : buffer.getInt(HEADER_SIZE + r * RANGE_SIZE + 8);
+	}
+
+	/**
+	 * Get the label enclosing `address`, or null if there's none.
+	 */
+	public String getLabel(int address) {
+		int r = findRange(address);
+		return r < 0 ? null : string(buffer.getInt(HEADER_SIZE + r * RANGE_SIZE + 12));
+	}
+
+	/**
+	 * Get the variable stored at `address`, or null if there's none.
+	 */
+	public String getVariable(int address) {
+		int r = findRange(address);
+		return r < 0 ? null : string(buffer.getInt(HEADER_SIZE + r * RANGE_SIZE + 16));
+	}
+
+	/**
+	 * Get all the labels, to name addresses after them.
+	 */
+	public LabelMap getLabelMap() {
+		if (labelMap == null) {
+			ArrayList<String> names = new ArrayList<>();
+			ArrayList<Integer> addresses = new ArrayList<>();
+			for (int i = 0; i < labels; i++) {
+				int p = labelsStart + i * LABEL_SIZE;
+				addresses.add(buffer.getInt(p));
+				names.add(string(buffer.getInt(p + 4)));
+			}
+			labelMap = new LabelMap(names, addresses);
+		}
+		return labelMap;
+	}
+
+	/**
+	 * Describe an address for people: its variable, or its name after the
+	 * labels and its source line.
+	 */
+	public String describe(int address) {
+		String variable = getVariable(address);
+		if (variable != null)
+			return variable;
+		int line = getLine(address);
+		String name = getLabelMap().nameOf(address);
+		return line > 0 ? name + " (line " + line + ")" : name;
+	}
+
+	private String string(int offset) {
+		if (offset < 0)
+			return null;
+		int p = stringsStart + offset;
+		byte[] bytes = new byte[buffer.getShort(p) & 0xffff];
+		buffer.get(p + 2, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public static class SymbolsException extends Exception {
+		public SymbolsException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Collects the symbols of an executable and writes them. Ranges must be
+	 * added in address order, and adjacent ranges with the same symbols are
+	 * merged.
+	 */
+	public static class Writer {
+		private int memorySize;
+		private int executableLength = -1;
+		private int executableHash;
+		private ArrayList<int[]> ranges;
+		private ArrayList<Integer> labelAddresses;
+		private ArrayList<Integer> labelNames;
+		private HashMap<String, Integer> stringOffsets;
+		private ByteArrayOutputStream strings;
+
+		public Writer(int memorySize) {
+			this.memorySize = memorySize;
+			this.ranges = new ArrayList<>();
+			this.labelAddresses = new ArrayList<>();
+			this.labelNames = new ArrayList<>();
+			this.stringOffsets = new HashMap<>();
+			this.strings = new ByteArrayOutputStream();
+		}
+
+		/**
+		 * Tie the symbols to the executable made of `words`.
+		 */
+		public void setExecutable(int[] words) {
+			executableLength = words.length;
+			executableHash = hashExecutable(words, words.length);
+		}
+
+		public void addRange(int start, int end, int line, String label, String variable) {
+			int labelOffset = intern(label);
+			int variableOffset = intern(variable);
+
+			if (!ranges.isEmpty()) {
+				int[] last = ranges.get(ranges.size() - 1);
+				if (start < last[1])
+					throw new IllegalArgumentException("ranges must be added in address order");
+				if (last[1] == start && last[2] == line && last[3] == labelOffset && last[4] == variableOffset) {
+					last[1] = end;
+					return;
+				}
+			}
+			ranges.add(new int[] { start, end, line, labelOffset, variableOffset });
+		}
+
+		public void addLabel(String name, int address) {
+			int i = labelAddresses.size();
+			while (i > 0 && labelAddresses.get(i - 1) > address)
+				i--;
+			labelAddresses.add(i, address);
+			labelNames.add(i, intern(name));
+		}
+
+		private int intern(String s) {
+			if (s == null)
+				return -1;
+			Integer offset = stringOffsets.get(s);
+			if (offset == null) {
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				offset = strings.size();
+				strings.write(bytes.length >> 8);
+				strings.write(bytes.length);
+				strings.write(bytes, 0, bytes.length);
+				stringOffsets.put(s, offset);
+			}
+			return offset;
+		}
+
+		public void write(String filename) throws IOException {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(memorySize);
+				out.writeInt(executableLength);
+				out.writeInt(executableHash);
+				out.writeInt(ranges.size());
+				out.writeInt(labelAddresses.size());
+				for (int[] range : ranges) {
+					for (int v : range)
+						out.writeInt(v);
+				}
+				for (int i = 0; i < labelAddresses.size(); i++) {
+					out.writeInt(labelAddresses.get(i));
+					out.writeInt(labelNames.get(i));
+				}
+				strings.writeTo(out);
+			}
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package architecture;
+
+/**
+ * The ways a program can be run, for the command line tools and benchmarks
+ * to choose from.
+ */
+public enum Engine {
+	/** The plain machine, with no instrumentation. */
+	PLAIN,
+	/** An ObservedArchitecture (with no listeners unless some are added). */
+	OBSERVED;
+
+	/**
+	 * Make a machine running this way, not in simulation mode.
+	 */
+	public Architecture newMachine() {
+		switch (this) {
+		case OBSERVED:
+			return new ObservedArchitecture(false);
+		default:
+			return new Architecture(false);
+		}
+	}
+
+	/**
+	 * Get the engine with the given name, in any case, or null if there's
+	 * none.
+	 */
+	public static Engine fromName(String name) {
+		for (Engine e : values()) {
+			if (e.name().equalsIgnoreCase(name))
+				return e;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,137 @@
+package architecture;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Execution profile of a program: how many times the instruction at each
+ * address was executed, and how many of those times it jumped (the next
+ * instruction was not the one right after it).
+ *
+ * It is filled in by the Architecture (see Architecture.setProfile()) and read
+ * by the assembler's profile-guided passes, so it must be collected from an
+ * executable built without optimizations: the addresses in the profile are
+ * matched against the program as the assembler first parses it.
+ *
+ * File format (`.dpf`): a `profile <memory size>` header, then one
+ * `<address> <count> <taken>` line per executed address.
+ */
+public class ExecutionProfile {
+	private long[] executions;
+	private long[] taken;
+
+	public ExecutionProfile(int memorySize) {
+		executions = new long[memorySize];
+		taken = new long[memorySize];
+	}
+
+	public int getMemorySize() {
+		return executions.length;
+	}
+
+	public void countExecution(int address) {
+		if (address >= 0 && address < executions.length)
+			executions[address]++;
+	}
+
+	public void countTaken(int address) {
+		if (address >= 0 && address < taken.length)
+			taken[address]++;
+	}
+
+	public long getExecutions(int address) {
+		if (address < 0 || address >= executions.length)
+			return 0;
+		return executions[address];
+	}
+
+	/**
+	 * Get how many times the instruction at `address` jumped.
+	 */
+	public long getTaken(int address) {
+		if (address < 0 || address >= taken.length)
+			return 0;
+		return taken[address];
+	}
+
+	/**
+	 * Get how many times the instruction at `address` went on to the
+	 * instruction right after it.
+	 */
+	public long getNotTaken(int address) {
+		return getExecutions(address) - getTaken(address);
+	}
+
+	/**
+	 * Get a short string that changes whenever the profile changes, to be
+	 * used in cache keys.
+	 */
+	public String fingerprint() {
+		long h = 1125899906842597L;
+		for (int i = 0; i < executions.length; i++)
+			h = 31 * (31 * h + executions[i]) + taken[i];
+		return Long.toHexString(h);
+	}
+
+	/**
+	 * Save the profile into `filename.dpf`.
+	 *
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void write(String filename) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(new File(filename + ".dpf")));
+		writer.write("profile " + executions.length + "\n");
+		for (int i = 0; i < executions.length; i++) {
+			if (executions[i] != 0)
+				writer.write(i + " " + executions[i] + " " + taken[i] + "\n");
+		}
+		writer.close();
+	}
+
+	/**
+	 * Load a profile from `filename.dpf`.
+	 *
+	 * @param filename
+	 * @throws IOException if the file can't be read or is malformed
+	 */
+	public static ExecutionProfile read(String filename) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(filename + ".dpf"));
+		ExecutionProfile profile = null;
+
+		try {
+			String header = br.readLine();
+			if (header == null || !header.startsWith("profile "))
+				throw new IOException("missing profile header");
+			profile = new ExecutionProfile(Integer.parseInt(header.substring(8).trim()));
+
+			while (true) {
+				String line = br.readLine();
+				if (line == null)
+					break;
+				if (line.isEmpty())
+					continue;
+
+				String[] tokens = line.split(" ");
+				if (tokens.length != 3)
+					throw new IOException("unexpected line: " + line);
+
+				int address = Integer.parseInt(tokens[0]);
+				if (address < 0 || address >= profile.executions.length)
+					throw new IOException("address out of range: " + address);
+				profile.executions[address] = Long.parseLong(tokens[1]);
+				profile.taken[address] = Long.parseLong(tokens[2]);
+			}
+		} catch (NumberFormatException | IOException ex) {
+			throw new IOException(String.format("%s.dpf: malformed profile: %s", filename, ex.getMessage()));
+		} finally {
+			br.close();
+		}
+
+		return profile;
+	}
+}
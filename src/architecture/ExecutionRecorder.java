@@ -0,0 +1,154 @@
+package architecture;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import architecture.Architecture.HaltReason;
+
+/**
+ * Records an execution so that ExecutionReplayer can run it again exactly.
+ *
+ * The machine is deterministic, so only what comes from outside is logged:
+ * the state the machine starts from, and every change the host makes to it
+ * while it runs (which must go through setRegister()/setMemory() instead of
+ * the tGet*() accessors). A hash of the machine state is logged every
+ * `hashInterval` commands, so the replayer can tell where the two runs
+ * diverged.
+ *
+ * Log format: the "DSFR" magic and a version byte, then the initial state
+ * (memory without its trailing zeros, registers as in saveRegisters() and
+ * status memory, all counts and values as VarInts), then a sequence of
+ * events. Each event is a tag byte followed by the number of commands run
+ * since the previous event and its data:
+ *
+ *     HASH  <count> <state hash (8 bytes)>
+ *     REG   <count> <register id> <value>
+ *     MEM   <count> <address> <value>
+ *     END   <count> <halt reason ordinal + 1, or 0> <state hash (8 bytes)>
+ */
+public class ExecutionRecorder implements Closeable {
+	static final int MAGIC = 0x44534652; // "DSFR"
+	static final int VERSION = 1;
+
+	static final int HASH = 1;
+	static final int REG = 2;
+	static final int MEM = 3;
+	static final int END = 4;
+
+	public static final int DEFAULT_HASH_INTERVAL = 100_000;
+
+	private Architecture arch;
+	private DataOutputStream out;
+	private long hashInterval;
+	private long lastEvent;
+	private long nextHash;
+	private boolean closed;
+
+	/**
+	 * Start recording, from the current state of the machine.
+	 */
+	public ExecutionRecorder(Architecture arch, OutputStream out, long hashInterval) throws IOException {
+		this.arch = arch;
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+		this.hashInterval = hashInterval;
+		this.lastEvent = arch.getInstructionCount();
+		this.nextHash = arch.limitAfter(hashInterval);
+
+		this.out.writeInt(MAGIC);
+		this.out.writeByte(VERSION);
+		writeState(this.out, arch);
+	}
+
+	/**
+	 * Write the whole visible state of a machine: memory without its
+	 * trailing zeros, registers as in saveRegisters() and status memory.
+	 */
+	static void writeState(DataOutput out, Architecture arch) throws IOException {
+		int[] memory = arch.tGetMemory().getDataList();
+		int used = memory.length;
+		while (used > 0 && memory[used - 1] == 0)
+			used--;
+		VarInt.writeUnsigned(out, used);
+		for (int i = 0; i < used; i++)
+			VarInt.writeSigned(out, memory[i]);
+
+		int[] registers = arch.saveRegisters();
+		VarInt.writeUnsigned(out, registers.length);
+		for (int v : registers)
+			VarInt.writeSigned(out, v);
+
+		int[] status = arch.tGetStatusMem().getDataList();
+		VarInt.writeUnsigned(out, status.length);
+		for (int v : status)
+			VarInt.writeSigned(out, v);
+	}
+
+	private void writeEvent(int tag) throws IOException {
+		out.writeByte(tag);
+		VarInt.writeUnsigned(out, arch.getInstructionCount() - lastEvent);
+		lastEvent = arch.getInstructionCount();
+	}
+
+	/**
+	 * Run until the machine halts or `maxInstructions` more commands are run,
+	 * logging the state hashes along the way.
+	 *
+	 * @return why the machine halted, or null if it reached the limit
+	 */
+	public HaltReason run(long maxInstructions) throws IOException {
+		long limit = arch.limitAfter(maxInstructions);
+		while (!arch.isHalted() && arch.getInstructionCount() < limit) {
+			arch.run(Math.min(limit, nextHash) - arch.getInstructionCount());
+			if (arch.getInstructionCount() == nextHash) {
+				writeEvent(HASH);
+				out.writeLong(arch.stateHash());
+				nextHash = arch.limitAfter(hashInterval);
+			}
+		}
+		return arch.getHaltReason();
+	}
+
+	/**
+	 * Set a register (by its index in registerList) from the host.
+	 */
+	public void setRegister(int id, int value) throws IOException {
+		int[] registers = arch.saveRegisters();
+		registers[id] = value;
+		arch.restoreRegisters(registers);
+
+		writeEvent(REG);
+		VarInt.writeUnsigned(out, id);
+		VarInt.writeSigned(out, value);
+	}
+
+	/**
+	 * Set a memory word from the host.
+	 */
+	public void setMemory(int address, int value) throws IOException {
+		arch.tGetMemory().set(address, value);
+
+		writeEvent(MEM);
+		VarInt.writeUnsigned(out, address);
+		VarInt.writeSigned(out, value);
+	}
+
+	/**
+	 * End the log with the final state hash.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		writeEvent(END);
+		HaltReason reason = arch.getHaltReason();
+		out.writeByte(reason == null ? 0 : reason.ordinal() + 1);
+		out.writeLong(arch.stateHash());
+		out.close();
+	}
+}
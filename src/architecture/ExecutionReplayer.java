@@ -0,0 +1,113 @@
+package architecture;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import architecture.Architecture.HaltReason;
+import components.Memory;
+
+/**
+ * Runs again an execution logged by ExecutionRecorder, checking that it goes
+ * exactly as recorded.
+ */
+public class ExecutionReplayer {
+	private DataInputStream in;
+
+	public ExecutionReplayer(InputStream in) {
+		this.in = new DataInputStream(new BufferedInputStream(in));
+	}
+
+	/**
+	 * Replay the whole log on a new machine.
+	 *
+	 * @return the machine, in its final state
+	 * @throws ReplayException if the log is malformed or the run diverges
+	 */
+	public Architecture replay() throws IOException, ReplayException {
+		Architecture arch = new Architecture(false);
+
+		try {
+			if (in.readInt() != ExecutionRecorder.MAGIC)
+				throw new ReplayException("not an execution log");
+			if (in.readUnsignedByte() != ExecutionRecorder.VERSION)
+				throw new ReplayException("unsupported execution log version");
+			readState(in, arch);
+
+			while (true) {
+				int tag = in.readUnsignedByte();
+				long count = VarInt.readUnsigned(in);
+				long target = arch.getInstructionCount() + count;
+				arch.run(count);
+				if (arch.getInstructionCount() != target)
+					throw new ReplayException(String.format("machine halted at %d, before the event at %d", arch.getInstructionCount(), target));
+
+				switch (tag) {
+				case ExecutionRecorder.HASH:
+					checkHash(arch, in.readLong());
+					break;
+				case ExecutionRecorder.REG: {
+					int id = (int) VarInt.readUnsigned(in);
+					int[] registers = arch.saveRegisters();
+					registers[id] = (int) VarInt.readSigned(in);
+					arch.restoreRegisters(registers);
+					break;
+				}
+				case ExecutionRecorder.MEM: {
+					int address = (int) VarInt.readUnsigned(in);
+					arch.tGetMemory().set(address, (int) VarInt.readSigned(in));
+					break;
+				}
+				case ExecutionRecorder.END: {
+					int reason = in.readUnsignedByte();
+					HaltReason expected = reason == 0 ? null : HaltReason.values()[reason - 1];
+					if (arch.getHaltReason() != expected)
+						throw new ReplayException(String.format("ended with %s, recorded %s", arch.getHaltReason(), expected));
+					checkHash(arch, in.readLong());
+					return arch;
+				}
+				default:
+					throw new ReplayException("unknown event " + tag);
+				}
+			}
+		} catch (EOFException ex) {
+			throw new ReplayException("execution log ends abruptly");
+		} catch (ArrayIndexOutOfBoundsException ex) {
+			throw new ReplayException("execution log refers to a register or address out of range");
+		}
+	}
+
+	/**
+	 * Read a state written by ExecutionRecorder.writeState() into a machine.
+	 */
+	static void readState(DataInput in, Architecture arch) throws IOException {
+		Memory memory = arch.tGetMemory();
+		int used = (int) VarInt.readUnsigned(in);
+		for (int i = 0; i < used; i++)
+			memory.set(i, (int) VarInt.readSigned(in));
+
+		int[] registers = new int[(int) VarInt.readUnsigned(in)];
+		for (int i = 0; i < registers.length; i++)
+			registers[i] = (int) VarInt.readSigned(in);
+		arch.restoreRegisters(registers);
+
+		int[] status = arch.tGetStatusMem().getDataList();
+		int n = (int) VarInt.readUnsigned(in);
+		for (int i = 0; i < n; i++)
+			status[i] = (int) VarInt.readSigned(in);
+	}
+
+	private static void checkHash(Architecture arch, long expected) throws ReplayException {
+		if (arch.stateHash() != expected)
+			throw new ReplayException("state diverged at command " + arch.getInstructionCount());
+	}
+
+	public static class ReplayException extends Exception {
+		public ReplayException(String message) {
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package architecture;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import architecture.Architecture.HaltReason;
+
+/**
+ * A run of a program with no interaction, for scripts and benchmarks: it
+ * runs at full speed up to an optional instruction limit, then prints what
+ * was asked for as `key=value` lines and gives an exit status telling how
+ * the run ended (see exitStatus()).
+ */
+public class HeadlessRun {
+	public static final int EXIT_HALT = 0;
+	public static final int EXIT_LIMIT = 3;
+	public static final int EXIT_BAD_INSTRUCTION = 4;
+	public static final int EXIT_BAD_ADDRESS = 5;
+	/** The guest made the simulator throw (storing out of the memory, say). */
+	public static final int EXIT_HOST_FAULT = 6;
+	/** The executable couldn't be loaded (missing, or not a valid .dxf). */
+	public static final int EXIT_BAD_EXECUTABLE = 7;
+
+	private Architecture arch;
+	private long limit = Long.MAX_VALUE;
+	private boolean registers;
+	private boolean stats;
+	private OpcodeLatency latency;
+	private ArrayList<Integer> rangeStarts = new ArrayList<>();
+	private ArrayList<Integer> rangeEnds = new ArrayList<>();
+	private long elapsed;
+
+	public HeadlessRun(Architecture arch) {
+		this.arch = arch;
+	}
+
+	public void setLimit(long limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Print the registers after the run.
+	 */
+	public void setRegisters(boolean registers) {
+		this.registers = registers;
+	}
+
+	/**
+	 * Print the instructions run, the host time, the guest MIPS and the halt
+	 * reason after the run.
+	 */
+	public void setStats(boolean stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * Measure the host time of 1 in `interval` commands and print its
+	 * percentiles for each kind of command after the run.
+	 */
+	public void setLatency(int interval) {
+		latency = new OpcodeLatency(interval);
+		arch.setLatency(latency);
+	}
+
+	public OpcodeLatency getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Print the memory from `start` to `end` (inclusive) after the run.
+	 */
+	public void addMemoryRange(int start, int end) {
+		if (start < 0 || end >= arch.getMemorySize() || start > end)
+			throw new IllegalArgumentException("bad memory range " + start + ":" + end);
+		rangeStarts.add(start);
+		rangeEnds.add(end);
+	}
+
+	/**
+	 * Parse a memory range given as `START:END` or as a single address.
+	 */
+	public void addMemoryRange(String range) {
+		try {
+			int colon = range.indexOf(':');
+			if (colon < 0)
+				addMemoryRange(Integer.parseInt(range), Integer.parseInt(range));
+			else
+				addMemoryRange(Integer.parseInt(range.substring(0, colon)), Integer.parseInt(range.substring(colon + 1)));
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("bad memory range " + range);
+		}
+	}
+
+	/**
+	 * Run the program and print the results.
+	 *
+	 * @return the exit status
+	 */
+	public int run(PrintStream out) {
+		long start = arch.getInstructionCount();
+		long t = System.nanoTime();
+		HaltReason reason = null;
+		RuntimeException fault = null;
+		try {
+			reason = arch.run(limit);
+		} catch (RuntimeException ex) {
+			fault = ex;
+		}
+		elapsed = System.nanoTime() - t;
+		long instructions = arch.getInstructionCount() - start;
+
+		if (fault != null)
+			out.printf("host_fault=%s\n", fault);
+		if (stats) {
+			out.printf("halt_reason=%s\n", fault != null ? "HOST_FAULT" : reason == null ? "LIMIT" : reason);
+			out.printf("instructions=%d\n", instructions);
+			// machine-readable, so never with a decimal comma
+			out.printf(Locale.ROOT, "host_time_ms=%.3f\n", elapsed / 1e6);
+			out.printf(Locale.ROOT, "guest_mips=%.6f\n", elapsed == 0 ? 0 : instructions * 1e3 / elapsed);
+		}
+
+		if (registers) {
+			int[] values = arch.saveRegisters();
+			for (int i = 0; i < values.length; i++)
+				out.printf("%s=%d\n", arch.registerList[i].getRegisterName(), values[i]);
+		}
+
+		if (latency != null)
+			latency.writeValues(out);
+
+		int[] mem = arch.tGetMemory().getDataList();
+		for (int r = 0; r < rangeStarts.size(); r++) {
+			for (int a = rangeStarts.get(r); a <= rangeEnds.get(r); a++)
+				out.printf("mem[%d]=%d\n", a, mem[a]);
+		}
+
+		return fault != null ? EXIT_HOST_FAULT : exitStatus(reason);
+	}
+
+	/**
+	 * Get the host time the last run took, in nanoseconds.
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	/**
+	 * Get the exit status for a run that ended with `reason` (null if it
+	 * reached the instruction limit).
+	 */
+	public static int exitStatus(HaltReason reason) {
+		if (reason == null)
+			return EXIT_LIMIT;
+		switch (reason) {
+		case BAD_INSTRUCTION: return EXIT_BAD_INSTRUCTION;
+		case BAD_ADDRESS: return EXIT_BAD_ADDRESS;
+		default: return EXIT_HALT;
+		}
+	}
+}
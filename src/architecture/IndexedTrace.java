@@ -0,0 +1,85 @@
+package architecture;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import architecture.TraceReader.TraceException;
+
+/**
+ * Random access to a trace written with keyframes and an index (see
+ * TraceWriter and TraceIndex).
+ *
+ * Getting to any state reads at most one keyframe interval of the trace,
+ * starting at the keyframe before it, and the states where the PC has some
+ * value are only looked for between the keyframes whose PC bitmap has it.
+ */
+public class IndexedTrace {
+	private Path trace;
+	private TraceIndex index;
+
+	public IndexedTrace(Path trace, Path index) throws IOException, TraceException {
+		this.trace = trace;
+		this.index = TraceIndex.open(index);
+	}
+
+	public TraceIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Get a reader at the state after `count` commands, which can then read
+	 * on from there (and must be closed).
+	 *
+	 * @return null if the trace starts after that state or ends before it
+	 */
+	public TraceReader seek(long count) throws IOException, TraceException {
+		int keyframe = index.find(count);
+		if (keyframe < 0)
+			return null;
+
+		TraceReader reader = open(keyframe);
+		if (!reader.seek(count)) {
+			reader.close();
+			return null;
+		}
+		return reader;
+	}
+
+	/**
+	 * Get the instruction counts of all the states where the PC is `address`,
+	 * that is, the times the command at `address` was about to run.
+	 */
+	public ArrayList<Long> findPC(int address) throws IOException, TraceException {
+		ArrayList<Long> ret = new ArrayList<>();
+		int n = index.getKeyframeCount();
+
+		for (int k = 0; k < n; k++) {
+			if (!index.hasPC(k, address))
+				continue;
+
+			// the state at the next keyframe belongs to it
+			long end = k + 1 < n ? index.getInstructionCount(k + 1) : Long.MAX_VALUE;
+			try (TraceReader reader = open(k)) {
+				Architecture arch = reader.getMachine();
+				do {
+					if (arch.tGetPC().getData() == address)
+						ret.add(arch.getInstructionCount());
+				} while (arch.getInstructionCount() + 1 < end && reader.next());
+			}
+		}
+		return ret;
+	}
+
+	private TraceReader open(int keyframe) throws IOException, TraceException {
+		FileInputStream in = new FileInputStream(trace.toFile());
+		try {
+			in.getChannel().position(index.getOffset(keyframe));
+			return new TraceReader(in, false);
+		} catch (IOException | TraceException ex) {
+			in.close();
+			throw ex;
+		}
+	}
+}
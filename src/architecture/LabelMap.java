@@ -0,0 +1,96 @@
+package architecture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The labels of a program by address, to name the addresses of a running
+ * program after its source (see Assembler.getLabelMap()).
+ *
+ * The labels are kept sorted by address, so finding the label at or before
+ * an address is a binary search.
+ */
+public class LabelMap {
+	private int[] addresses;
+	private String[] names;
+
+	/**
+	 * Make an empty map, which names every address by its number.
+	 */
+	public LabelMap() {
+		this(new ArrayList<>(), new ArrayList<>());
+	}
+
+	public LabelMap(List<String> names, List<Integer> addresses) {
+		Integer[] order = new Integer[names.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		// stable, so the first of several labels on the same address wins
+		Arrays.sort(order, (a, b) -> Integer.compare(addresses.get(a), addresses.get(b)));
+
+		this.addresses = new int[order.length];
+		this.names = new String[order.length];
+		for (int i = 0; i < order.length; i++) {
+			this.addresses[i] = addresses.get(order[i]);
+			this.names[i] = names.get(order[i]);
+		}
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Get the index of the last label at or before `address`, or -1 if
+	 * there is none.
+	 */
+	private int find(int address) {
+		int lo = 0;
+		int hi = addresses.length - 1;
+		int ret = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (addresses[mid] <= address) {
+				ret = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		// back to the first label on that address
+		while (ret > 0 && addresses[ret - 1] == addresses[ret])
+			ret--;
+		return ret;
+	}
+
+	/**
+	 * Get the label on `address`, or null if there is none.
+	 */
+	public String getLabel(int address) {
+		int i = find(address);
+		return i >= 0 && addresses[i] == address ? names[i] : null;
+	}
+
+	/**
+	 * Get the label enclosing `address` (the last one at or before it), or
+	 * null if there is none.
+	 */
+	public String getEnclosingLabel(int address) {
+		int i = find(address);
+		return i >= 0 ? names[i] : null;
+	}
+
+	/**
+	 * Name `address` as `label` when it has a label, `label+offset` when
+	 * it's after one, or its number otherwise.
+	 */
+	public String nameOf(int address) {
+		int i = find(address);
+		if (i < 0)
+			return Integer.toString(address);
+		if (addresses[i] == address)
+			return names[i];
+		return names[i] + "+" + (address - addresses[i]);
+	}
+}
@@ -0,0 +1,22 @@
+package architecture;
+
+import components.ComponentListener;
+
+/**
+ * Gets told about what an ObservedArchitecture does: the data its components
+ * move (see ComponentListener) and where each command starts and ends.
+ */
+public interface MachineListener extends ComponentListener {
+	/**
+	 * A command at `pc` is about to be fetched; the instruction count doesn't
+	 * include it yet.
+	 */
+	default void instructionStarted(Architecture arch, int pc) {
+	}
+
+	/**
+	 * The command at `pc` was run (or the machine halted fetching it).
+	 */
+	default void instructionEnded(Architecture arch, int pc) {
+	}
+}
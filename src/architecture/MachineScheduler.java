@@ -0,0 +1,255 @@
+package architecture;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cooperative scheduler running many machines on a few threads.
+ *
+ * Each machine runs in slices of `quantum` commands (controlUnitCycle()
+ * calls); after a slice it goes back to the end of the queue, so all
+ * machines make progress and none runs to completion while the others wait.
+ * With the PRIORITY policy a slice is `quantum * priority` commands long, so
+ * machines get time in proportion to their priority.
+ *
+ * The workers are a ForkJoinPool in FIFO mode: slices scheduled by a worker
+ * go to its own queue, round-robin, and idle workers steal from the others.
+ *
+ * Machines can be paused (at the end of their current slice), resumed and
+ * cancelled at any time, from any thread. Each one keeps a command history
+ * unless told otherwise (see Architecture.setCommandHistorySize()), which
+ * adds up with many machines.
+ */
+public class MachineScheduler {
+	public enum Policy {
+		ROUND_ROBIN,
+		PRIORITY,
+	}
+
+	public enum State {
+		READY,
+		RUNNING,
+		PAUSED,
+		HALTED,
+		CANCELLED,
+		/** The guest made the host throw (see Machine.getFailure()). */
+		FAILED,
+	}
+
+	private ForkJoinPool pool;
+	private int quantum;
+	private Policy policy;
+	private ArrayList<Machine> machines;
+
+	public MachineScheduler(int workers, int quantum, Policy policy) {
+		this.pool = new ForkJoinPool(workers, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		this.quantum = quantum;
+		this.policy = policy;
+		this.machines = new ArrayList<>();
+	}
+
+	/**
+	 * Start scheduling a machine, which must have its program loaded.
+	 *
+	 * @param priority at least 1; only used with the PRIORITY policy
+	 */
+	public Machine submit(Architecture arch, int priority) {
+		if (priority < 1)
+			throw new IllegalArgumentException("priority must be at least 1");
+
+		Machine m = new Machine(arch, priority);
+		synchronized (machines) {
+			machines.add(m);
+		}
+		schedule(m);
+		return m;
+	}
+
+	public ArrayList<Machine> getMachines() {
+		synchronized (machines) {
+			return new ArrayList<>(machines);
+		}
+	}
+
+	/**
+	 * Wait until every submitted machine has halted, was cancelled or failed.
+	 */
+	public void awaitAll() throws InterruptedException {
+		for (Machine m : getMachines())
+			m.await();
+	}
+
+	/**
+	 * Stop the workers. Machines that didn't finish are left as they are.
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+		try {
+			pool.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void schedule(Machine m) {
+		// from a worker, fork() puts the slice on the worker's own queue
+		if (ForkJoinTask.inForkJoinPool())
+			ForkJoinTask.adapt(m::runSlice).fork();
+		else
+			pool.execute(m::runSlice);
+	}
+
+	/**
+	 * A machine being scheduled.
+	 */
+	public class Machine {
+		private Architecture arch;
+		private int priority;
+
+		// guarded by this
+		private State state;
+		private boolean pauseRequested;
+		private boolean cancelRequested;
+		private RuntimeException failure;
+
+		private volatile long instructions;
+		private volatile long slices;
+		private CountDownLatch done;
+
+		private Machine(Architecture arch, int priority) {
+			this.arch = arch;
+			this.priority = priority;
+			this.state = State.READY;
+			this.done = new CountDownLatch(1);
+		}
+
+		public Architecture getArchitecture() {
+			return arch;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		public synchronized State getState() {
+			return state;
+		}
+
+		/**
+		 * Get the number of commands run so far (updated after each slice).
+		 */
+		public long getInstructions() {
+			return instructions;
+		}
+
+		public long getSlices() {
+			return slices;
+		}
+
+		public synchronized boolean isDone() {
+			return state == State.HALTED || state == State.CANCELLED || state == State.FAILED;
+		}
+
+		/**
+		 * Get what the machine threw, if it FAILED.
+		 */
+		public synchronized RuntimeException getFailure() {
+			return failure;
+		}
+
+		/**
+		 * Pause the machine when its current slice ends.
+		 */
+		public synchronized void pause() {
+			if (!isDone())
+				pauseRequested = true;
+		}
+
+		public void resume() {
+			synchronized (this) {
+				pauseRequested = false;
+				if (state != State.PAUSED)
+					return;
+				state = State.READY;
+			}
+			schedule(this);
+		}
+
+		/**
+		 * Cancel the machine, right away if it's paused, or when its current
+		 * slice ends.
+		 */
+		public synchronized void cancel() {
+			if (isDone())
+				return;
+			cancelRequested = true;
+			if (state == State.PAUSED)
+				finish(State.CANCELLED);
+		}
+
+		public void await() throws InterruptedException {
+			done.await();
+		}
+
+		public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+			return done.await(timeout, unit);
+		}
+
+		private void runSlice() {
+			synchronized (this) {
+				if (!checkRequests())
+					return;
+				state = State.RUNNING;
+			}
+
+			try {
+				arch.run(policy == Policy.PRIORITY ? (long) quantum * priority : quantum);
+			} catch (RuntimeException ex) {
+				// a guest going out of the memory or the registers
+				synchronized (this) {
+					failure = ex;
+					instructions = arch.getInstructionCount();
+					finish(State.FAILED);
+				}
+				return;
+			}
+			instructions = arch.getInstructionCount();
+			slices++;
+
+			synchronized (this) {
+				if (arch.isHalted()) {
+					finish(State.HALTED);
+					return;
+				}
+				if (!checkRequests())
+					return;
+				state = State.READY;
+			}
+			schedule(this);
+		}
+
+		/**
+		 * Act on pause/cancel requests, returning whether the machine may run.
+		 * Must hold the lock.
+		 */
+		private boolean checkRequests() {
+			if (cancelRequested) {
+				finish(State.CANCELLED);
+				return false;
+			}
+			if (pauseRequested) {
+				state = State.PAUSED;
+				return false;
+			}
+			return true;
+		}
+
+		private void finish(State state) {
+			this.state = state;
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,334 @@
+package architecture;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import architecture.Architecture.CommandID;
+import components.Memory;
+
+/**
+ * Counts the reads and writes of each address of the main memory, and the
+ * working set of the program over time, listening to an
+ * ObservedArchitecture.
+ *
+ * Accesses are split by what they're for: instruction fetch (the words of
+ * the command being run, its arguments included), stack (between StkTOP
+ * and StkBOT) and data (the rest). The working set is the number of
+ * distinct addresses accessed in the last `window` cycles (see
+ * CommandID.getCycles()), measured every quarter window, so the windows
+ * slide over each other. Its min, mean and max cover the whole run, but only
+ * the last MAX_SAMPLES measures are kept for the CSV, so a long run takes a
+ * fixed amount of memory.
+ */
+public class MemoryHeatmap implements MachineListener {
+	public static final int FETCH = 0;
+	public static final int DATA = 1;
+	public static final int STACK = 2;
+	static final String[] KINDS = { "fetch", "data", "stack" };
+
+	public static final long DEFAULT_WINDOW = 10_000;
+	/** Working set measures kept for writeWorkingSets(). */
+	public static final int MAX_SAMPLES = 1 << 16;
+
+	/** Heat levels of the text heatmap, from no access to the most. */
+	static final String LEVELS = " .:-=+*#%@";
+
+	private Architecture arch;
+	private Memory memory;
+	private long[][] reads;
+	private long[][] writes;
+
+	private boolean inCommand;
+	private int pc;
+	private int size;
+	private int commandCycles;
+
+	private long window;
+	private long cycle;
+	private long nextSample;
+	private long[] lastAccess;
+	private long[] sampleCycles;
+	private int[] workingSets;
+	private long samples;
+	private int minWorkingSet;
+	private int maxWorkingSet;
+	private long sumWorkingSets;
+
+	private PrintStream haltReport;
+
+	public MemoryHeatmap(ObservedArchitecture arch, long window) {
+		if (window <= 0)
+			throw new IllegalArgumentException("the window must be positive");
+		this.arch = arch;
+		this.memory = arch.tGetMemory();
+		int n = arch.getMemorySize();
+		this.reads = new long[KINDS.length][n];
+		this.writes = new long[KINDS.length][n];
+		this.window = window;
+		this.nextSample = window;
+		this.lastAccess = new long[n];
+		Arrays.fill(lastAccess, -1);
+		this.sampleCycles = new long[16];
+		this.workingSets = new int[16];
+		this.minWorkingSet = Integer.MAX_VALUE;
+		arch.addListener(this);
+	}
+
+	/**
+	 * Set where the heatmap is printed when the machine halts (null for
+	 * nowhere, the default).
+	 */
+	public void setHaltReport(PrintStream out) {
+		this.haltReport = out;
+	}
+
+	@Override
+	public void instructionStarted(Architecture arch, int pc) {
+		int[] mem = memory.getDataList();
+		CommandID id = pc >= 0 && pc < mem.length ? CommandID.fromInt(mem[pc]) : null;
+		this.inCommand = true;
+		this.pc = pc;
+		this.size = id != null ? id.getSize() : 1;
+		this.commandCycles = id != null ? id.getCycles() : CommandID.FETCH_CYCLES;
+	}
+
+	@Override
+	public void instructionEnded(Architecture arch, int pc) {
+		inCommand = false;
+		cycle += commandCycles;
+		while (cycle >= nextSample) {
+			addSample(nextSample, workingSet(nextSample));
+			nextSample += Math.max(window / 4, 1);
+		}
+
+		if (arch.isHalted() && haltReport != null)
+			writeHeatmap(haltReport);
+	}
+
+	@Override
+	public void memoryRead(Memory memory, int address, int data) {
+		if (memory == this.memory && inCommand) {
+			reads[kindOf(address)][address]++;
+			lastAccess[address] = cycle;
+		}
+	}
+
+	@Override
+	public void memoryStored(Memory memory, int address, int data) {
+		if (memory == this.memory && inCommand) {
+			writes[kindOf(address)][address]++;
+			lastAccess[address] = cycle;
+		}
+	}
+
+	private int kindOf(int address) {
+		if (address >= pc && address < pc + size)
+			return FETCH;
+		if (address >= arch.tGetStkTOP().getData() && address < arch.tGetStkBOT().getData())
+			return STACK;
+		return DATA;
+	}
+
+	/**
+	 * Keep a working set measure, growing the ring up to MAX_SAMPLES and then
+	 * overwriting the oldest.
+	 */
+	private void addSample(long end, int ws) {
+		if (samples == sampleCycles.length && samples < MAX_SAMPLES) {
+			sampleCycles = Arrays.copyOf(sampleCycles, sampleCycles.length * 2);
+			workingSets = Arrays.copyOf(workingSets, workingSets.length * 2);
+		}
+		int i = (int) (samples % sampleCycles.length);
+		sampleCycles[i] = end;
+		workingSets[i] = ws;
+		samples++;
+		minWorkingSet = Math.min(minWorkingSet, ws);
+		maxWorkingSet = Math.max(maxWorkingSet, ws);
+		sumWorkingSets += ws;
+	}
+
+	/**
+	 * Count the addresses accessed in the window ending at `end`.
+	 */
+	private int workingSet(long end) {
+		int ret = 0;
+		for (long c : lastAccess) {
+			if (c >= 0 && c > end - window)
+				ret++;
+		}
+		return ret;
+	}
+
+	public long getReads(int kind, int address) {
+		return reads[kind][address];
+	}
+
+	public long getWrites(int kind, int address) {
+		return writes[kind][address];
+	}
+
+	public long getAccesses(int address) {
+		long ret = 0;
+		for (int k = 0; k < KINDS.length; k++)
+			ret += reads[k][address] + writes[k][address];
+		return ret;
+	}
+
+	/**
+	 * Get the cycles the program has run for.
+	 */
+	public long getCycles() {
+		return cycle;
+	}
+
+	/**
+	 * Get the number of addresses accessed since the start.
+	 */
+	public int getTouched() {
+		int ret = 0;
+		for (long c : lastAccess) {
+			if (c >= 0)
+				ret++;
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the number of windows measured since the start.
+	 */
+	public long getSamples() {
+		return samples;
+	}
+
+	/**
+	 * Get the number of windows measured that are still kept (the last
+	 * MAX_SAMPLES).
+	 */
+	public int getKeptSamples() {
+		return (int) Math.min(samples, sampleCycles.length);
+	}
+
+	/**
+	 * Get the cycles at the end of the i-th window kept, from the oldest.
+	 */
+	public long getSampleCycle(int i) {
+		return sampleCycles[keptIndex(i)];
+	}
+
+	/**
+	 * Get the working set of the i-th window kept, from the oldest.
+	 */
+	public int getWorkingSet(int i) {
+		return workingSets[keptIndex(i)];
+	}
+
+	private int keptIndex(int i) {
+		if (i < 0 || i >= getKeptSamples())
+			throw new IndexOutOfBoundsException("no sample " + i);
+		return (int) ((samples - getKeptSamples() + i) % sampleCycles.length);
+	}
+
+	/**
+	 * Get the smallest working set measured, or 0 if none was.
+	 */
+	public int getMinWorkingSet() {
+		return samples > 0 ? minWorkingSet : 0;
+	}
+
+	/**
+	 * Get the largest working set measured, or 0 if none was.
+	 */
+	public int getMaxWorkingSet() {
+		return maxWorkingSet;
+	}
+
+	/**
+	 * Get the mean working set measured, or 0 if none was.
+	 */
+	public double getMeanWorkingSet() {
+		return samples > 0 ? (double) sumWorkingSets / samples : 0;
+	}
+
+	/**
+	 * Write the counts of every address as CSV.
+	 */
+	public void writeCounts(PrintWriter out) {
+		out.print("address");
+		for (String kind : KINDS)
+			out.printf(",%s_reads,%s_writes", kind, kind);
+		out.println();
+		for (int a = 0; a < lastAccess.length; a++) {
+			out.print(a);
+			for (int k = 0; k < KINDS.length; k++)
+				out.printf(",%d,%d", reads[k][a], writes[k][a]);
+			out.println();
+		}
+	}
+
+	/**
+	 * Write the working set of every window kept as CSV.
+	 */
+	public void writeWorkingSets(PrintWriter out) {
+		out.printf("cycle,working_set\n");
+		for (int i = 0; i < getKeptSamples(); i++)
+			out.printf("%d,%d\n", getSampleCycle(i), getWorkingSet(i));
+	}
+
+	/**
+	 * Write the counts into NAME.csv and the working sets into NAME-ws.csv.
+	 */
+	public void writeCsv(String name) throws IOException {
+		try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(name + ".csv")))) {
+			writeCounts(out);
+		}
+		try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(name + "-ws.csv")))) {
+			writeWorkingSets(out);
+		}
+	}
+
+	/**
+	 * Print a heatmap of each kind of access, 16 addresses a row, on a log
+	 * scale up to the most accessed address of that kind, then the working
+	 * set statistics.
+	 */
+	public void writeHeatmap(PrintStream out) {
+		for (int k = 0; k < KINDS.length; k++) {
+			long[] counts = new long[lastAccess.length];
+			long max = 0;
+			for (int a = 0; a < counts.length; a++) {
+				counts[a] = reads[k][a] + writes[k][a];
+				max = Math.max(max, counts[a]);
+			}
+			if (max == 0)
+				continue;
+
+			out.printf("%s accesses (\"%s\" from none to %d):\n", KINDS[k], LEVELS, max);
+			for (int row = 0; row < counts.length; row += 16) {
+				out.printf("%4d |", row);
+				for (int a = row; a < row + 16 && a < counts.length; a++)
+					out.print(LEVELS.charAt(level(counts[a], max)));
+				out.println("|");
+			}
+		}
+
+		out.printf("%d addresses accessed in %d cycles\n", getTouched(), cycle);
+		if (samples > 0) {
+			out.printf("Working set over %d-cycle windows: min %d, mean %.1f, max %d\n",
+					window, getMinWorkingSet(), getMeanWorkingSet(), getMaxWorkingSet());
+		}
+	}
+
+	private static int level(long count, long max) {
+		if (count == 0)
+			return 0;
+		int top = LEVELS.length() - 1;
+		if (max <= 1)
+			return top;
+		// 1 access is level 1, the most accessed address is the top level
+		return 1 + (int) Math.round((top - 1) * Math.log(count) / Math.log(max));
+	}
+}
@@ -0,0 +1,97 @@
+package architecture;
+
+import java.util.Arrays;
+
+import components.Bus;
+import components.ComponentListener;
+import components.Memory;
+import components.Register;
+
+/**
+ * A machine that tells listeners about everything it does, for tools like
+ * visualizers, profilers and checkers.
+ *
+ * The listeners are called from instrumented subclasses of the components
+ * (ObservedBus, ObservedRegister, ObservedMemory) and of the machine, so
+ * machines created the usual way have no checks for listeners at all. Events
+ * are plain method calls over an array of listeners, which allocate nothing.
+ * The ALU registers are not observed.
+ *
+ * Listeners can be added and removed between commands (not from a listener).
+ */
+public class ObservedArchitecture extends Architecture {
+	private Dispatcher dispatcher;
+
+	public ObservedArchitecture(boolean sim) {
+		this(sim, new Dispatcher());
+	}
+
+	private ObservedArchitecture(boolean sim, Dispatcher dispatcher) {
+		super(sim, dispatcher);
+		this.dispatcher = dispatcher;
+	}
+
+	public void addListener(MachineListener listener) {
+		MachineListener[] ls = dispatcher.listeners;
+		ls = Arrays.copyOf(ls, ls.length + 1);
+		ls[ls.length - 1] = listener;
+		dispatcher.listeners = ls;
+	}
+
+	public void removeListener(MachineListener listener) {
+		MachineListener[] ls = dispatcher.listeners;
+		for (int i = 0; i < ls.length; i++) {
+			if (ls[i] == listener) {
+				MachineListener[] ret = new MachineListener[ls.length - 1];
+				System.arraycopy(ls, 0, ret, 0, i);
+				System.arraycopy(ls, i + 1, ret, i, ls.length - i - 1);
+				dispatcher.listeners = ret;
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void controlUnitCycle() {
+		if (isHalted())
+			return;
+
+		int pc = tGetPC().getData();
+		for (MachineListener l : dispatcher.listeners)
+			l.instructionStarted(this, pc);
+		super.controlUnitCycle();
+		for (MachineListener l : dispatcher.listeners)
+			l.instructionEnded(this, pc);
+	}
+
+	/**
+	 * Forwards the component events to the listeners.
+	 */
+	private static class Dispatcher implements ComponentListener {
+		MachineListener[] listeners = new MachineListener[0];
+
+		@Override
+		public void busPut(Bus bus, int data) {
+			for (MachineListener l : listeners)
+				l.busPut(bus, data);
+		}
+
+		@Override
+		public void registerStored(Register register, int data) {
+			for (MachineListener l : listeners)
+				l.registerStored(register, data);
+		}
+
+		@Override
+		public void memoryStored(Memory memory, int address, int data) {
+			for (MachineListener l : listeners)
+				l.memoryStored(memory, address, data);
+		}
+
+		@Override
+		public void memoryRead(Memory memory, int address, int data) {
+			for (MachineListener l : listeners)
+				l.memoryRead(memory, address, data);
+		}
+	}
+}
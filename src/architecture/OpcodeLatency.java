@@ -0,0 +1,157 @@
+package architecture;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+import architecture.Architecture.CommandID;
+
+/**
+ * Host time taken by the commands of each kind, measured with
+ * System.nanoTime() around the decode and execution of 1 in `interval`
+ * commands (see Architecture.setLatency()).
+ *
+ * The commands measured are picked at random intervals averaging
+ * `interval`, so loops don't alias with them. The times go into one
+ * histogram per CommandID with the layout of HdrHistogram: exact up to 64
+ * ns, then 32 buckets per power of two (within about 3% of the real value)
+ * up to about a minute. Recording is a few arithmetic operations on a
+ * preallocated array, so measuring allocates nothing.
+ */
+public class OpcodeLatency {
+	public static final int DEFAULT_INTERVAL = 1024;
+
+	static final int SUB_BUCKET_BITS = 5;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** Times from 2^MAX_BITS ns up go into the last bucket. */
+	static final int MAX_BITS = 36;
+	static final int BUCKETS = SUB_BUCKETS * (MAX_BITS - SUB_BUCKET_BITS + 1);
+
+	private long[][] counts;
+	private long[] totals;
+	private int interval;
+	private int countdown;
+	private long random;
+
+	public OpcodeLatency(int interval) {
+		if (interval <= 0)
+			throw new IllegalArgumentException("the sampling interval must be positive");
+		this.counts = new long[CommandID.values().length][BUCKETS];
+		this.totals = new long[CommandID.values().length];
+		this.interval = interval;
+		this.random = 0x9E3779B97F4A7C15L;
+		this.countdown = nextCountdown();
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Count a command, telling whether to measure it.
+	 */
+	boolean tick() {
+		if (--countdown > 0)
+			return false;
+		countdown = nextCountdown();
+		return true;
+	}
+
+	/**
+	 * Get a distance to the next command measured, from 1 to 2 * interval - 1
+	 * (xorshift, so no allocation and no locking).
+	 */
+	private int nextCountdown() {
+		if (interval == 1)
+			return 1;
+		random ^= random << 13;
+		random ^= random >>> 7;
+		random ^= random << 17;
+		return 1 + (int) Long.remainderUnsigned(random, 2L * interval - 1);
+	}
+
+	/**
+	 * Record that the command `command` took `nanos`. Commands that aren't a
+	 * CommandID (the halt, bad instructions) are not recorded.
+	 */
+	public void record(int command, long nanos) {
+		if (command < 0 || command >= counts.length)
+			return;
+		counts[command][bucketOf(nanos)]++;
+		totals[command]++;
+	}
+
+	static int bucketOf(long nanos) {
+		if (nanos < 2 * SUB_BUCKETS)
+			return (int) Math.max(nanos, 0);
+		int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+		int ret = SUB_BUCKETS * (shift + 1) + (int) (nanos >>> shift) - SUB_BUCKETS;
+		return Math.min(ret, BUCKETS - 1);
+	}
+
+	/**
+	 * Get the highest time that goes into a bucket.
+	 */
+	static long highestOf(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS)
+			return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		long low = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return low + (1L << shift) - 1;
+	}
+
+	/**
+	 * Get how many commands of a kind were measured.
+	 */
+	public long getSamples(CommandID id) {
+		return totals[id.toInt()];
+	}
+
+	/**
+	 * Get the time that the fraction `p` of the measured commands of a kind
+	 * took at most, in nanoseconds (within the precision of the
+	 * histogram), or -1 if none was measured.
+	 */
+	public long getPercentile(CommandID id, double p) {
+		long[] c = counts[id.toInt()];
+		long total = totals[id.toInt()];
+		if (total == 0)
+			return -1;
+
+		long target = Math.max(1, (long) Math.ceil(p * total));
+		long seen = 0;
+		for (int b = 0; b < c.length; b++) {
+			seen += c[b];
+			if (seen >= target)
+				return highestOf(b);
+		}
+		return highestOf(c.length - 1);
+	}
+
+	/**
+	 * Print the percentiles of every kind of command measured, as a table.
+	 */
+	public void write(PrintStream out) {
+		out.printf("%-14s %10s %10s %10s %10s\n", "command", "samples", "p50 ns", "p99 ns", "p99.9 ns");
+		for (CommandID id : CommandID.values()) {
+			if (getSamples(id) == 0)
+				continue;
+			out.printf("%-14s %10d %10d %10d %10d\n", id, getSamples(id),
+					getPercentile(id, 0.5), getPercentile(id, 0.99), getPercentile(id, 0.999));
+		}
+	}
+
+	/**
+	 * Print the percentiles of every kind of command measured, as
+	 * `latency.<COMMAND>.<statistic>=<value>` lines.
+	 */
+	public void writeValues(PrintStream out) {
+		for (CommandID id : CommandID.values()) {
+			if (getSamples(id) == 0)
+				continue;
+			out.printf(Locale.ROOT, "latency.%s.samples=%d\n", id, getSamples(id));
+			out.printf(Locale.ROOT, "latency.%s.p50_ns=%d\n", id, getPercentile(id, 0.5));
+			out.printf(Locale.ROOT, "latency.%s.p99_ns=%d\n", id, getPercentile(id, 0.99));
+			out.printf(Locale.ROOT, "latency.%s.p999_ns=%d\n", id, getPercentile(id, 0.999));
+		}
+	}
+}
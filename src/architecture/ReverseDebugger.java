@@ -0,0 +1,200 @@
+package architecture;
+
+import java.util.ArrayList;
+
+import architecture.Architecture.HaltReason;
+
+/**
+ * Runs a machine forward taking periodic checkpoints, so it can also be run
+ * backwards.
+ *
+ * A checkpoint (see Checkpoint) is taken every `interval` commands. Going
+ * back to an earlier command restores the nearest checkpoint before it and
+ * runs forward from there; searching backwards (for a breakpoint or a write)
+ * replays the intervals one by one, newest first.
+ *
+ * At most `maxCheckpoints` checkpoints are kept: when there would be more,
+ * every other one is dropped (the first, taken when the debugger was
+ * created, and the newest always stay) and the interval doubles. The history
+ * is never lost, going back just gets slower.
+ *
+ * The budget is a number of checkpoints rather than of bytes. A checkpoint
+ * holds at most one copy of the memory (it's small) and of the registers,
+ * so this bounds the memory used to `maxCheckpoints` copies of the machine.
+ * A budget in bytes would have to tell which pages the checkpoints share.
+ *
+ * The machine must only be run through the debugger, and host changes to its
+ * memory must be marked with Memory.markDirty() (or made with Memory.set()).
+ * The debugger turns on the memory's store tracking, which it relies on.
+ */
+public class ReverseDebugger {
+	private Architecture arch;
+	private long interval;
+	private int maxCheckpoints;
+	private ArrayList<Checkpoint> checkpoints;
+
+	public ReverseDebugger(Architecture arch, long interval, int maxCheckpoints) {
+		if (interval < 1 || maxCheckpoints < 2)
+			throw new IllegalArgumentException("need an interval of at least 1 and at least 2 checkpoints");
+
+		this.arch = arch;
+		this.interval = interval;
+		this.maxCheckpoints = maxCheckpoints;
+		this.checkpoints = new ArrayList<>();
+		checkpoints.add(Checkpoint.take(arch, null));
+	}
+
+	public int getCheckpointCount() {
+		return checkpoints.size();
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Run forward until the machine halts or `maxInstructions` more commands
+	 * are run, taking checkpoints along the way.
+	 *
+	 * @return why the machine halted, or null if it reached the limit
+	 */
+	public HaltReason run(long maxInstructions) {
+		long limit = arch.limitAfter(maxInstructions);
+		while (!arch.isHalted() && arch.getInstructionCount() < limit) {
+			long next = last().instructionCount + interval;
+			arch.run(Math.min(limit, next) - arch.getInstructionCount());
+			if (arch.getInstructionCount() >= next)
+				takeCheckpoint();
+		}
+		return arch.getHaltReason();
+	}
+
+	/**
+	 * Go back `n` commands.
+	 *
+	 * @return false if there weren't that many commands to go back (the
+	 *         machine is then back where the debugger started)
+	 */
+	public boolean stepBack(long n) {
+		long target = arch.getInstructionCount() - n;
+		long first = checkpoints.get(0).instructionCount;
+		restoreTo(Math.max(target, first));
+		return target >= first;
+	}
+
+	/**
+	 * Go back to the last time a command at a breakpoint (see
+	 * Architecture.addBreakpoint()) was about to run.
+	 *
+	 * @return false if there's no such time (the machine is then left where
+	 *         it was)
+	 */
+	public boolean runBackToBreakpoint() {
+		return searchBack(new StepCondition() {
+			public long check(Architecture arch) {
+				long count = arch.getInstructionCount();
+				boolean hit = arch.isBreakpoint(arch.tGetPC().getData());
+				arch.run(1);
+				return hit ? count : -1;
+			}
+		});
+	}
+
+	/**
+	 * Go back to right after the last command that stored into `address`.
+	 *
+	 * @return false if there's no such command (the machine is then left
+	 *         where it was)
+	 */
+	public boolean runBackToLastWrite(int address) {
+		return searchBack(new StepCondition() {
+			public long check(Architecture arch) {
+				long stores = arch.tGetMemory().getStoreCount();
+				arch.run(1);
+				boolean hit = arch.tGetMemory().getStoreCount() != stores
+					&& arch.tGetMemory().getLastStoreAddress() == address;
+				return hit ? arch.getInstructionCount() : -1;
+			}
+		});
+	}
+
+	/**
+	 * Runs one command, telling if something happened.
+	 */
+	private interface StepCondition {
+		/**
+		 * @return the instruction count to stop at if the condition held,
+		 *         or -1
+		 */
+		long check(Architecture arch);
+	}
+
+	/**
+	 * Find the last time before the current command a condition held, and go
+	 * there.
+	 */
+	private boolean searchBack(StepCondition condition) {
+		long now = arch.getInstructionCount();
+
+		for (int k = checkpoints.size() - 1; k >= 0; k--) {
+			Checkpoint cp = checkpoints.get(k);
+			if (cp.instructionCount >= now)
+				continue;
+
+			long end = now;
+			if (k + 1 < checkpoints.size())
+				end = Math.min(end, checkpoints.get(k + 1).instructionCount);
+
+			cp.restore(arch);
+			long found = -1;
+			while (arch.getInstructionCount() < end && !arch.isHalted()) {
+				long at = condition.check(arch);
+				if (at >= 0 && at < now)
+					found = at;
+			}
+
+			if (found >= 0) {
+				restoreTo(found);
+				return true;
+			}
+		}
+
+		restoreTo(now);
+		return false;
+	}
+
+	/**
+	 * Bring the machine to the state it had after `target` commands, which
+	 * must not be before the first checkpoint.
+	 */
+	private void restoreTo(long target) {
+		int k = checkpoints.size() - 1;
+		while (checkpoints.get(k).instructionCount > target)
+			k--;
+
+		// later checkpoints would be taken again (and the next one must be
+		// relative to the restored one)
+		while (checkpoints.size() > k + 1)
+			checkpoints.remove(checkpoints.size() - 1);
+
+		checkpoints.get(k).restore(arch);
+		run(target - arch.getInstructionCount());
+	}
+
+	private Checkpoint last() {
+		return checkpoints.get(checkpoints.size() - 1);
+	}
+
+	private void takeCheckpoint() {
+		checkpoints.add(Checkpoint.take(arch, last()));
+
+		// the newest checkpoint stays too, as the next one shares its pages
+		if (checkpoints.size() > maxCheckpoints) {
+			for (int i = checkpoints.size() - 2; i >= 1; i--) {
+				if (i % 2 == 1)
+					checkpoints.remove(i);
+			}
+			interval *= 2;
+		}
+	}
+}
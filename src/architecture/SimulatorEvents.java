@@ -0,0 +1,91 @@
+package architecture;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events for what the simulated machine does, so guest
+ * progress shows up in the same recording as GC, JIT and host CPU.
+ *
+ * The machine makes each event only after its EventType below says it's
+ * recorded, so with no recording (or these events disabled) no event is
+ * allocated and they cost nothing but the check, once per run and not per
+ * command.
+ */
+public class SimulatorEvents {
+	/** Commands per Throughput sample. */
+	public static final long THROUGHPUT_INTERVAL = 1_000_000;
+
+	static final EventType PROGRAM_LOAD = EventType.getEventType(ProgramLoad.class);
+	static final EventType RUN = EventType.getEventType(Run.class);
+	static final EventType THROUGHPUT = EventType.getEventType(Throughput.class);
+	static final EventType HALT = EventType.getEventType(Halt.class);
+
+	private SimulatorEvents() {
+	}
+
+	@Name("dsf.ProgramLoad")
+	@Label("Program Load")
+	@Category({ "DSF", "Simulator" })
+	@Description("An executable loaded into the memory")
+	public static class ProgramLoad extends Event {
+		@Label("Source")
+		String source;
+
+		@Label("Words")
+		int words;
+	}
+
+	@Name("dsf.Run")
+	@Label("Run")
+	@Category({ "DSF", "Simulator" })
+	@Description("The machine running until it halts or reaches a command limit")
+	public static class Run extends Event {
+		@Label("Commands")
+		long commands;
+
+		@Label("Instruction Count")
+		@Description("Commands run since the machine started, at the end of the run")
+		long instructionCount;
+
+		@Label("Halt Reason")
+		@Description("Why the machine halted, or LIMIT if it reached the command limit")
+		String haltReason;
+	}
+
+	@Name("dsf.Throughput")
+	@Label("Throughput Sample")
+	@Category({ "DSF", "Simulator" })
+	@Description("Time taken by a chunk of commands of a run")
+	@StackTrace(false)
+	public static class Throughput extends Event {
+		@Label("Commands")
+		long commands;
+
+		@Label("Instruction Count")
+		long instructionCount;
+	}
+
+	@Name("dsf.Halt")
+	@Label("Halt")
+	@Category({ "DSF", "Simulator" })
+	@Description("The machine halting, with the command it halted on")
+	public static class Halt extends Event {
+		@Label("Reason")
+		String reason;
+
+		@Label("PC")
+		int pc;
+
+		@Label("Command")
+		int command;
+
+		@Label("Instruction Count")
+		long instructionCount;
+	}
+}
@@ -0,0 +1,477 @@
+package architecture;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import architecture.Architecture.HaltReason;
+import assembler.Assembler;
+import assembler.Assembler.ParseException;
+import components.Memory;
+import components.Register;
+
+/**
+ * Resident simulator, serving assemble/run requests on a Unix domain socket,
+ * so that many short programs can be run by the same (JIT-warmed) JVM.
+ *
+ * Each connection is served on its own thread (a virtual thread where the
+ * JVM has them, a platform thread otherwise) and may send any number of
+ * requests, one after the other. Machines are taken from a pool and reset
+ * after each run, so nothing (not even the command history) is left from
+ * one request to the next.
+ *
+ * A request is a sequence of text lines, ending with its program:
+ *
+ *     limit <N>             run at most N commands (default DEFAULT_LIMIT)
+ *     format json|binary    format of the response (default json)
+ *     reg <name> <value>    set a register before running (input)
+ *     mem <address> <value> set a memory word before running (input)
+ *     source <N>            followed by N lines of assembly: assemble and run
+ *     image <N>             followed by N words (any number per line): run
+ *     assemble <N>          followed by N lines of assembly: assemble only
+ *
+ * Programs are at most MAX_SOURCE_LINES lines, and images at most the size
+ * of the memory.
+ *
+ * The JSON response is a single line: for runs,
+ * `{"status":"HALT","instructions":12,"registers":{"IR":-1,...},"memory":[...]}`
+ * where status is a HaltReason, or LIMIT if the limit was reached first, and
+ * the Flags register is encoded as Z + 2 * N; for assembling,
+ * `{"image":[...]}`; for failed requests, `{"error":"..."}`.
+ *
+ * The binary response (big-endian) starts with a status byte: 0 for a run,
+ * followed by the halt reason (ordinal, or -1 for LIMIT) as a byte, the
+ * instruction count as a long, then the register count and the registers,
+ * and the memory size and the memory, all as ints; 1 for an image, followed
+ * by its size and words as ints; 2 for an error, followed by the message
+ * (DataOutput.writeUTF()).
+ */
+public class SimulatorServer implements Closeable {
+	public static final long DEFAULT_LIMIT = 10_000_000;
+	public static final int DEFAULT_POOL_SIZE = 64;
+	/** Most lines of assembly a request may send. */
+	public static final int MAX_SOURCE_LINES = 1 << 16;
+
+	private Path socketPath;
+	private ServerSocketChannel channel;
+	private ExecutorService executor;
+	private ArrayBlockingQueue<Architecture> pool;
+	private int memorySize;
+	private Thread acceptThread;
+	private volatile boolean closed;
+
+	public SimulatorServer(Path socketPath, int poolSize) {
+		this.socketPath = socketPath;
+		this.pool = new ArrayBlockingQueue<>(poolSize);
+
+		Architecture arch = newMachine();
+		this.memorySize = arch.getMemorySize();
+		pool.offer(arch);
+	}
+
+	/**
+	 * Bind the socket (replacing a stale socket file) and start accepting
+	 * connections in the background.
+	 */
+	public void start() throws IOException {
+		Files.deleteIfExists(socketPath);
+		channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		channel.bind(UnixDomainSocketAddress.of(socketPath));
+		executor = newExecutor();
+
+		acceptThread = new Thread(this::acceptLoop, "simulator-server-accept");
+		acceptThread.start();
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		channel.close();
+		executor.shutdownNow();
+		Files.deleteIfExists(socketPath);
+	}
+
+	/**
+	 * Get a virtual thread per task executor through reflection (it only
+	 * exists since Java 21), falling back to a cached thread pool.
+	 */
+	static ExecutorService newExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (ReflectiveOperationException | UnsupportedOperationException ex) {
+			return Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r);
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	private void acceptLoop() {
+		while (!closed) {
+			try {
+				SocketChannel client = channel.accept();
+				executor.execute(() -> serve(client));
+			} catch (IOException ex) {
+				if (!closed)
+					System.err.println("Error accepting connection: " + ex);
+			}
+		}
+	}
+
+	private void serve(SocketChannel client) {
+		try (client) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+			OutputStream out = new BufferedOutputStream(Channels.newOutputStream(client));
+
+			while (true) {
+				Request request;
+				try {
+					request = Request.read(in, memorySize);
+				} catch (RequestException ex) {
+					// the rest of the stream can't be trusted
+					writeError(out, false, ex.getMessage());
+					out.flush();
+					return;
+				}
+				if (request == null)
+					return;
+
+				handle(request, out);
+				out.flush();
+			}
+		} catch (IOException ex) {
+			if (!closed)
+				System.err.println("Error serving connection: " + ex);
+		}
+	}
+
+	private void handle(Request request, OutputStream out) throws IOException {
+		int[] image = request.image;
+		if (request.source != null) {
+			try {
+				Assembler assembler = new Assembler();
+				assembler.readLines(request.source);
+				assembler.parseAll();
+				image = assembler.makeExecutableImage();
+			} catch (ParseException | RuntimeException ex) {
+				writeError(out, request.binary, "assembling failed: " + ex.getMessage());
+				return;
+			}
+		}
+
+		if (request.assembleOnly) {
+			writeImage(out, request.binary, image);
+			return;
+		}
+
+		Architecture arch = pool.poll();
+		if (arch == null)
+			arch = newMachine();
+
+		try {
+			arch.loadImage(image);
+			String error = request.applyInputs(arch);
+			if (error != null) {
+				writeError(out, request.binary, error);
+				return;
+			}
+
+			HaltReason reason = arch.run(request.limit);
+			writeState(out, request.binary, arch, reason);
+		} catch (IllegalArgumentException ex) {
+			writeError(out, request.binary, ex.getMessage());
+		} catch (RuntimeException ex) {
+			// a guest going out of the memory or the registers
+			writeError(out, request.binary, "running failed: " + ex);
+		} finally {
+			arch.reset();
+			pool.offer(arch);
+		}
+	}
+
+	/**
+	 * Create a machine for the pool. Its post-mortems would only fill the
+	 * server's stderr, so they are off (and so is the command history they
+	 * print): clients get the state in the response.
+	 */
+	private static Architecture newMachine() {
+		Architecture arch = new Architecture(false);
+		arch.setPostMortem(null);
+		arch.setCommandHistorySize(0);
+		return arch;
+	}
+
+	private static int registerValue(Architecture arch, Register r) {
+		if (r == arch.tGetFlags())
+			return r.getBit(0) + 2 * r.getBit(1);
+		return r.getData();
+	}
+
+	private static void writeState(OutputStream out, boolean binary, Architecture arch, HaltReason reason) throws IOException {
+		int[] memory = arch.tGetMemory().getDataList();
+
+		if (binary) {
+			DataOutputStream data = new DataOutputStream(out);
+			data.writeByte(0);
+			data.writeByte(reason == null ? -1 : reason.ordinal());
+			data.writeLong(arch.getInstructionCount());
+			data.writeInt(arch.registerList.length);
+			for (Register r : arch.registerList)
+				data.writeInt(registerValue(arch, r));
+			data.writeInt(memory.length);
+			for (int word : memory)
+				data.writeInt(word);
+			data.flush();
+			return;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"status\":\"").append(reason == null ? "LIMIT" : reason.name()).append('"');
+		sb.append(",\"instructions\":").append(arch.getInstructionCount());
+		sb.append(",\"registers\":{");
+		for (int i = 0; i < arch.registerList.length; i++) {
+			Register r = arch.registerList[i];
+			if (i > 0)
+				sb.append(',');
+			sb.append('"').append(r.getRegisterName()).append("\":").append(registerValue(arch, r));
+		}
+		sb.append("},\"memory\":");
+		appendArray(sb, memory);
+		sb.append("}\n");
+		out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void writeImage(OutputStream out, boolean binary, int[] image) throws IOException {
+		if (binary) {
+			DataOutputStream data = new DataOutputStream(out);
+			data.writeByte(1);
+			data.writeInt(image.length);
+			for (int word : image)
+				data.writeInt(word);
+			data.flush();
+			return;
+		}
+
+		StringBuilder sb = new StringBuilder("{\"image\":");
+		appendArray(sb, image);
+		sb.append("}\n");
+		out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void writeError(OutputStream out, boolean binary, String message) throws IOException {
+		if (message == null)
+			message = "unknown error";
+
+		if (binary) {
+			DataOutputStream data = new DataOutputStream(out);
+			data.writeByte(2);
+			data.writeUTF(message);
+			data.flush();
+			return;
+		}
+
+		StringBuilder sb = new StringBuilder("{\"error\":\"");
+		for (char c : message.toCharArray()) {
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		sb.append("\"}\n");
+		out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void appendArray(StringBuilder sb, int[] arr) {
+		sb.append('[');
+		for (int i = 0; i < arr.length; i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append(arr[i]);
+		}
+		sb.append(']');
+	}
+
+	/**
+	 * A parsed request.
+	 */
+	static class Request {
+		long limit = DEFAULT_LIMIT;
+		boolean binary;
+		boolean assembleOnly;
+		String[] source;
+		int[] image;
+		ArrayList<String> regNames = new ArrayList<>();
+		ArrayList<Integer> regValues = new ArrayList<>();
+		ArrayList<Integer> memAddresses = new ArrayList<>();
+		ArrayList<Integer> memValues = new ArrayList<>();
+
+		/**
+		 * Read the next request, or return null at the end of the stream.
+		 *
+		 * @param memorySize most words an image may have
+		 */
+		static Request read(BufferedReader in, int memorySize) throws IOException, RequestException {
+			Request request = new Request();
+
+			while (true) {
+				String line = in.readLine();
+				if (line == null)
+					return null;
+				line = line.trim();
+				if (line.isEmpty())
+					continue;
+
+				String[] tokens = line.split("\\s+");
+				try {
+					switch (tokens[0]) {
+					case "limit":
+						request.limit = Long.parseLong(tokens[1]);
+						break;
+					case "format":
+						if (!tokens[1].equals("json") && !tokens[1].equals("binary"))
+							throw new RequestException("unknown format " + tokens[1]);
+						request.binary = tokens[1].equals("binary");
+						break;
+					case "reg":
+						request.regNames.add(tokens[1]);
+						request.regValues.add(Integer.parseInt(tokens[2]));
+						break;
+					case "mem":
+						request.memAddresses.add(Integer.parseInt(tokens[1]));
+						request.memValues.add(Integer.parseInt(tokens[2]));
+						break;
+					case "assemble":
+						request.assembleOnly = true;
+						// fall through
+					case "source":
+						request.source = readLines(in, readCount(tokens[1], MAX_SOURCE_LINES));
+						return request;
+					case "image":
+						request.image = readWords(in, readCount(tokens[1], memorySize));
+						return request;
+					default:
+						throw new RequestException("unknown request line: " + line);
+					}
+				} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+					throw new RequestException("malformed request line: " + line);
+				}
+			}
+		}
+
+		/**
+		 * Parse the size of a program, which must be from 0 to `max`.
+		 */
+		private static int readCount(String token, int max) throws RequestException {
+			int n = Integer.parseInt(token);
+			if (n < 0 || n > max)
+				throw new RequestException("program size out of range (0 to " + max + "): " + n);
+			return n;
+		}
+
+		private static String[] readLines(BufferedReader in, int n) throws IOException, RequestException {
+			String[] ret = new String[n];
+			for (int i = 0; i < n; i++) {
+				ret[i] = in.readLine();
+				if (ret[i] == null)
+					throw new RequestException("request ended in the middle of the program");
+			}
+			return ret;
+		}
+
+		private static int[] readWords(BufferedReader in, int n) throws IOException, RequestException {
+			int[] ret = new int[n];
+			int i = 0;
+			while (i < n) {
+				String line = in.readLine();
+				if (line == null)
+					throw new RequestException("request ended in the middle of the image");
+				for (String word : line.trim().split("\\s+")) {
+					if (word.isEmpty())
+						continue;
+					if (i == n)
+						throw new RequestException("image has more than " + n + " words");
+					ret[i++] = Integer.parseInt(word);
+				}
+			}
+			return ret;
+		}
+
+		/**
+		 * Set the input registers and memory words.
+		 *
+		 * @return an error message, or null if all inputs were valid
+		 */
+		String applyInputs(Architecture arch) {
+			for (int i = 0; i < regNames.size(); i++) {
+				int id = arch.getRegisterID(regNames.get(i));
+				if (id < 0 || arch.registerList[id] == arch.tGetFlags())
+					return "unknown register " + regNames.get(i);
+				arch.registerList[id].setData(regValues.get(i));
+			}
+
+			Memory memory = arch.tGetMemory();
+			for (int i = 0; i < memAddresses.size(); i++) {
+				int address = memAddresses.get(i);
+				if (address < 0 || address >= arch.getMemorySize())
+					return "address out of range: " + address;
+				memory.set(address, memValues.get(i));
+			}
+			return null;
+		}
+	}
+
+	static class RequestException extends Exception {
+		RequestException(String message) {
+			super(message);
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: simulator-server [--pool <N>] <SOCKET>");
+		System.err.println("Serves assemble/run requests on the Unix domain socket at SOCKET (see SimulatorServer)");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String socket = null;
+		int poolSize = DEFAULT_POOL_SIZE;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--pool") && i + 1 < args.length)
+				poolSize = Integer.parseInt(args[++i]);
+			else if (socket == null && !args[i].startsWith("-"))
+				socket = args[i];
+			else
+				usage();
+		}
+
+		if (socket == null)
+			usage();
+
+		SimulatorServer server = new SimulatorServer(Paths.get(socket), poolSize);
+		server.start();
+		System.err.printf("Listening on %s\n", socket);
+	}
+}
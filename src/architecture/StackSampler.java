@@ -0,0 +1,150 @@
+package architecture;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import architecture.Architecture.CommandID;
+import architecture.Architecture.HaltReason;
+
+/**
+ * Sampling profiler of the call stack of the program: every `interval`
+ * simulated cycles (see CommandID.getCycles()), the stack of subroutines
+ * it's in is rebuilt from the return addresses call() left between StkTOP
+ * and StkBOT, and counted. Sampling on cycles rather than commands weighs
+ * each subroutine by the time it takes, as the other profilers do.
+ *
+ * A frame is named after the label the call jumped to (see LabelMap), so
+ * the counts can be written as collapsed stacks (`main;f;g 42` per line),
+ * the input of the usual flame graph tools. The program is only looked at
+ * between commands, so a sample due in the middle of a command is taken
+ * when it ends, and a command longer than the interval is sampled once for
+ * each interval it covers.
+ */
+public class StackSampler {
+	/** About 1000 commands of average cost. */
+	public static final long DEFAULT_INTERVAL = 50_000;
+	/** Deeper stacks keep their innermost frames only. */
+	static final int MAX_DEPTH = 64;
+	static final String ROOT = "main";
+	static final String TRUNCATED = "[truncated]";
+
+	private Architecture arch;
+	private LabelMap labels;
+	private long interval;
+	private long cycle;
+	private long nextSample;
+	private HashMap<String, Long> stacks;
+	private long samples;
+
+	public StackSampler(Architecture arch, LabelMap labels, long interval) {
+		if (interval <= 0)
+			throw new IllegalArgumentException("the sampling interval must be positive");
+		this.arch = arch;
+		this.labels = labels;
+		this.interval = interval;
+		this.nextSample = interval;
+		this.stacks = new HashMap<>();
+	}
+
+	/**
+	 * Run until the machine halts or `maxInstructions` more commands are
+	 * fetched, sampling the stack every `interval` cycles.
+	 *
+	 * @return why the machine halted, or null if it reached the limit
+	 */
+	public HaltReason run(long maxInstructions) {
+		long limit = arch.limitAfter(maxInstructions);
+		int[] mem = arch.tGetMemory().getDataList();
+		while (!arch.isHalted() && arch.getInstructionCount() < limit) {
+			int pc = arch.tGetPC().getData();
+			CommandID id = pc >= 0 && pc < mem.length ? CommandID.fromInt(mem[pc]) : null;
+			arch.controlUnitCycle();
+			cycle += id != null ? id.getCycles() : CommandID.FETCH_CYCLES;
+			while (cycle >= nextSample) {
+				sample();
+				nextSample += interval;
+			}
+		}
+		return arch.getHaltReason();
+	}
+
+	/**
+	 * Get the cycles run since the sampler was made.
+	 */
+	public long getCycles() {
+		return cycle;
+	}
+
+	/**
+	 * Count the current stack once.
+	 */
+	public void sample() {
+		stacks.merge(currentStack(), 1L, Long::sum);
+		samples++;
+	}
+
+	/**
+	 * Get the current stack, outermost frame first, with frames separated by
+	 * semicolons.
+	 */
+	public String currentStack() {
+		int[] mem = arch.tGetMemory().getDataList();
+		int top = Math.max(arch.tGetStkTOP().getData(), 0);
+		int bottom = Math.min(arch.tGetStkBOT().getData(), mem.length);
+
+		StringBuilder sb = new StringBuilder(ROOT);
+		if (bottom - top > MAX_DEPTH) {
+			sb.append(';').append(TRUNCATED);
+			bottom = top + MAX_DEPTH;
+		}
+		// the stack grows down, so the outermost return address is at the bottom
+		for (int i = bottom - 1; i >= top; i--)
+			sb.append(';').append(frameName(mem, mem[i]));
+		return sb.toString();
+	}
+
+	/**
+	 * Name the subroutine a return address returns from: the target of the
+	 * call right before it, or the label around the return address if
+	 * there's no call there (the stack was written to directly).
+	 */
+	private String frameName(int[] mem, int returnAddress) {
+		int call = returnAddress - CommandID.CALL.getSize();
+		if (call >= 0 && call + 1 < mem.length && mem[call] == CommandID.CALL.toInt())
+			return labels.nameOf(mem[call + 1]);
+		return labels.nameOf(returnAddress);
+	}
+
+	public long getSampleCount() {
+		return samples;
+	}
+
+	/**
+	 * Get how many samples were taken of each stack.
+	 */
+	public Map<String, Long> getStacks() {
+		return Collections.unmodifiableMap(stacks);
+	}
+
+	/**
+	 * Write the samples as collapsed stacks, sorted by stack.
+	 */
+	public void write(PrintWriter out) {
+		ArrayList<String> keys = new ArrayList<>(stacks.keySet());
+		Collections.sort(keys);
+		for (String stack : keys)
+			out.printf("%s %d\n", stack, stacks.get(stack));
+	}
+
+	public void write(String filename) throws IOException {
+		try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(filename)))) {
+			write(out);
+		}
+	}
+}
@@ -394,4 +394,124 @@ public class TestArchitecture {
 		assertEquals(200, arch.tGetStkTOP().getData());
 		assertEquals(115, arch.tGetPC().getData());
 	}
+
+	@Test
+	public void testReset() {
+		int[] program = new int[] {
+			CommandID.MOVE_IMM_REG.toInt(), 7, 1,
+			CommandID.INC_REG.toInt(), 1,
+			-1,
+		};
+
+		Architecture arch = new Architecture(false);
+		arch.loadImage(program);
+		arch.controlUnitEexec();
+		assertEquals(8, arch.tGetREG0().getData());
+		assertEquals(Architecture.HaltReason.HALT, arch.getHaltReason());
+		assertEquals(3, arch.getInstructionCount());
+
+		arch.reset();
+		assertFalse(arch.isHalted());
+		assertNull(arch.getHaltReason());
+		assertEquals(0, arch.tGetREG0().getData());
+		assertEquals(0, arch.tGetPC().getData());
+		assertEquals(0, arch.tGetMemory().getDataList()[0]);
+
+		arch.loadImage(program);
+		assertNull(arch.run(2));
+		assertEquals(8, arch.tGetREG0().getData());
+		assertEquals(Architecture.HaltReason.HALT, arch.run(10));
+	}
+
+	// reg0 counts to 5, adding it into memory[100] each time
+	static private final int[] COUNT_PROGRAM = new int[] {
+		CommandID.MOVE_IMM_REG.toInt(), 5, 2,          // 0: reg1 <- 5
+		CommandID.INC_REG.toInt(), 1,                  // 3: reg0++
+		CommandID.ADD_REG_MEM.toInt(), 1, 100,         // 5: mem[100] <- reg0 + mem[100]
+		CommandID.JLW.toInt(), 1, 2, 3,                // 8: if reg0 < reg1 goto 3
+		-1,                                            // 12
+	};
+
+	@Test
+	public void testBreakpoints() {
+		Architecture arch = new Architecture(false);
+		arch.loadImage(COUNT_PROGRAM);
+		arch.addBreakpoint(5);
+
+		for (int i = 1; i <= 5; i++) {
+			assertEquals(Architecture.StopReason.BREAKPOINT, arch.runUntilBreak());
+			assertEquals(5, arch.tGetPC().getData());
+			assertEquals(5, arch.getBreakAddress());
+			assertEquals(i, arch.tGetREG0().getData());
+		}
+
+		arch.removeBreakpoint(5);
+		assertFalse(arch.isBreakpoint(5));
+		assertEquals(Architecture.StopReason.STEPS_DONE, arch.step(2));
+		assertEquals(Architecture.StopReason.HALTED, arch.runUntilBreak());
+		assertEquals(15, arch.tGetMemory().getDataList()[100]);
+	}
+
+	@Test
+	public void testWatchpoints() {
+		Architecture arch = new Architecture(false);
+		arch.loadImage(COUNT_PROGRAM);
+		arch.watch(100, Memory.WATCH_WRITE);
+
+		assertEquals(Architecture.StopReason.WATCHPOINT, arch.runUntilBreak());
+		assertEquals(100, arch.getBreakAddress());
+		assertEquals(Memory.WATCH_WRITE, arch.tGetMemory().getWatchHitKind());
+		assertEquals(1, arch.tGetMemory().getDataList()[100]);
+
+		// reading the operands of the jlw
+		arch.watch(100, 0);
+		arch.watch(9, Memory.WATCH_READ);
+		assertEquals(Architecture.StopReason.WATCHPOINT, arch.runUntilBreak());
+		assertEquals(Memory.WATCH_READ, arch.tGetMemory().getWatchHitKind());
+		arch.watch(9, 0);
+
+		// storing the same value again is not a change
+		arch.tGetMemory().getDataList()[101] = 7;
+		arch.watch(101, Memory.WATCH_CHANGE);
+		arch.watch(100, Memory.WATCH_CHANGE);
+		assertEquals(Architecture.StopReason.WATCHPOINT, arch.runUntilBreak());
+		assertEquals(100, arch.getBreakAddress());
+		assertEquals(Memory.WATCH_CHANGE, arch.tGetMemory().getWatchHitKind());
+	}
+
+	@Test
+	public void testBadBreakpointAddresses() {
+		Architecture arch = new Architecture(false);
+		for (int address : new int[] { -1, arch.getMemorySize() }) {
+			try {
+				arch.addBreakpoint(address);
+				fail("accepted a breakpoint at " + address);
+			} catch (IllegalArgumentException ex) {
+			}
+			try {
+				arch.removeBreakpoint(address);
+				fail("removed a breakpoint at " + address);
+			} catch (IllegalArgumentException ex) {
+			}
+			try {
+				arch.watch(address, Memory.WATCH_WRITE);
+				fail("watched " + address);
+			} catch (IllegalArgumentException ex) {
+			}
+		}
+	}
+
+	@Test
+	public void testRegisterBreakpoint() {
+		Architecture arch = new Architecture(false);
+		arch.loadImage(COUNT_PROGRAM);
+		arch.addRegisterBreakpoint("reg0", Architecture.Comparison.GE, 3);
+
+		assertEquals(Architecture.StopReason.REGISTER_CONDITION, arch.runUntilBreak());
+		assertEquals(3, arch.tGetREG0().getData());
+		assertEquals(arch.getRegisterID("reg0"), arch.getBreakAddress());
+
+		// it stays true, so it doesn't break again
+		assertEquals(Architecture.StopReason.HALTED, arch.runUntilBreak());
+	}
 }
@@ -0,0 +1,141 @@
+package architecture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import architecture.Architecture.HaltReason;
+import assembler.Assembler;
+
+public class TestBenchmark {
+	static private Architecture run(String[] source) throws Exception {
+		Assembler assembler = new Assembler();
+		assembler.readLines(source);
+		assembler.parseAll();
+		Architecture arch = new Architecture(false);
+		arch.loadImage(assembler.makeExecutableImage());
+		assertEquals(HaltReason.HALT, arch.run(Benchmark.RUN_LIMIT));
+		return arch;
+	}
+
+	@Test
+	public void testGeneratedWorkloads() throws Exception {
+		Architecture loop = run(Benchmark.generateLoop(100));
+		assertEquals(100, loop.tGetREG0().getData());
+		// 4 moves (2 from the prefix), 5 commands per iteration and the halt
+		assertEquals(4 + 5 * 100 + 1, loop.getInstructionCount());
+
+		Architecture calls = run(Benchmark.generateCalls(100));
+		assertEquals(100, calls.tGetREG0().getData());
+
+		Architecture unrolled = run(Benchmark.generateUnrolled(20, 10));
+		assertEquals(10, unrolled.tGetREG0().getData());
+		assertEquals(10 * (0 + 19) * 20 / 2, unrolled.tGetREG3().getData());
+	}
+
+	@Test
+	public void testMeasure() throws Exception {
+		Benchmark benchmark = new Benchmark();
+		benchmark.setRounds(1);
+		benchmark.setRoundTime(1);
+		benchmark.setWarmupTime(1);
+		benchmark.addWorkload("loop", Benchmark.generateLoop(100));
+		TreeMap<String, Double> results = benchmark.measure(null);
+
+		assertTrue(results.get("loop." + Benchmark.ASSEMBLER_LINES) > 0);
+		for (Engine engine : Engine.values())
+			assertTrue(results.get("loop." + engine.name().toLowerCase() + "." + Benchmark.GUEST_MIPS) > 0);
+
+		benchmark.setPart("observed");
+		results = benchmark.measure(null);
+		assertEquals(null, results.get("loop." + Benchmark.ASSEMBLER_LINES));
+		assertEquals(null, results.get("loop.plain." + Benchmark.GUEST_MIPS));
+		assertTrue(results.get("loop.observed." + Benchmark.GUEST_MIPS) > 0);
+
+		benchmark.setPart(Benchmark.ASSEMBLER_PART);
+		results = benchmark.measure(null);
+		assertEquals(1, results.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadPart() {
+		new Benchmark().setPart("jit");
+	}
+
+	@Test
+	public void testCorpus() throws Exception {
+		Benchmark benchmark = new Benchmark();
+		benchmark.setRounds(1);
+		benchmark.setRoundTime(1);
+		benchmark.setWarmupTime(1);
+		benchmark.setPart(Benchmark.ASSEMBLER_PART);
+		benchmark.addCorpus("examples");
+		TreeMap<String, Double> results = benchmark.measure(null);
+		assertTrue(results.containsKey("ex01." + Benchmark.ASSEMBLER_LINES));
+		assertTrue(results.containsKey("ex03-call." + Benchmark.ASSEMBLER_LINES));
+		assertTrue(results.containsKey("gen-unrolled." + Benchmark.ASSEMBLER_LINES));
+	}
+
+	@Test
+	public void testBaselineFile() throws IOException {
+		TreeMap<String, Double> results = new TreeMap<>();
+		results.put("a.plain." + Benchmark.GUEST_MIPS, 12.5);
+		results.put("a." + Benchmark.ASSEMBLER_LINES, 1234567.125);
+
+		File file = File.createTempFile("baseline", ".properties");
+		file.deleteOnExit();
+		Benchmark.writeBaseline(file.getPath(), results);
+		assertEquals(results, Benchmark.readBaseline(file.getPath()));
+
+		try (PrintWriter out = new PrintWriter(file)) {
+			out.println("# comment");
+			out.println("a.plain.guest_mips=fast");
+		}
+		try {
+			Benchmark.readBaseline(file.getPath());
+			fail();
+		} catch (IOException ex) {
+			assertTrue(ex.getMessage().contains(":2: bad baseline line"));
+		}
+	}
+
+	@Test
+	public void testCompare() {
+		TreeMap<String, Double> baseline = new TreeMap<>();
+		baseline.put("a.plain." + Benchmark.GUEST_MIPS, 20.0);
+		baseline.put("a.observed." + Benchmark.GUEST_MIPS, 10.0);
+		baseline.put("a." + Benchmark.ASSEMBLER_LINES, 1000.0);
+		baseline.put("a.plain." + Benchmark.ALLOCATION, 100.0);
+		baseline.put("gone.plain." + Benchmark.GUEST_MIPS, 5.0);
+
+		TreeMap<String, Double> current = new TreeMap<>();
+		current.put("a.plain." + Benchmark.GUEST_MIPS, 14.0);
+		current.put("a.observed." + Benchmark.GUEST_MIPS, 9.0);
+		current.put("a." + Benchmark.ASSEMBLER_LINES, 2000.0);
+		// allocation isn't a throughput, so it can't regress
+		current.put("a.plain." + Benchmark.ALLOCATION, 1.0);
+		current.put("b.plain." + Benchmark.GUEST_MIPS, 5.0);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ArrayList<String> regressions = Benchmark.compare(baseline, current, 25, new PrintStream(out, true));
+		assertEquals(1, regressions.size());
+		assertEquals("a.plain." + Benchmark.GUEST_MIPS, regressions.get(0));
+
+		String text = out.toString();
+		assertTrue(text.contains("-30.0%  <-- regression"));
+		assertTrue(text.contains("+100.0%"));
+		assertTrue(text.contains("missing"));
+		assertTrue(text.contains("new"));
+		assertTrue(text.contains("1 throughputs dropped by more than 25%: a.plain.guest_mips"));
+
+		regressions = Benchmark.compare(baseline, current, 40, new PrintStream(new ByteArrayOutputStream(), true));
+		assertTrue(regressions.isEmpty());
+	}
+}
@@ -0,0 +1,171 @@
+package architecture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import architecture.Architecture.CommandID;
+import architecture.Architecture.HaltReason;
+import assembler.Assembler;
+import assembler.Assembler.ParseException;
+
+public class TestCallGraphProfiler {
+	static private final String[] NESTED_PROGRAM = new String[] {
+		"move 0 %reg0",
+		"move 10 %reg1",
+		"loop:",
+		"inc %reg0",
+		"call outer",
+		"jlw %reg0 %reg1 loop",
+		"jmp end",
+		"outer:",
+		"call inner",
+		"call inner",
+		"ret",
+		"inner:",
+		"move 0 %reg2",
+		"again:",
+		"inc %reg2",
+		"jlw %reg2 %reg1 again",
+		"ret",
+		"end:",
+	};
+
+	static private final String[] RECURSIVE_PROGRAM = new String[] {
+		"move 5 %reg1",
+		"call rec",
+		"jmp end",
+		"rec:",
+		"inc %reg0",
+		"jlw %reg0 %reg1 deeper",
+		"ret",
+		"deeper:",
+		"call rec",
+		"ret",
+		"end:",
+	};
+
+	static private CallGraphProfiler profiler(String[] codeLines) {
+		try {
+			Assembler assembler = new Assembler();
+			assembler.readLines(codeLines);
+			assembler.parseAll();
+			Architecture arch = new Architecture(false);
+			arch.loadImage(assembler.makeExecutableImage());
+			return new CallGraphProfiler(arch, assembler.getLabelMap());
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+	}
+
+	static private CallGraphProfiler.Entry entry(CallGraphProfiler profiler, String name) {
+		for (CallGraphProfiler.Entry e : profiler.getEntries()) {
+			if (e.getName().equals(name))
+				return e;
+		}
+		throw new AssertionError("no entry for " + name);
+	}
+
+	static private long cycles(CommandID id) {
+		return id.getCycles();
+	}
+
+	@Test
+	public void testNested() {
+		CallGraphProfiler profiler = profiler(NESTED_PROGRAM);
+		assertEquals(HaltReason.HALT, profiler.run(Long.MAX_VALUE));
+		assertEquals(0, profiler.getDepth());
+
+		CallGraphProfiler.Entry inner = entry(profiler, "inner");
+		assertEquals(20, inner.getCalls());
+		long innerCycles = cycles(CommandID.MOVE_IMM_REG) + 10 * (cycles(CommandID.INC_REG) + cycles(CommandID.JLW)) + cycles(CommandID.RET);
+		assertEquals(20 * innerCycles, inner.getExclusiveCycles());
+		assertEquals(20 * innerCycles, inner.getInclusiveCycles());
+		assertEquals(20 * 22, inner.getExclusiveInstructions());
+
+		CallGraphProfiler.Entry outer = entry(profiler, "outer");
+		assertEquals(10, outer.getCalls());
+		long outerCycles = 2 * cycles(CommandID.CALL) + cycles(CommandID.RET);
+		assertEquals(10 * outerCycles, outer.getExclusiveCycles());
+		assertEquals(10 * outerCycles + 20 * innerCycles, outer.getInclusiveCycles());
+		assertEquals(10 * 3 + 20 * 22, outer.getInclusiveInstructions());
+
+		CallGraphProfiler.Entry main = entry(profiler, "main");
+		assertEquals("main", profiler.getEntries().get(0).getName());
+		assertEquals(10 * 3 + 20 * 22 + main.getExclusiveInstructions(), main.getInclusiveInstructions());
+
+		assertEquals(10, profiler.getCalls("main", "outer"));
+		assertEquals(20, profiler.getCalls("outer", "inner"));
+		assertEquals(0, profiler.getCalls("main", "inner"));
+	}
+
+	@Test
+	public void testRecursive() {
+		CallGraphProfiler profiler = profiler(RECURSIVE_PROGRAM);
+		profiler.run(Long.MAX_VALUE);
+
+		CallGraphProfiler.Entry rec = entry(profiler, "rec");
+		CallGraphProfiler.Entry main = entry(profiler, "main");
+		assertEquals(5, rec.getCalls());
+		assertEquals(1, profiler.getCalls("main", "rec"));
+		assertEquals(4, profiler.getCalls("rec", "rec"));
+
+		// counted once, not once per frame
+		assertEquals(rec.getExclusiveCycles(), rec.getInclusiveCycles());
+		assertEquals(main.getInclusiveCycles(), main.getExclusiveCycles() + rec.getInclusiveCycles());
+	}
+
+	@Test
+	public void testOpenFrames() {
+		CallGraphProfiler profiler = profiler(NESTED_PROGRAM);
+		// stop inside inner, called from outer
+		profiler.run(18);
+		assertEquals(2, profiler.getDepth());
+
+		long total = 0;
+		for (CallGraphProfiler.Entry e : profiler.getEntries())
+			total += e.getExclusiveInstructions();
+		assertEquals(18, total);
+		assertEquals(18, entry(profiler, "main").getInclusiveInstructions());
+		assertTrue(entry(profiler, "outer").getInclusiveInstructions() > entry(profiler, "inner").getInclusiveInstructions());
+
+		// and going on from there gives the same as a whole run
+		profiler.run(Long.MAX_VALUE);
+		CallGraphProfiler whole = profiler(NESTED_PROGRAM);
+		whole.run(Long.MAX_VALUE);
+		assertEquals(entry(whole, "outer").getInclusiveCycles(), entry(profiler, "outer").getInclusiveCycles());
+	}
+
+	@Test
+	public void testUnbalanced() {
+		CallGraphProfiler profiler = profiler(new String[] {
+			"call escape",
+			"move 2 %reg0",
+			"jmp end",
+			"escape:",
+			"call deep",
+			"deep:",
+			// drop both frames at once, like a longjmp
+			"move $stackbottom %stktop",
+			"jmp after",
+			"after:",
+			"move 1 %reg0",
+			"end:",
+		});
+		assertEquals(HaltReason.HALT, profiler.run(Long.MAX_VALUE));
+		assertEquals(0, profiler.getDepth());
+
+		assertEquals(1, entry(profiler, "escape").getCalls());
+		assertEquals(1, entry(profiler, "deep").getCalls());
+		assertEquals(1, profiler.getCalls("escape", "deep"));
+		// the commands after the frames were dropped are main's again
+		assertEquals(1, entry(profiler, "deep").getExclusiveInstructions());
+		assertEquals(1, entry(profiler, "escape").getExclusiveInstructions());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		profiler.write(new PrintStream(out, true));
+		assertTrue(out.toString().contains("escape"));
+	}
+}
@@ -0,0 +1,101 @@
+package architecture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import architecture.Architecture.CommandID;
+import architecture.Architecture.HaltReason;
+
+public class TestCommandHistory {
+	@Test
+	public void testRing() {
+		CommandHistory history = new CommandHistory(4);
+		assertEquals(0, history.snapshot().length);
+
+		for (int i = 0; i < 10; i++)
+			history.add(i, -i);
+		// the oldest slot is the next to be written, so it's left out
+		long[] snapshot = history.snapshot();
+		assertEquals(3, snapshot.length);
+		for (int k = 0; k < 3; k++) {
+			assertEquals(7 + k, CommandHistory.pc(snapshot[k]));
+			assertEquals(-7 - k, CommandHistory.command(snapshot[k]));
+		}
+		assertEquals(10, history.getCount());
+	}
+
+	@Test
+	public void testConcurrentSnapshots() throws InterruptedException {
+		CommandHistory history = new CommandHistory(64);
+		Thread writer = new Thread(() -> {
+			for (int i = 0; i < 2_000_000; i++)
+				history.add(i, i);
+		});
+		writer.start();
+
+		// every snapshot must be a run of consecutive, whole entries
+		while (writer.isAlive()) {
+			long[] snapshot = history.snapshot();
+			for (int k = 0; k < snapshot.length; k++) {
+				assertEquals(CommandHistory.pc(snapshot[k]), CommandHistory.command(snapshot[k]));
+				if (k > 0)
+					assertEquals(CommandHistory.pc(snapshot[k - 1]) + 1, CommandHistory.pc(snapshot[k]));
+			}
+		}
+		writer.join();
+	}
+
+	@Test
+	public void testSize() {
+		Architecture arch = new Architecture(false);
+		arch.setCommandHistorySize(4);
+		arch.loadImage(new int[] { CommandID.INC_REG.toInt(), 1, -1 });
+		arch.run(100);
+		assertEquals(4, arch.getCommandHistory().getSize());
+		assertEquals(2, arch.getCommandHistory().getCount());
+
+		// no history at all, and the post-mortem goes without it
+		arch.reset();
+		arch.setCommandHistorySize(0);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		arch.setPostMortem(new PrintStream(out, true));
+		arch.loadImage(new int[] { 99 });
+		assertEquals(HaltReason.BAD_INSTRUCTION, arch.run(100));
+		assertNull(arch.getCommandHistory());
+		assertTrue(out.toString().startsWith("Machine halted on BAD_INSTRUCTION after 1 commands"));
+		assertFalse(out.toString().contains("Last"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadSize() {
+		new Architecture(false).setCommandHistorySize(3);
+	}
+
+	@Test
+	public void testPostMortem() {
+		Architecture arch = new Architecture(false);
+		arch.loadImage(new int[] {
+			CommandID.INC_REG.toInt(), 1,                  // 0: reg0++
+			CommandID.JMP.toInt(), 4,                      // 2: goto 4
+			99,                                            // 4: bad instruction
+		});
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		arch.setPostMortem(new PrintStream(out, true));
+
+		assertEquals(HaltReason.BAD_INSTRUCTION, arch.run(100));
+		String dump = out.toString();
+		assertTrue(dump.startsWith("Machine halted on BAD_INSTRUCTION after 3 commands"));
+		assertTrue(dump.contains("     0: 10 (INC_REG)\n     2: 12 (JMP)\n     4: 99 (invalid)\n"));
+
+		// a normal halt isn't dumped
+		out.reset();
+		arch.reset();
+		assertEquals(0, arch.getCommandHistory().getCount());
+		arch.loadImage(new int[] { -1 });
+		assertEquals(HaltReason.HALT, arch.run(100));
+		assertEquals("", out.toString());
+	}
+}
@@ -0,0 +1,188 @@
+package architecture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import architecture.DebugSymbols.SymbolsException;
+import assembler.Assembler;
+import assembler.Assembler.ParseException;
+
+public class TestDebugSymbols {
+	static private final String[] PROGRAM = new String[] {
+		"total",
+		"move 0 %reg0",
+		"move 300 %reg1",
+		"loop:",
+		"inc %reg0",
+		"add %reg0 total",
+		"call sub",
+		"jlw %reg0 %reg1 loop",
+		"move total %reg2",
+		"jmp end",
+		"sub:",
+		"move total %reg3",
+		"ret",
+		"end:",
+	};
+
+	/**
+	 * Assemble the program into a temporary directory, with debug symbols.
+	 *
+	 * @return the name of the executable, without the extension
+	 */
+	static private String assemble(String[] codeLines, boolean optimize) throws IOException {
+		String name = Files.createTempDirectory("dsym").resolve("prog").toString();
+		assemble(name, codeLines, optimize, true);
+		return name;
+	}
+
+	static private void assemble(String name, String[] codeLines, boolean optimize, boolean debug) throws IOException {
+		Files.write(Path.of(name + ".dsf"), Arrays.asList(codeLines));
+		try {
+			Assembler assembler = new Assembler();
+			assembler.setDebugSymbols(debug);
+			assembler.setPeephole(optimize);
+			assembler.setControlFlowOptimization(optimize);
+			assembler.read(name);
+			assembler.parseAll();
+			assembler.makeExecutable(name);
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+	}
+
+	@Test
+	public void testLookups() throws IOException {
+		Architecture arch = new Architecture(false);
+		arch.readExec(assemble(PROGRAM, false));
+		DebugSymbols symbols = arch.getDebugSymbols();
+		assertNotNull(symbols);
+		assertSame(symbols, arch.getDebugSymbols());
+
+		// the prefix takes addresses 0 to 5, and has no source
+		assertEquals(0, symbols.getLine(0));
+		assertNull(symbols.getLabel(5));
+		assertEquals(2, symbols.getLine(6));
+		assertEquals(2, symbols.getLine(8));
+		assertEquals(3, symbols.getLine(9));
+		assertEquals(5, symbols.getLine(13));
+		assertEquals("loop", symbols.getLabel(14));
+		assertEquals(6, symbols.getLine(14));
+		assertEquals(12, symbols.getLine(28));
+		assertEquals("sub", symbols.getLabel(31));
+		assertEquals(13, symbols.getLine(31));
+		assertEquals("end", symbols.getLabel(32));
+
+		// nothing between the program and the variables
+		assertEquals(-1, symbols.findRange(100));
+		assertEquals(0, symbols.getLine(100));
+		assertNull(symbols.getVariable(100));
+
+		assertEquals("total", symbols.getVariable(255));
+		assertEquals(1, symbols.getLine(255));
+		assertNull(symbols.getLabel(255));
+
+		assertEquals("sub+1 (line 12)", symbols.describe(29));
+		assertEquals("total", symbols.describe(255));
+		assertEquals("sub", symbols.getLabelMap().nameOf(28));
+		assertEquals("end", symbols.getLabelMap().nameOf(32));
+	}
+
+	@Test
+	public void testHistoryDump() throws IOException {
+		Architecture arch = new Architecture(false);
+		arch.readExec(assemble(PROGRAM, false));
+		arch.run(9);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		arch.getCommandHistory().dump(new PrintStream(out, true), arch.getDebugSymbols());
+		assertTrue(out.toString().contains("  28: 6 (MOVE_MEM_REG) at sub (line 12)\n"));
+		assertTrue(out.toString().contains("  31: 20 (RET) at sub+3 (line 13)\n"));
+	}
+
+	@Test
+	public void testOptimized() throws IOException {
+		Architecture arch = new Architecture(false);
+		arch.readExec(assemble(PROGRAM, true));
+		DebugSymbols symbols = arch.getDebugSymbols();
+
+		HashSet<Integer> commandLines = new HashSet<>(Arrays.asList(0, 2, 3, 5, 6, 7, 8, 9, 10, 12, 13));
+		for (int a = 0; a < arch.getMemorySize() - 1; a++)
+			assertTrue(commandLines.contains(symbols.getLine(a)));
+		assertEquals(0, symbols.getLine(0));
+		assertEquals(1, symbols.getLine(arch.getMemorySize() - 1));
+
+		// the lines follow the commands the optimizer kept
+		int ret = -1;
+		for (int a = 0; a < arch.getMemorySize() - 1; a++) {
+			if (symbols.getLine(a) == 13)
+				ret = a;
+		}
+		assertEquals(Architecture.CommandID.RET.toInt(), arch.tGetMemory().getDataList()[ret]);
+		assertEquals("sub", symbols.getLabel(ret));
+
+		arch.run(Long.MAX_VALUE);
+		assertEquals(Architecture.HaltReason.HALT, arch.getHaltReason());
+	}
+
+	@Test
+	public void testMissingOrBad() throws IOException, SymbolsException {
+		String name = assemble(PROGRAM, false);
+
+		Architecture arch = new Architecture(false);
+		Files.delete(Path.of(name + ".dsym"));
+		arch.readExec(name);
+		assertNull(arch.getDebugSymbols());
+
+		Files.write(Path.of(name + ".dsym"), new byte[] { 1, 2, 3 });
+		arch.readExec(name);
+		assertNull(arch.getDebugSymbols());
+
+		// machines loaded otherwise can be given their symbols
+		String other = assemble(PROGRAM, false);
+		arch.setDebugSymbols(DebugSymbols.open(Path.of(other + ".dsym")));
+		assertEquals("loop", arch.getDebugSymbols().getLabel(12));
+	}
+
+	@Test
+	public void testImageDropsSymbols() throws IOException {
+		String name = assemble(PROGRAM, false);
+
+		Architecture arch = new Architecture(false);
+		arch.readExec(name);
+		assertNotNull(arch.getDebugSymbols());
+
+		// an image loaded afterwards isn't described by the file's symbols
+		arch.loadImage(new int[] { -1 });
+		assertNull(arch.getDebugSymbols());
+	}
+
+	@Test
+	public void testStaleSymbols() throws IOException {
+		String name = assemble(PROGRAM, false);
+		String[] other = Arrays.copyOf(PROGRAM, PROGRAM.length);
+		other[1] = "move 1 %reg0";
+
+		// an executable rebuilt without -g loses its old symbols
+		assemble(name, other, false, false);
+		assertFalse(Files.exists(Path.of(name + ".dsym")));
+
+		// symbols next to an executable they weren't made for are ignored
+		assemble(name, PROGRAM, false, true);
+		String otherName = Files.createTempDirectory("dsym").resolve("prog").toString();
+		assemble(otherName, other, false, false);
+		Files.copy(Path.of(otherName + ".dxf"), Path.of(name + ".dxf"), StandardCopyOption.REPLACE_EXISTING);
+		Architecture arch = new Architecture(false);
+		arch.readExec(name);
+		assertNull(arch.getDebugSymbols());
+	}
+}
@@ -0,0 +1,96 @@
+package architecture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import architecture.Architecture.HaltReason;
+import architecture.ExecutionReplayer.ReplayException;
+import assembler.Assembler;
+import assembler.Assembler.ParseException;
+
+public class TestExecutionRecorder {
+	static private Architecture load(String[] codeLines) {
+		try {
+			Assembler assembler = new Assembler();
+			assembler.readLines(codeLines);
+			assembler.parseAll();
+			Architecture arch = new Architecture(false);
+			arch.loadImage(assembler.makeExecutableImage());
+			return arch;
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+	}
+
+	static private final String[] PROGRAM = new String[] {
+		"total",
+		"move 0 %reg0",
+		"move 200 %reg1",
+		"loop:",
+		"inc %reg0",
+		"add %reg0 total",
+		"jlw %reg0 %reg1 loop",
+		"move total %reg2",
+	};
+
+	static private byte[] record(Architecture arch) throws IOException {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		try (ExecutionRecorder recorder = new ExecutionRecorder(arch, log, 64)) {
+			recorder.run(150);
+			recorder.setRegister(2, 1000);   // REG1: run longer
+			recorder.setMemory(255, -7);     // total
+			assertEquals(HaltReason.HALT, recorder.run(Long.MAX_VALUE));
+		}
+		return log.toByteArray();
+	}
+
+	@Test
+	public void testRecordReplay() throws IOException, ReplayException {
+		Architecture arch = load(PROGRAM);
+		byte[] log = record(arch);
+
+		Architecture replayed = new ExecutionReplayer(new ByteArrayInputStream(log)).replay();
+		assertEquals(arch.stateHash(), replayed.stateHash());
+		assertEquals(arch.getInstructionCount(), replayed.getInstructionCount());
+		assertEquals(1000, replayed.tGetREG0().getData());
+		assertEquals(arch.tGetREG2().getData(), replayed.tGetREG2().getData());
+
+		// thousands of commands, but only the program, two inputs and one hash
+		// (10 bytes) every 64 commands
+		assertTrue(arch.getInstructionCount() > 2000);
+		assertTrue("log has " + log.length + " bytes", log.length < 100 + 10 * arch.getInstructionCount() / 64);
+	}
+
+	@Test(expected = ReplayException.class)
+	public void testDivergence() throws IOException, ReplayException {
+		byte[] log = record(load(PROGRAM));
+
+		// the initial state starts right after the magic, the version and
+		// the memory size: change the first immediate of the program
+		// (`move $stackbottom %stktop`)
+		log[4 + 1 + 2 + 1] ^= 2;
+		new ExecutionReplayer(new ByteArrayInputStream(log)).replay();
+	}
+
+	@Test
+	public void testVarInt() throws IOException {
+		long[] values = new long[] { 0, 1, -1, 63, -64, 64, 300, -300, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE };
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (long v : values)
+			VarInt.writeSigned(out, v);
+		VarInt.writeUnsigned(out, 127);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		for (long v : values)
+			assertEquals(v, VarInt.readSigned(in));
+		assertEquals(127, VarInt.readUnsigned(in));
+		assertEquals(-1, in.read());
+	}
+}
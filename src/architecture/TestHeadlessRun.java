@@ -0,0 +1,109 @@
+package architecture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import architecture.Architecture.CommandID;
+import architecture.Architecture.HaltReason;
+
+public class TestHeadlessRun {
+	static private final int[] COUNT_PROGRAM = new int[] {
+		CommandID.MOVE_IMM_REG.toInt(), 5, 2,          // 0: reg1 <- 5
+		CommandID.INC_REG.toInt(), 1,                  // 3: reg0++
+		CommandID.ADD_REG_MEM.toInt(), 1, 100,         // 5: mem[100] <- reg0 + mem[100]
+		CommandID.JLW.toInt(), 1, 2, 3,                // 8: if reg0 < reg1 goto 3
+		-1,                                            // 12
+	};
+
+	static private HashMap<String, String> parse(String output) {
+		HashMap<String, String> ret = new HashMap<>();
+		for (String line : output.split("\n")) {
+			int eq = line.indexOf('=');
+			assertTrue(line, eq > 0);
+			assertNull(line, ret.put(line.substring(0, eq), line.substring(eq + 1)));
+		}
+		return ret;
+	}
+
+	@Test
+	public void testHostFault() {
+		Architecture arch = new Architecture(false);
+		// stores out of the memory
+		arch.loadImage(new int[] { CommandID.MOVE_REG_MEM.toInt(), 1, 999, -1 });
+		HeadlessRun run = new HeadlessRun(arch);
+		run.setStats(true);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(HeadlessRun.EXIT_HOST_FAULT, run.run(new PrintStream(out, true)));
+		HashMap<String, String> values = parse(out.toString());
+		assertEquals("HOST_FAULT", values.get("halt_reason"));
+		assertTrue(values.get("host_fault").contains("ArrayIndexOutOfBoundsException"));
+	}
+
+	@Test
+	public void testOutput() {
+		for (Engine engine : Engine.values()) {
+			Architecture arch = engine.newMachine();
+			arch.loadImage(COUNT_PROGRAM);
+			HeadlessRun run = new HeadlessRun(arch);
+			run.setStats(true);
+			run.setRegisters(true);
+			run.addMemoryRange("99:100");
+			run.addMemoryRange("0");
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertEquals(HeadlessRun.EXIT_HALT, run.run(new PrintStream(out, true)));
+
+			HashMap<String, String> values = parse(out.toString());
+			assertEquals("HALT", values.get("halt_reason"));
+			assertEquals(Long.toString(arch.getInstructionCount()), values.get("instructions"));
+			assertTrue(Double.parseDouble(values.get("host_time_ms")) >= 0);
+			assertTrue(Double.parseDouble(values.get("guest_mips")) >= 0);
+			assertEquals("5", values.get("REG0"));
+			assertEquals("12", values.get("PC"));
+			assertEquals("0", values.get("mem[99]"));
+			assertEquals("15", values.get("mem[100]"));
+			assertEquals(Integer.toString(CommandID.MOVE_IMM_REG.toInt()), values.get("mem[0]"));
+			assertEquals(4 + 9 + 3, values.size());
+		}
+	}
+
+	@Test
+	public void testExitStatus() {
+		Architecture arch = new Architecture(false);
+		arch.loadImage(COUNT_PROGRAM);
+		HeadlessRun run = new HeadlessRun(arch);
+		run.setLimit(4);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(HeadlessRun.EXIT_LIMIT, run.run(new PrintStream(out, true)));
+		assertEquals(0, out.size());
+		assertEquals(4, arch.getInstructionCount());
+
+		assertEquals(HeadlessRun.EXIT_HALT, HeadlessRun.exitStatus(HaltReason.HALT));
+		assertEquals(HeadlessRun.EXIT_BAD_INSTRUCTION, HeadlessRun.exitStatus(HaltReason.BAD_INSTRUCTION));
+		assertEquals(HeadlessRun.EXIT_BAD_ADDRESS, HeadlessRun.exitStatus(HaltReason.BAD_ADDRESS));
+
+		arch = new Architecture(false);
+		arch.setPostMortem(null);
+		arch.loadImage(new int[] { 77 });
+		assertEquals(HeadlessRun.EXIT_BAD_INSTRUCTION, new HeadlessRun(arch).run(new PrintStream(out, true)));
+	}
+
+	@Test
+	public void testBadRanges() {
+		HeadlessRun run = new HeadlessRun(new Architecture(false));
+		for (String range : new String[] { "x", "1:", "5:4", "-1:3", "0:256" }) {
+			try {
+				run.addMemoryRange(range);
+				fail("accepted " + range);
+			} catch (IllegalArgumentException ex) {
+			}
+		}
+		assertEquals(Engine.OBSERVED, Engine.fromName("observed"));
+		assertNull(Engine.fromName("fast"));
+	}
+}
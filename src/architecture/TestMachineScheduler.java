@@ -0,0 +1,118 @@
+package architecture;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import architecture.Architecture.CommandID;
+import architecture.MachineScheduler.Machine;
+import architecture.MachineScheduler.Policy;
+import architecture.MachineScheduler.State;
+
+public class TestMachineScheduler {
+	// counts REG0 up to `n`
+	static private Architecture countTo(int n) {
+		Architecture arch = new Architecture(false);
+		arch.loadImage(new int[] {
+			CommandID.MOVE_IMM_REG.toInt(), n, 2,       // 0: reg1 <- n
+			CommandID.INC_REG.toInt(), 1,               // 3: reg0++
+			CommandID.JLW.toInt(), 1, 2, 3,             // 5: if reg0 < reg1 goto 3
+			-1,
+		});
+		return arch;
+	}
+
+	static private Architecture forever() {
+		Architecture arch = new Architecture(false);
+		arch.loadImage(new int[] { CommandID.JMP.toInt(), 0 });
+		return arch;
+	}
+
+	static private void waitFor(Machine m, State state) throws InterruptedException {
+		for (int i = 0; i < 1000 && m.getState() != state; i++)
+			Thread.sleep(2);
+		assertEquals(state, m.getState());
+	}
+
+	@Test
+	public void testRunsAll() throws InterruptedException {
+		MachineScheduler scheduler = new MachineScheduler(2, 7, Policy.ROUND_ROBIN);
+		ArrayList<Machine> machines = new ArrayList<>();
+		for (int i = 1; i <= 200; i++)
+			machines.add(scheduler.submit(countTo(i), 1));
+
+		scheduler.awaitAll();
+		scheduler.shutdown();
+
+		for (int i = 1; i <= 200; i++) {
+			Machine m = machines.get(i - 1);
+			assertEquals(State.HALTED, m.getState());
+			assertEquals(i, m.getArchitecture().tGetREG0().getData());
+			assertEquals(1 + 2 * i + 1, m.getInstructions());
+			assertTrue(m.getSlices() >= m.getInstructions() / 7);
+		}
+	}
+
+	@Test
+	public void testFailure() throws InterruptedException {
+		MachineScheduler scheduler = new MachineScheduler(2, 7, Policy.ROUND_ROBIN);
+		Architecture bad = new Architecture(false);
+		// stores out of the memory
+		bad.loadImage(new int[] { CommandID.MOVE_REG_MEM.toInt(), 1, 999, -1 });
+		Machine failing = scheduler.submit(bad, 1);
+		Machine other = scheduler.submit(countTo(50), 1);
+
+		scheduler.awaitAll();
+		scheduler.shutdown();
+
+		assertEquals(State.FAILED, failing.getState());
+		assertTrue(failing.isDone());
+		assertTrue(failing.getFailure() instanceof ArrayIndexOutOfBoundsException);
+		assertEquals(State.HALTED, other.getState());
+		assertEquals(null, other.getFailure());
+	}
+
+	@Test
+	public void testPauseResumeCancel() throws InterruptedException {
+		MachineScheduler scheduler = new MachineScheduler(2, 100, Policy.ROUND_ROBIN);
+		Machine m = scheduler.submit(forever(), 1);
+
+		m.pause();
+		waitFor(m, State.PAUSED);
+		long count = m.getInstructions();
+		Thread.sleep(20);
+		assertEquals(count, m.getInstructions());
+
+		m.resume();
+		for (int i = 0; i < 1000 && m.getInstructions() == count; i++)
+			Thread.sleep(2);
+		assertTrue(m.getInstructions() > count);
+
+		m.cancel();
+		assertTrue(m.await(5, TimeUnit.SECONDS));
+		assertEquals(State.CANCELLED, m.getState());
+		assertFalse(m.getArchitecture().isHalted());
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void testPriorityQuantum() throws InterruptedException {
+		MachineScheduler scheduler = new MachineScheduler(1, 10, Policy.PRIORITY);
+		Machine low = scheduler.submit(forever(), 1);
+		Machine high = scheduler.submit(forever(), 4);
+
+		for (int i = 0; i < 1000 && low.getSlices() < 5; i++)
+			Thread.sleep(2);
+		low.cancel();
+		high.cancel();
+		scheduler.awaitAll();
+		scheduler.shutdown();
+
+		assertEquals(0, low.getInstructions() % 10);
+		assertEquals(0, high.getInstructions() % 40);
+		assertEquals(low.getSlices() * 10, low.getInstructions());
+		assertEquals(high.getSlices() * 40, high.getInstructions());
+	}
+}
@@ -0,0 +1,155 @@
+package architecture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import architecture.Architecture.CommandID;
+
+public class TestMemoryHeatmap {
+	static private final int[] CALL_PROGRAM = new int[] {
+		CommandID.MOVE_IMM_REG.toInt(), 200, 6,        // 0: stktop <- 200
+		CommandID.MOVE_IMM_REG.toInt(), 200, 7,        // 3: stkbot <- 200
+		CommandID.MOVE_IMM_REG.toInt(), 5, 2,          // 6: reg1 <- 5
+		CommandID.CALL.toInt(), 18,                    // 9: call 18
+		CommandID.JLW.toInt(), 1, 2, 9,                // 11: if reg0 < reg1 goto 9
+		-1,                                            // 15
+		0, 0,                                          // 16
+		CommandID.INC_REG.toInt(), 1,                  // 18: reg0++
+		CommandID.ADD_REG_MEM.toInt(), 1, 100,         // 20: mem[100] <- reg0 + mem[100]
+		CommandID.RET.toInt(),                         // 23
+	};
+
+	static private MemoryHeatmap run(long window) {
+		ObservedArchitecture arch = new ObservedArchitecture(false);
+		MemoryHeatmap heatmap = new MemoryHeatmap(arch, window);
+		arch.loadImage(CALL_PROGRAM);
+		arch.run(Long.MAX_VALUE);
+		return heatmap;
+	}
+
+	@Test
+	public void testCounts() {
+		MemoryHeatmap heatmap = run(MemoryHeatmap.DEFAULT_WINDOW);
+
+		// the setup runs once, the subroutine 5 times
+		assertEquals(1, heatmap.getReads(MemoryHeatmap.FETCH, 0));
+		assertEquals(1, heatmap.getReads(MemoryHeatmap.FETCH, 2));
+		assertEquals(5, heatmap.getReads(MemoryHeatmap.FETCH, 18));
+		assertEquals(5, heatmap.getReads(MemoryHeatmap.FETCH, 23));
+		assertEquals(0, heatmap.getReads(MemoryHeatmap.FETCH, 16));
+		assertEquals(0, heatmap.getAccesses(16));
+		assertTrue(heatmap.getReads(MemoryHeatmap.FETCH, 10) >= 5);
+
+		// the return address is pushed at 199 and popped from there
+		assertEquals(5, heatmap.getWrites(MemoryHeatmap.STACK, 199));
+		assertEquals(5, heatmap.getReads(MemoryHeatmap.STACK, 199));
+		assertEquals(0, heatmap.getWrites(MemoryHeatmap.DATA, 199));
+
+		assertEquals(5, heatmap.getWrites(MemoryHeatmap.DATA, 100));
+		assertEquals(5, heatmap.getReads(MemoryHeatmap.DATA, 100));
+		assertEquals(0, heatmap.getReads(MemoryHeatmap.STACK, 100));
+
+		// 22 words of code (16 and 17 never run), a variable and a stack slot
+		assertEquals(22 + 1 + 1, heatmap.getTouched());
+	}
+
+	@Test
+	public void testWorkingSet() {
+		MemoryHeatmap whole = run(MemoryHeatmap.DEFAULT_WINDOW);
+		assertTrue(whole.getCycles() > 0);
+		assertTrue(whole.getCycles() < MemoryHeatmap.DEFAULT_WINDOW);
+		assertEquals(0, whole.getSamples());
+		assertEquals(0, whole.getKeptSamples());
+
+		MemoryHeatmap small = run(100);
+		// the first window ends at 100 cycles, then they slide by 25
+		assertEquals((small.getCycles() - 100) / 25 + 1, small.getSamples());
+		assertEquals(small.getSamples(), small.getKeptSamples());
+		int min = Integer.MAX_VALUE;
+		int max = 0;
+		long sum = 0;
+		for (int i = 0; i < small.getKeptSamples(); i++) {
+			assertEquals(100 + 25 * i, small.getSampleCycle(i));
+			int ws = small.getWorkingSet(i);
+			assertTrue(ws > 0 && ws <= small.getTouched());
+			min = Math.min(min, ws);
+			max = Math.max(max, ws);
+			sum += ws;
+		}
+		assertEquals(min, small.getMinWorkingSet());
+		assertEquals(max, small.getMaxWorkingSet());
+		assertEquals((double) sum / small.getSamples(), small.getMeanWorkingSet(), 1e-9);
+
+		// the loop alone touches less than the whole program
+		int last = small.getWorkingSet(small.getKeptSamples() - 1);
+		assertTrue(last < small.getTouched());
+	}
+
+	@Test
+	public void testKeptSamples() {
+		// a window of 4 cycles is measured every cycle, more than are kept
+		ObservedArchitecture arch = new ObservedArchitecture(false);
+		MemoryHeatmap heatmap = new MemoryHeatmap(arch, 4);
+		arch.loadImage(new int[] {
+			CommandID.INC_REG.toInt(), 1,                  // 0: reg0++
+			CommandID.JMP.toInt(), 0,                      // 2: goto 0
+		});
+		while (heatmap.getSamples() <= MemoryHeatmap.MAX_SAMPLES)
+			arch.run(1000);
+
+		long samples = heatmap.getSamples();
+		assertEquals(MemoryHeatmap.MAX_SAMPLES, heatmap.getKeptSamples());
+		// the oldest are dropped, the newest kept in order
+		assertEquals(heatmap.getSampleCycle(0) + MemoryHeatmap.MAX_SAMPLES - 1,
+				heatmap.getSampleCycle(MemoryHeatmap.MAX_SAMPLES - 1));
+		assertEquals(4 + samples - 1, heatmap.getSampleCycle(MemoryHeatmap.MAX_SAMPLES - 1));
+		assertTrue(heatmap.getMaxWorkingSet() <= heatmap.getTouched());
+
+		StringWriter ws = new StringWriter();
+		heatmap.writeWorkingSets(new PrintWriter(ws, true));
+		assertEquals(MemoryHeatmap.MAX_SAMPLES + 1, ws.toString().split("\n").length);
+	}
+
+	@Test
+	public void testOutput() {
+		MemoryHeatmap heatmap = run(100);
+
+		StringWriter csv = new StringWriter();
+		heatmap.writeCounts(new PrintWriter(csv, true));
+		String[] lines = csv.toString().split("\n");
+		assertEquals("address,fetch_reads,fetch_writes,data_reads,data_writes,stack_reads,stack_writes", lines[0]);
+		assertEquals(257, lines.length);
+		assertEquals("100,0,0,5,5,0,0", lines[101]);
+
+		StringWriter ws = new StringWriter();
+		heatmap.writeWorkingSets(new PrintWriter(ws, true));
+		assertEquals(heatmap.getKeptSamples() + 1, ws.toString().split("\n").length);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		heatmap.writeHeatmap(new PrintStream(out, true));
+		String text = out.toString();
+		assertTrue(text.contains("fetch accesses"));
+		assertTrue(text.contains("stack accesses"));
+		// the row of address 96 has the variable at 100, accessed the most
+		assertTrue(text.contains("  96 |    @           |"));
+	}
+
+	@Test
+	public void testHaltReport() {
+		ObservedArchitecture arch = new ObservedArchitecture(false);
+		MemoryHeatmap heatmap = new MemoryHeatmap(arch, 100);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		heatmap.setHaltReport(new PrintStream(out, true));
+		arch.loadImage(CALL_PROGRAM);
+
+		arch.run(10);
+		assertEquals(0, out.size());
+		arch.run(Long.MAX_VALUE);
+		assertTrue(out.toString().contains("addresses accessed in"));
+	}
+}
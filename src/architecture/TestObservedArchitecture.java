@@ -0,0 +1,111 @@
+package architecture;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import components.Bus;
+import components.Memory;
+import components.Register;
+import architecture.Architecture.CommandID;
+
+public class TestObservedArchitecture {
+	static private final int[] COUNT_PROGRAM = new int[] {
+		CommandID.MOVE_IMM_REG.toInt(), 5, 2,          // 0: reg1 <- 5
+		CommandID.INC_REG.toInt(), 1,                  // 3: reg0++
+		CommandID.ADD_REG_MEM.toInt(), 1, 100,         // 5: mem[100] <- reg0 + mem[100]
+		CommandID.JLW.toInt(), 1, 2, 3,                // 8: if reg0 < reg1 goto 3
+		-1,                                            // 12
+	};
+
+	static private class Recorder implements MachineListener {
+		ArrayList<Integer> started = new ArrayList<>();
+		int ended;
+		int busPuts;
+		int reg0Stores;
+		ArrayList<Integer> stores = new ArrayList<>();
+		int reads;
+
+		@Override
+		public void instructionStarted(Architecture arch, int pc) {
+			assertEquals(started.size(), arch.getInstructionCount());
+			started.add(pc);
+		}
+
+		@Override
+		public void instructionEnded(Architecture arch, int pc) {
+			ended++;
+			assertEquals(started.size(), arch.getInstructionCount());
+		}
+
+		@Override
+		public void busPut(Bus bus, int data) {
+			busPuts++;
+		}
+
+		@Override
+		public void registerStored(Register register, int data) {
+			if (register.getRegisterName().equals("REG0"))
+				reg0Stores++;
+		}
+
+		@Override
+		public void memoryStored(Memory memory, int address, int data) {
+			if (memory.getDataList().length > 2)
+				stores.add(address * 1000 + data);
+		}
+
+		@Override
+		public void memoryRead(Memory memory, int address, int data) {
+			reads++;
+			assertEquals(memory.getDataList()[address], data);
+		}
+	}
+
+	@Test
+	public void testEvents() {
+		ObservedArchitecture arch = new ObservedArchitecture(false);
+		Recorder recorder = new Recorder();
+		arch.addListener(recorder);
+		arch.loadImage(COUNT_PROGRAM);
+		arch.run(Long.MAX_VALUE);
+
+		Architecture plain = new Architecture(false);
+		plain.loadImage(COUNT_PROGRAM);
+		plain.run(Long.MAX_VALUE);
+		assertEquals(plain.stateHash(), arch.stateHash());
+
+		assertEquals(arch.getInstructionCount(), recorder.started.size());
+		assertEquals(arch.getInstructionCount(), recorder.ended);
+		assertEquals(Integer.valueOf(0), recorder.started.get(0));
+		assertEquals(Integer.valueOf(12), recorder.started.get(recorder.started.size() - 1));
+
+		// reg0 counts from 1 to 5, stored into mem[100] as 1, 3, 6, 10, 15
+		assertEquals(5, recorder.reg0Stores);
+		ArrayList<Integer> expected = new ArrayList<>();
+		for (int sum : new int[] { 1, 3, 6, 10, 15 })
+			expected.add(100 * 1000 + sum);
+		assertEquals(expected, recorder.stores);
+
+		assertTrue(recorder.busPuts > 0);
+		assertTrue(recorder.reads > arch.getInstructionCount());
+	}
+
+	@Test
+	public void testRemoveListener() {
+		ObservedArchitecture arch = new ObservedArchitecture(false);
+		Recorder first = new Recorder();
+		Recorder second = new Recorder();
+		arch.addListener(first);
+		arch.addListener(second);
+		arch.loadImage(COUNT_PROGRAM);
+
+		arch.run(3);
+		arch.removeListener(first);
+		arch.run(Long.MAX_VALUE);
+
+		assertEquals(3, first.started.size());
+		assertEquals(arch.getInstructionCount(), second.started.size());
+	}
+}
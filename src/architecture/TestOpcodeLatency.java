@@ -0,0 +1,116 @@
+package architecture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import architecture.Architecture.CommandID;
+
+public class TestOpcodeLatency {
+	static private final int[] LOOP_PROGRAM = new int[] {
+		CommandID.MOVE_IMM_REG.toInt(), 1000, 2,       // 0: reg1 <- 1000
+		CommandID.INC_REG.toInt(), 1,                  // 3: reg0++
+		CommandID.JLW.toInt(), 1, 2, 3,                // 5: if reg0 < reg1 goto 3
+		-1,                                            // 9
+	};
+
+	@Test
+	public void testBuckets() {
+		// exact up to 64 ns
+		for (long v = 0; v < 2 * OpcodeLatency.SUB_BUCKETS; v++) {
+			assertEquals(v, OpcodeLatency.bucketOf(v));
+			assertEquals(v, OpcodeLatency.highestOf((int) v));
+		}
+
+		// then every time goes into a bucket not much wider than 3% of it
+		for (long v = 64; v < 1L << 30; v = v * 3 / 2 + 1) {
+			int b = OpcodeLatency.bucketOf(v);
+			long high = OpcodeLatency.highestOf(b);
+			assertTrue(high >= v);
+			assertTrue(b == 0 || OpcodeLatency.highestOf(b - 1) < v);
+			assertTrue(high - v <= v / OpcodeLatency.SUB_BUCKETS);
+		}
+
+		assertEquals(OpcodeLatency.BUCKETS - 1, OpcodeLatency.bucketOf(Long.MAX_VALUE));
+		assertEquals(0, OpcodeLatency.bucketOf(-5));
+	}
+
+	@Test
+	public void testPercentiles() {
+		OpcodeLatency latency = new OpcodeLatency(1);
+		for (int i = 1; i <= 1000; i++)
+			latency.record(CommandID.ADD_REG_REG.toInt(), i);
+		latency.record(-1, 10);
+		latency.record(1000, 10);
+
+		assertEquals(1000, latency.getSamples(CommandID.ADD_REG_REG));
+		assertEquals(0, latency.getSamples(CommandID.SUB_REG_REG));
+		assertEquals(-1, latency.getPercentile(CommandID.SUB_REG_REG, 0.5));
+
+		long p50 = latency.getPercentile(CommandID.ADD_REG_REG, 0.5);
+		long p99 = latency.getPercentile(CommandID.ADD_REG_REG, 0.99);
+		long p999 = latency.getPercentile(CommandID.ADD_REG_REG, 0.999);
+		assertTrue(p50 >= 500 && p50 <= 500 + 500 / OpcodeLatency.SUB_BUCKETS);
+		assertTrue(p99 >= 990 && p99 <= 990 + 990 / OpcodeLatency.SUB_BUCKETS);
+		assertTrue(p999 >= 999 && p999 <= 999 + 999 / OpcodeLatency.SUB_BUCKETS);
+		assertEquals(1, latency.getPercentile(CommandID.ADD_REG_REG, 0));
+	}
+
+	@Test
+	public void testSampling() {
+		Architecture arch = new Architecture(false);
+		arch.loadImage(LOOP_PROGRAM);
+		OpcodeLatency latency = new OpcodeLatency(16);
+		arch.setLatency(latency);
+		arch.run(Long.MAX_VALUE);
+
+		// 2001 commands, 1 in about 16 measured
+		long samples = latency.getSamples(CommandID.INC_REG) + latency.getSamples(CommandID.JLW)
+				+ latency.getSamples(CommandID.MOVE_IMM_REG);
+		assertTrue(samples > 2001 / 16 / 2 && samples < 2001 / 16 * 2);
+		assertTrue(latency.getSamples(CommandID.INC_REG) > 0);
+		assertTrue(latency.getSamples(CommandID.JLW) > 0);
+		assertTrue(latency.getPercentile(CommandID.INC_REG, 0.5) >= 0);
+
+		// the results don't change
+		assertEquals(1000, arch.tGetREG0().getData());
+		assertTrue(arch.isHalted());
+	}
+
+	@Test
+	public void testEveryCommand() {
+		Architecture arch = new Architecture(false);
+		arch.loadImage(LOOP_PROGRAM);
+		OpcodeLatency latency = new OpcodeLatency(1);
+		arch.setLatency(latency);
+		arch.run(Long.MAX_VALUE);
+
+		assertEquals(1, latency.getSamples(CommandID.MOVE_IMM_REG));
+		assertEquals(1000, latency.getSamples(CommandID.INC_REG));
+		assertEquals(1000, latency.getSamples(CommandID.JLW));
+	}
+
+	@Test
+	public void testOutput() {
+		OpcodeLatency latency = new OpcodeLatency(1);
+		latency.record(CommandID.INC_REG.toInt(), 40);
+
+		ByteArrayOutputStream table = new ByteArrayOutputStream();
+		latency.write(new PrintStream(table, true));
+		String[] lines = table.toString().split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[1].startsWith("INC_REG"));
+
+		ByteArrayOutputStream values = new ByteArrayOutputStream();
+		latency.writeValues(new PrintStream(values, true));
+		assertEquals("latency.INC_REG.samples=1\nlatency.INC_REG.p50_ns=40\n"
+				+ "latency.INC_REG.p99_ns=40\nlatency.INC_REG.p999_ns=40\n", values.toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadInterval() {
+		new OpcodeLatency(0);
+	}
+}
@@ -0,0 +1,149 @@
+package architecture;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import assembler.Assembler;
+import assembler.Assembler.ParseException;
+
+public class TestReverseDebugger {
+	static private int[] assemble(String[] codeLines) {
+		try {
+			Assembler assembler = new Assembler();
+			assembler.readLines(codeLines);
+			assembler.parseAll();
+			return assembler.makeExecutableImage();
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+	}
+
+	static private Architecture load(int[] image) {
+		Architecture arch = new Architecture(false);
+		arch.loadImage(image);
+		return arch;
+	}
+
+	// `total` is the variable at the end of the memory
+	static private final int TOTAL = 255;
+
+	static private final int[] PROGRAM = assemble(new String[] {
+		"total",
+		"move 0 %reg0",
+		"move 50 %reg1",
+		"loop:",
+		"inc %reg0",
+		"add %reg0 total",
+		"jlw %reg0 %reg1 loop",
+		"move total %reg2",
+	});
+
+	// the state after running `n` commands from the start
+	static private long hashAfter(long n) {
+		Architecture arch = load(PROGRAM);
+		arch.run(n);
+		return arch.stateHash();
+	}
+
+	@Test
+	public void testStepBack() {
+		Architecture arch = load(PROGRAM);
+		ReverseDebugger debugger = new ReverseDebugger(arch, 10, 100);
+		debugger.run(Long.MAX_VALUE);
+		long end = arch.getInstructionCount();
+		assertTrue(arch.isHalted());
+
+		assertTrue(debugger.stepBack(1));
+		assertFalse(arch.isHalted());
+		assertEquals(end - 1, arch.getInstructionCount());
+		assertEquals(hashAfter(end - 1), arch.stateHash());
+
+		assertTrue(debugger.stepBack(37));
+		assertEquals(hashAfter(end - 38), arch.stateHash());
+
+		// and forward again
+		debugger.run(Long.MAX_VALUE);
+		assertEquals(end, arch.getInstructionCount());
+		assertEquals(hashAfter(end), arch.stateHash());
+
+		assertFalse(debugger.stepBack(end + 5));
+		assertEquals(0, arch.getInstructionCount());
+		assertEquals(hashAfter(0), arch.stateHash());
+	}
+
+	@Test
+	public void testHostWritesDirtyPages() throws Exception {
+		Architecture arch = load(PROGRAM);
+		Checkpoint before = Checkpoint.take(arch, null);
+
+		// a word set by the host, not by the program, must not be shared with
+		// the checkpoint taken before it
+		try (ExecutionRecorder recorder = new ExecutionRecorder(arch, new ByteArrayOutputStream(), 64)) {
+			recorder.setMemory(200, 7);
+		}
+		Checkpoint after = Checkpoint.take(arch, before);
+		assertEquals(1, after.copiedPages);
+
+		before.restore(arch);
+		assertEquals(0, arch.tGetMemory().getDataList()[200]);
+		after.restore(arch);
+		assertEquals(7, arch.tGetMemory().getDataList()[200]);
+	}
+
+	@Test
+	public void testRunBackToBreakpoint() {
+		Architecture arch = load(PROGRAM);
+		ReverseDebugger debugger = new ReverseDebugger(arch, 16, 100);
+		debugger.run(Long.MAX_VALUE);
+
+		// prefix (6 words) and two moves (6 words): `inc %reg0` is at 12
+		arch.addBreakpoint(12);
+		assertTrue(debugger.runBackToBreakpoint());
+		assertEquals(12, arch.tGetPC().getData());
+		assertEquals(49, arch.tGetREG0().getData());
+
+		assertTrue(debugger.runBackToBreakpoint());
+		assertEquals(48, arch.tGetREG0().getData());
+
+		arch.removeBreakpoint(12);
+		long now = arch.getInstructionCount();
+		assertFalse(debugger.runBackToBreakpoint());
+		assertEquals(now, arch.getInstructionCount());
+	}
+
+	@Test
+	public void testRunBackToLastWrite() {
+		Architecture arch = load(PROGRAM);
+		ReverseDebugger debugger = new ReverseDebugger(arch, 8, 100);
+		debugger.run(Long.MAX_VALUE);
+
+		assertTrue(debugger.runBackToLastWrite(TOTAL));
+		assertEquals(50 * 51 / 2, arch.tGetMemory().getDataList()[TOTAL]);
+		assertEquals(50, arch.tGetREG0().getData());
+
+		assertTrue(debugger.runBackToLastWrite(TOTAL));
+		assertEquals(49 * 50 / 2, arch.tGetMemory().getDataList()[TOTAL]);
+
+		assertFalse(debugger.runBackToLastWrite(100));
+	}
+
+	@Test
+	public void testBudget() {
+		Architecture arch = load(PROGRAM);
+		ReverseDebugger debugger = new ReverseDebugger(arch, 2, 4);
+		debugger.run(Long.MAX_VALUE);
+		long end = arch.getInstructionCount();
+
+		assertTrue(debugger.getCheckpointCount() <= 4);
+		assertTrue(debugger.getInterval() > 2);
+
+		for (long back = 1; back < end; back += 13) {
+			debugger.run(Long.MAX_VALUE);
+			assertTrue(debugger.stepBack(back));
+			assertEquals(hashAfter(end - back), arch.stateHash());
+			assertTrue(debugger.getCheckpointCount() <= 4);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package architecture;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import architecture.Architecture.CommandID;
+import architecture.Architecture.HaltReason;
+
+public class TestSimulatorEvents {
+	static private final int[] LOOP_PROGRAM = new int[] {
+		CommandID.MOVE_IMM_REG.toInt(), 1500000, 2,    // 0: reg1 <- 1500000
+		CommandID.INC_REG.toInt(), 1,                  // 3: reg0++
+		CommandID.JLW.toInt(), 1, 2, 3,                // 5: if reg0 < reg1 goto 3
+		CommandID.ADD_REG_REG.toInt(), 1, 2,           // 9
+		77,                                            // 12: bad instruction
+	};
+
+	static private List<RecordedEvent> record(Runnable r) throws IOException {
+		Path file = Files.createTempFile("events", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("dsf.ProgramLoad");
+			recording.enable("dsf.Run");
+			recording.enable("dsf.Throughput");
+			recording.enable("dsf.Halt");
+			recording.start();
+			r.run();
+			recording.stop();
+			recording.dump(file);
+		}
+		try {
+			return RecordingFile.readAllEvents(file);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	static private List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+		return events.stream().filter(e -> e.getEventType().getName().equals(name)).toList();
+	}
+
+	@Test
+	public void testEvents() throws IOException {
+		Architecture arch = new Architecture(false);
+		arch.setPostMortem(null);
+		// the machine makes no events unless they're recorded
+		assertFalse(SimulatorEvents.RUN.isEnabled());
+		List<RecordedEvent> events = record(() -> {
+			assertTrue(SimulatorEvents.RUN.isEnabled());
+			arch.loadImage(LOOP_PROGRAM);
+			arch.run(10);
+			arch.run(Long.MAX_VALUE);
+		});
+		assertEquals(HaltReason.BAD_INSTRUCTION, arch.getHaltReason());
+
+		List<RecordedEvent> loads = named(events, "dsf.ProgramLoad");
+		assertEquals(1, loads.size());
+		assertEquals(LOOP_PROGRAM.length, loads.get(0).getInt("words"));
+
+		List<RecordedEvent> runs = named(events, "dsf.Run");
+		assertEquals(2, runs.size());
+		assertEquals(10, runs.get(0).getLong("commands"));
+		assertEquals("LIMIT", runs.get(0).getString("haltReason"));
+		assertEquals(arch.getInstructionCount() - 10, runs.get(1).getLong("commands"));
+		assertEquals("BAD_INSTRUCTION", runs.get(1).getString("haltReason"));
+
+		// the samples cover the whole of both runs
+		long sampled = 0;
+		for (RecordedEvent e : named(events, "dsf.Throughput")) {
+			assertTrue(e.getLong("commands") <= SimulatorEvents.THROUGHPUT_INTERVAL);
+			sampled += e.getLong("commands");
+		}
+		assertEquals(arch.getInstructionCount(), sampled);
+		assertTrue(named(events, "dsf.Throughput").size() >= 4);
+
+		List<RecordedEvent> halts = named(events, "dsf.Halt");
+		assertEquals(1, halts.size());
+		assertEquals("BAD_INSTRUCTION", halts.get(0).getString("reason"));
+		assertEquals(12, halts.get(0).getInt("pc"));
+		assertEquals(77, halts.get(0).getInt("command"));
+		assertEquals(arch.getInstructionCount(), halts.get(0).getLong("instructionCount"));
+	}
+
+	@Test
+	public void testBadAddress() throws IOException {
+		Architecture arch = new Architecture(false);
+		arch.setPostMortem(null);
+		List<RecordedEvent> events = record(() -> {
+			arch.loadImage(new int[] { CommandID.JMP.toInt(), arch.getMemorySize() });
+			arch.controlUnitEexec();
+		});
+
+		List<RecordedEvent> halts = named(events, "dsf.Halt");
+		assertEquals(1, halts.size());
+		assertEquals("BAD_ADDRESS", halts.get(0).getString("reason"));
+		assertEquals(arch.getMemorySize(), halts.get(0).getInt("pc"));
+		assertEquals("BAD_ADDRESS", named(events, "dsf.Run").get(0).getString("haltReason"));
+	}
+}
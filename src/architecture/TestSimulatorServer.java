@@ -0,0 +1,117 @@
+package architecture;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestSimulatorServer {
+	static private SocketChannel connect(Path socket) throws IOException {
+		SocketChannel ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+		ch.connect(UnixDomainSocketAddress.of(socket));
+		return ch;
+	}
+
+	static private void send(OutputStream out, String request) throws IOException {
+		out.write(request.getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+
+	@Test
+	public void testJsonRequests() throws IOException {
+		Path socket = Files.createTempDirectory("dsfsrv").resolve("sim.sock");
+		try (SimulatorServer server = new SimulatorServer(socket, 2)) {
+			server.start();
+
+			try (SocketChannel ch = connect(socket)) {
+				OutputStream out = Channels.newOutputStream(ch);
+				BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(ch), StandardCharsets.UTF_8));
+
+				send(out, "reg REG1 5\nsource 2\nmove 10 %reg0\nadd %reg1 %reg0\n");
+				String response = in.readLine();
+				assertTrue(response, response.startsWith("{\"status\":\"HALT\""));
+				assertTrue(response, response.contains("\"REG0\":15"));
+				assertTrue(response, response.contains("\"instructions\":5"));
+
+				// the machine was reset: REG1 is zero again
+				send(out, "limit 100\nsource 3\nmove 1 %reg0\nloop:\njmp loop\n");
+				response = in.readLine();
+				assertTrue(response, response.startsWith("{\"status\":\"LIMIT\",\"instructions\":100,"));
+				assertTrue(response, response.contains("\"REG1\":0"));
+
+				send(out, "source 1\njmp nowhere\n");
+				response = in.readLine();
+				assertTrue(response, response.startsWith("{\"error\":"));
+
+				// storing out of the memory fails the request, not the connection
+				send(out, "image 4\n7 1 999 -1\n");
+				response = in.readLine();
+				assertTrue(response, response.startsWith("{\"error\":\"running failed: "));
+
+				send(out, "assemble 1\ninc %reg0\n");
+				assertEquals("{\"image\":[9,256,6,9,256,7,10,1,-1]}", in.readLine());
+			}
+		}
+	}
+
+	@Test
+	public void testBadSizes() throws IOException {
+		Path socket = Files.createTempDirectory("dsfsrv").resolve("sim.sock");
+		try (SimulatorServer server = new SimulatorServer(socket, 2)) {
+			server.start();
+
+			String[] requests = { "image -1\n", "source -1\n", "image 257\n", "source 2000000000\n" };
+			for (String request : requests) {
+				try (SocketChannel ch = connect(socket)) {
+					OutputStream out = Channels.newOutputStream(ch);
+					BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(ch), StandardCharsets.UTF_8));
+
+					send(out, request);
+					String response = in.readLine();
+					assertTrue(response, response.startsWith("{\"error\":\"program size out of range"));
+					// and the connection is closed, as for any malformed request
+					assertEquals(null, in.readLine());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBinaryImageRequest() throws IOException {
+		Path socket = Files.createTempDirectory("dsfsrv").resolve("sim.sock");
+		try (SimulatorServer server = new SimulatorServer(socket, 2)) {
+			server.start();
+
+			try (SocketChannel ch = connect(socket)) {
+				OutputStream out = Channels.newOutputStream(ch);
+				DataInputStream in = new DataInputStream(Channels.newInputStream(ch));
+
+				send(out, "format binary\nmem 200 4\nimage 6\n6 200 1\n10 1 -1\n");
+				assertEquals(0, in.readByte());
+				assertEquals(Architecture.HaltReason.HALT.ordinal(), in.readByte());
+				assertEquals(3, in.readLong());
+
+				int[] registers = new int[in.readInt()];
+				for (int i = 0; i < registers.length; i++)
+					registers[i] = in.readInt();
+				assertEquals(5, registers[1]); // REG0
+
+				int[] memory = new int[in.readInt()];
+				for (int i = 0; i < memory.length; i++)
+					memory[i] = in.readInt();
+				assertEquals(4, memory[200]);
+			}
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package architecture;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import architecture.Architecture.CommandID;
+import architecture.Architecture.HaltReason;
+import assembler.Assembler;
+import assembler.Assembler.ParseException;
+
+public class TestStackSampler {
+	static private final String[] PROGRAM = new String[] {
+		"move 0 %reg0",
+		"move 100 %reg1",
+		"loop:",
+		"inc %reg0",
+		"call outer",
+		"jlw %reg0 %reg1 loop",
+		"jmp end",
+		"outer:",
+		"call inner",
+		"call inner",
+		"ret",
+		"inner:",
+		"move 0 %reg2",
+		"again:",
+		"inc %reg2",
+		"jlw %reg2 %reg1 again",
+		"ret",
+		"end:",
+	};
+
+	static private StackSampler sampler(String[] codeLines, long interval) {
+		try {
+			Assembler assembler = new Assembler();
+			assembler.readLines(codeLines);
+			assembler.parseAll();
+			Architecture arch = new Architecture(false);
+			arch.loadImage(assembler.makeExecutableImage());
+			return new StackSampler(arch, assembler.getLabelMap(), interval);
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+	}
+
+	@Test
+	public void testLabelMap() {
+		LabelMap labels = new LabelMap(Arrays.asList("b", "a", "c", "a2"), Arrays.asList(10, 4, 20, 4));
+		assertEquals(4, labels.size());
+		assertEquals("3", labels.nameOf(3));
+		assertEquals("a", labels.nameOf(4));
+		assertEquals("a+5", labels.nameOf(9));
+		assertEquals("b", labels.nameOf(10));
+		assertEquals("c+80", labels.nameOf(100));
+		assertNull(labels.getLabel(5));
+		assertEquals("a", labels.getEnclosingLabel(5));
+		assertNull(labels.getEnclosingLabel(3));
+		assertEquals("7", new LabelMap().nameOf(7));
+	}
+
+	static private long cycles(CommandID... ids) {
+		long ret = 0;
+		for (CommandID id : ids)
+			ret += id.getCycles();
+		return ret;
+	}
+
+	@Test
+	public void testEveryCycle() {
+		StackSampler sampler = sampler(PROGRAM, 1);
+		assertEquals(HaltReason.HALT, sampler.run(Long.MAX_VALUE));
+
+		Map<String, Long> stacks = sampler.getStacks();
+		assertEquals(new HashSet<>(Arrays.asList("main", "main;outer", "main;outer;inner")), stacks.keySet());
+
+		long total = 0;
+		for (long n : stacks.values())
+			total += n;
+		assertEquals(sampler.getSampleCount(), total);
+		assertEquals(sampler.getCycles(), total);
+
+		// a command is sampled once per cycle, when it ends: inner is on the
+		// stack from its call to its ret (the call, the move and 100 rounds of
+		// 2)
+		long inner = cycles(CommandID.CALL, CommandID.MOVE_IMM_REG)
+				+ 100 * cycles(CommandID.INC_REG, CommandID.JLW);
+		assertEquals(200 * inner, (long) stacks.get("main;outer;inner"));
+		// and outer right after its call and after each ret from inner
+		assertEquals(100 * cycles(CommandID.CALL, CommandID.RET, CommandID.RET), (long) stacks.get("main;outer"));
+	}
+
+	@Test
+	public void testInterval() {
+		StackSampler every = sampler(PROGRAM, 1);
+		every.run(Long.MAX_VALUE);
+		StackSampler sparse = sampler(PROGRAM, 100);
+		// in pieces, which mustn't move the samples
+		sparse.run(1234);
+		sparse.run(Long.MAX_VALUE);
+
+		assertEquals(every.getSampleCount() / 100, sparse.getSampleCount());
+		long inner = sparse.getStacks().get("main;outer;inner");
+		assertTrue(inner > sparse.getSampleCount() * 9 / 10);
+	}
+
+	@Test
+	public void testCollapsedOutput() {
+		StackSampler sampler = sampler(PROGRAM, 7);
+		sampler.run(Long.MAX_VALUE);
+		StringWriter out = new StringWriter();
+		sampler.write(new PrintWriter(out, true));
+
+		ArrayList<String> lines = new ArrayList<>(Arrays.asList(out.toString().split("\n")));
+		assertEquals(3, lines.size());
+		assertTrue(lines.get(0).matches("main [0-9]+"));
+		assertTrue(lines.get(1).matches("main;outer [0-9]+"));
+		assertTrue(lines.get(2).matches("main;outer;inner [0-9]+"));
+	}
+
+	@Test
+	public void testBrokenStack() {
+		Architecture arch = new Architecture(false);
+		int[] mem = arch.tGetMemory().getDataList();
+		arch.loadImage(new int[] {
+			CommandID.MOVE_IMM_REG.toInt(), 100, 6,        // 0: stktop <- 100
+			CommandID.MOVE_IMM_REG.toInt(), 100, 7,        // 3: stkbot <- 100
+			CommandID.CALL.toInt(), 14,                    // 6
+			-1, -1, -1, -1, -1, -1,                        // 8
+			CommandID.MOVE_IMM_REG.toInt(), 0, 6,          // 14: stktop <- 0
+			CommandID.MOVE_IMM_REG.toInt(), 101, 6,        // 17: stktop <- 101
+		});
+		LabelMap labels = new LabelMap(Arrays.asList("f"), Arrays.asList(14));
+		StackSampler sampler = new StackSampler(arch, labels, 1);
+
+		sampler.run(3);
+		assertEquals("main;f", sampler.currentStack());
+
+		// the return address doesn't come after a call
+		mem[99] = 12;
+		assertEquals("main;12", sampler.currentStack());
+
+		// a stack deeper than it can be shown
+		sampler.run(1);
+		String[] frames = sampler.currentStack().split(";");
+		assertEquals(StackSampler.MAX_DEPTH + 2, frames.length);
+		assertEquals(StackSampler.TRUNCATED, frames[1]);
+
+		// more returned than called
+		sampler.run(1);
+		assertEquals("main", sampler.currentStack());
+	}
+}
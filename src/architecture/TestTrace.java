@@ -0,0 +1,183 @@
+package architecture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import architecture.Architecture.HaltReason;
+import architecture.TraceReader.TraceException;
+import assembler.Assembler;
+import assembler.Assembler.ParseException;
+
+public class TestTrace {
+	static private Architecture load(String[] codeLines) {
+		try {
+			Assembler assembler = new Assembler();
+			assembler.readLines(codeLines);
+			assembler.parseAll();
+			Architecture arch = new Architecture(false);
+			arch.loadImage(assembler.makeExecutableImage());
+			return arch;
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+	}
+
+	static private final String[] PROGRAM = new String[] {
+		"total",
+		"move 0 %reg0",
+		"move 300 %reg1",
+		"loop:",
+		"inc %reg0",
+		"add %reg0 total",
+		"call sub",
+		"jlw %reg0 %reg1 loop",
+		"move total %reg2",
+		"jmp end",
+		"sub:",
+		"move total %reg3",
+		"ret",
+		"end:",
+	};
+
+	static private byte[] trace(Architecture arch, long start) throws IOException {
+		arch.run(start);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (TraceWriter writer = new TraceWriter(arch, out)) {
+			assertEquals(HaltReason.HALT, writer.run(Long.MAX_VALUE));
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testRebuildEveryState() throws IOException, TraceException {
+		Architecture arch = load(PROGRAM);
+		byte[] trace = trace(arch, 0);
+
+		Architecture live = load(PROGRAM);
+		TraceReader reader = new TraceReader(new ByteArrayInputStream(trace));
+		Architecture rebuilt = reader.getMachine();
+		assertEquals(live.stateHash(), rebuilt.stateHash());
+
+		while (reader.next()) {
+			live.run(1);
+			assertEquals(live.getInstructionCount(), rebuilt.getInstructionCount());
+			assertArrayEquals(live.saveRegisters(), rebuilt.saveRegisters());
+			assertEquals(live.stateHash(), rebuilt.stateHash());
+		}
+		assertTrue(reader.isEnded());
+		assertEquals(arch.getInstructionCount(), rebuilt.getInstructionCount());
+		assertEquals(HaltReason.HALT, rebuilt.getHaltReason());
+		assertArrayEquals(arch.tGetMemory().getDataList(), rebuilt.tGetMemory().getDataList());
+
+		// a few bytes per command, where printing the state takes hundreds
+		assertTrue(trace.length < 8 * arch.getInstructionCount());
+	}
+
+	@Test
+	public void testSeek() throws IOException, TraceException {
+		Architecture arch = load(PROGRAM);
+		byte[] trace = trace(arch, 100);
+
+		Architecture live = load(PROGRAM);
+		live.run(1000);
+
+		TraceReader reader = new TraceReader(new ByteArrayInputStream(trace));
+		assertEquals(100, reader.getMachine().getInstructionCount());
+		assertTrue(reader.seek(1000));
+		assertEquals(live.stateHash(), reader.getMachine().stateHash());
+
+		try {
+			reader.seek(999);
+			fail("seeking backwards must fail");
+		} catch (IllegalArgumentException ex) {
+		}
+
+		assertFalse(reader.seek(Long.MAX_VALUE));
+		assertEquals(arch.stateHash(), reader.getMachine().stateHash());
+	}
+
+	@Test
+	public void testBadTrace() throws IOException {
+		Architecture arch = load(PROGRAM);
+		byte[] trace = trace(arch, 0);
+
+		try {
+			TraceReader reader = new TraceReader(new ByteArrayInputStream(Arrays.copyOf(trace, trace.length / 2)));
+			reader.seek(Long.MAX_VALUE);
+			fail("a truncated trace must be rejected");
+		} catch (TraceException ex) {
+		}
+
+		trace[0] = 'X';
+		try {
+			new TraceReader(new ByteArrayInputStream(trace));
+			fail("a trace with the wrong magic must be rejected");
+		} catch (TraceException ex) {
+		}
+	}
+
+	@Test
+	public void testIndexedTrace() throws IOException, TraceException {
+		Path dir = Files.createTempDirectory("trace");
+		Path tracePath = dir.resolve("t.dtr");
+		Path indexPath = dir.resolve("t.idx");
+
+		try {
+			Architecture arch = load(PROGRAM);
+			try (TraceWriter writer = new TraceWriter(arch, Files.newOutputStream(tracePath), 64, Files.newOutputStream(indexPath))) {
+				assertEquals(HaltReason.HALT, writer.run(Long.MAX_VALUE));
+			}
+
+			// the whole trace still reads from the start
+			try (TraceReader reader = new TraceReader(Files.newInputStream(tracePath))) {
+				assertFalse(reader.seek(Long.MAX_VALUE));
+				assertEquals(arch.stateHash(), reader.getMachine().stateHash());
+			}
+
+			IndexedTrace indexed = new IndexedTrace(tracePath, indexPath);
+			long total = arch.getInstructionCount();
+			assertEquals((total + 63) / 64, indexed.getIndex().getKeyframeCount());
+
+			// seek anywhere, in any order
+			long[] targets = new long[] { 1000, 3, 64, 1799, 0, 128, total, 63 };
+			for (long target : targets) {
+				Architecture live = load(PROGRAM);
+				live.run(target);
+				try (TraceReader reader = indexed.seek(target)) {
+					assertEquals(target, reader.getMachine().getInstructionCount());
+					assertEquals(live.stateHash(), reader.getMachine().stateHash());
+				}
+			}
+			assertNull(indexed.seek(total + 1));
+
+			// all the times the command in the loop was about to run
+			Architecture live = load(PROGRAM);
+			live.run(5);
+			int address = live.tGetPC().getData();
+			ArrayList<Long> expected = new ArrayList<>();
+			live = load(PROGRAM);
+			while (true) {
+				if (live.tGetPC().getData() == address)
+					expected.add(live.getInstructionCount());
+				if (live.isHalted())
+					break;
+				live.run(1);
+			}
+			assertEquals(300, expected.size());
+			assertEquals(expected, indexed.findPC(address));
+			assertEquals(new ArrayList<Long>(), indexed.findPC(250));
+		} finally {
+			Files.deleteIfExists(tracePath);
+			Files.deleteIfExists(indexPath);
+			Files.delete(dir);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package architecture;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import architecture.TraceReader.TraceException;
+
+/**
+ * Index of the keyframes of a trace (see TraceWriter), memory-mapped.
+ *
+ * Format (big-endian): the "DSFI" magic, a version int, the keyframe
+ * interval (long), the memory size (int) and a reserved int, then one
+ * fixed-size entry per keyframe, in order:
+ *
+ *     <instruction count (long)> <offset in the trace (long)> <PC bitmap>
+ *
+ * where the PC bitmap has one bit per memory address, in longs, set for the
+ * PC of every state from that keyframe to the next one. Entries are written
+ * as the trace goes, so their number comes from the size of the file.
+ */
+public class TraceIndex {
+	static final int MAGIC = 0x44534649; // "DSFI"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 24;
+
+	private ByteBuffer buffer;
+	private long interval;
+	private int memorySize;
+	private int entrySize;
+	private int entries;
+
+	private TraceIndex(ByteBuffer buffer) throws TraceException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new TraceException("not a trace index");
+		if (buffer.getInt(4) != VERSION)
+			throw new TraceException("unsupported trace index version");
+
+		this.interval = buffer.getLong(8);
+		this.memorySize = buffer.getInt(16);
+		this.entrySize = 16 + 8 * bitmapWords(memorySize);
+		this.entries = (buffer.capacity() - HEADER_SIZE) / entrySize;
+		if (entries == 0)
+			throw new TraceException("trace index has no keyframes");
+	}
+
+	/**
+	 * Map an index file.
+	 */
+	public static TraceIndex open(Path path) throws IOException, TraceException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// the mapping stays valid after the channel is closed
+			return new TraceIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	static int bitmapWords(int memorySize) {
+		return (memorySize + 63) / 64;
+	}
+
+	static void writeHeader(DataOutput out, long interval, int memorySize) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(interval);
+		out.writeInt(memorySize);
+		out.writeInt(0);
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+
+	public int getKeyframeCount() {
+		return entries;
+	}
+
+	public long getInstructionCount(int keyframe) {
+		return buffer.getLong(position(keyframe));
+	}
+
+	public long getOffset(int keyframe) {
+		return buffer.getLong(position(keyframe) + 8);
+	}
+
+	/**
+	 * Tell if the PC is `address` in some state from a keyframe to the next.
+	 */
+	public boolean hasPC(int keyframe, int address) {
+		if (address < 0 || address >= memorySize)
+			return false;
+		long word = buffer.getLong(position(keyframe) + 16 + 8 * (address >> 6));
+		return (word & (1L << address)) != 0;
+	}
+
+	/**
+	 * Get the last keyframe at or before the state after `count` commands,
+	 * or -1 if the trace starts after it.
+	 */
+	public int find(long count) {
+		int lo = 0;
+		int hi = entries - 1;
+		if (getInstructionCount(0) > count)
+			return -1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (getInstructionCount(mid) <= count)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	private int position(int keyframe) {
+		if (keyframe < 0 || keyframe >= entries)
+			throw new IndexOutOfBoundsException("no keyframe " + keyframe);
+		return HEADER_SIZE + keyframe * entrySize;
+	}
+}
@@ -0,0 +1,267 @@
+package architecture;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import architecture.Architecture.HaltReason;
+import components.Memory;
+import components.Register;
+
+/**
+ * Reads a trace written by TraceWriter, rebuilding the state of the machine
+ * after each command.
+ *
+ * The state is kept in a machine that is never run (see getMachine()), so it
+ * can be inspected with the usual accessors.
+ */
+public class TraceReader implements Closeable {
+	private DataInputStream in;
+	private Architecture arch;
+	private int pcID;
+	private int flagsID;
+	private int[] registers;
+	private int lastAddress;
+	private boolean ended;
+
+	/**
+	 * Start reading a trace, rebuilding the state it starts from.
+	 */
+	public TraceReader(InputStream in) throws IOException, TraceException {
+		this(in, true);
+	}
+
+	/**
+	 * Start reading a trace from its start (with `header`) or from a
+	 * keyframe.
+	 */
+	TraceReader(InputStream in, boolean header) throws IOException, TraceException {
+		this.in = new DataInputStream(new BufferedInputStream(in));
+		this.arch = new Architecture(false);
+		this.pcID = arch.getRegisterID("PC");
+		this.flagsID = arch.getRegisterID("Flags");
+
+		try {
+			if (header && this.in.readInt() != TraceWriter.MAGIC)
+				throw new TraceException("not a trace");
+			if (header && this.in.readUnsignedByte() != TraceWriter.VERSION)
+				throw new TraceException("unsupported trace version");
+			if (this.in.readUnsignedByte() != TraceWriter.KEYFRAME)
+				throw new TraceException("no keyframe where the trace starts");
+			readKeyframe();
+		} catch (EOFException ex) {
+			throw new TraceException("trace ends abruptly");
+		}
+	}
+
+	/**
+	 * Get the machine holding the state after the last command read.
+	 */
+	public Architecture getMachine() {
+		return arch;
+	}
+
+	/**
+	 * Tell if the whole trace was read.
+	 */
+	public boolean isEnded() {
+		return ended;
+	}
+
+	/**
+	 * Read the next command.
+	 *
+	 * @return false if the trace ended instead
+	 */
+	public boolean next() throws IOException, TraceException {
+		if (ended)
+			return false;
+
+		try {
+			int header = in.readUnsignedByte();
+			if (header == TraceWriter.KEYFRAME) {
+				// it is the state after the last command, read the next one
+				readKeyframe();
+				header = in.readUnsignedByte();
+			}
+			if (header == TraceWriter.END) {
+				readEnd();
+				return false;
+			}
+
+			registers[pcID] += (int) VarInt.readSigned(in);
+			long mask = VarInt.readUnsigned(in);
+			for (int i = 0; i < registers.length; i++) {
+				if ((mask & (1L << i)) != 0)
+					registers[i] += (int) VarInt.readSigned(in);
+			}
+			registers[flagsID] = header & TraceWriter.FLAGS;
+			arch.restoreRegisters(registers);
+
+			if ((header & TraceWriter.MEMORY) != 0) {
+				Memory memory = arch.tGetMemory();
+				int[] data = memory.getDataList();
+				long n = VarInt.readUnsigned(in);
+				for (long i = 0; i < n; i++) {
+					lastAddress += (int) VarInt.readSigned(in);
+					memory.set(lastAddress, data[lastAddress] + (int) VarInt.readSigned(in));
+				}
+			}
+
+			if ((header & TraceWriter.STATUS) != 0) {
+				int[] status = arch.tGetStatusMem().getDataList();
+				for (int i = 0; i < status.length; i++)
+					status[i] = (int) VarInt.readSigned(in);
+			}
+		} catch (EOFException ex) {
+			throw new TraceException("trace ends abruptly");
+		} catch (ArrayIndexOutOfBoundsException ex) {
+			throw new TraceException("trace refers to an address out of range");
+		}
+
+		arch.restoreRunState(arch.getInstructionCount() + 1, null);
+		return true;
+	}
+
+	private void readKeyframe() throws IOException, TraceException {
+		try {
+			long count = VarInt.readUnsigned(in);
+			Memory memory = arch.tGetMemory();
+			for (int i = 0; i < arch.getMemorySize(); i++)
+				memory.set(i, 0);
+			ExecutionReplayer.readState(in, arch);
+			arch.restoreRunState(count, null);
+		} catch (ArrayIndexOutOfBoundsException ex) {
+			throw new TraceException("trace refers to a register or address out of range");
+		}
+		registers = arch.saveRegisters();
+		lastAddress = 0;
+	}
+
+	private void readEnd() throws IOException, TraceException {
+		ended = true;
+		int reason = in.readUnsignedByte();
+		arch.restoreRunState(arch.getInstructionCount(), reason == 0 ? null : HaltReason.values()[reason - 1]);
+		if (arch.stateHash() != in.readLong())
+			throw new TraceException("rebuilt state doesn't match the traced one");
+	}
+
+	/**
+	 * Read up to the state after `count` commands (counting from the start
+	 * of the run, not of the trace). Traces can only be read forward.
+	 *
+	 * @return false if the trace ended before
+	 */
+	public boolean seek(long count) throws IOException, TraceException {
+		if (count < arch.getInstructionCount())
+			throw new IllegalArgumentException("can't seek backwards in a trace");
+		while (arch.getInstructionCount() < count) {
+			if (!next())
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	public static class TraceException extends Exception {
+		public TraceException(String message) {
+			super(message);
+		}
+	}
+
+	private static void printState(Architecture arch) {
+		System.out.printf("After %d commands", arch.getInstructionCount());
+		if (arch.getHaltReason() != null)
+			System.out.printf(" (halted: %s)", arch.getHaltReason());
+		System.out.println();
+
+		int[] registers = arch.saveRegisters();
+		System.out.print("All registers: ");
+		for (int i = 0; i < registers.length; i++) {
+			Register r = arch.registerList[i];
+			System.out.printf("%s: %d", r.getRegisterName(), registers[i]);
+			if (i < registers.length - 1)
+				System.out.print(" | ");
+		}
+		System.out.println();
+
+		int[] status = arch.tGetStatusMem().getDataList();
+		System.out.printf("Status memory: [%d, %d]\n", status[0], status[1]);
+
+		int[] memory = arch.tGetMemory().getDataList();
+		for (int i = 0; i < memory.length; i += 16) {
+			System.out.printf("%4d:", i);
+			for (int j = i; j < i + 16 && j < memory.length; j++)
+				System.out.printf(" %d", memory[j]);
+			System.out.println();
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: trace [--pc <ADDRESS>] <NAME> [<COUNT>]");
+		System.err.println("Reads the trace NAME.dtr (and its index NAME.idx, if there is one)");
+		System.err.println("Prints the state after COUNT commands, or at the end of the trace");
+		System.err.println("With --pc, prints the instruction counts where the PC is ADDRESS instead (needs the index)");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String name = null;
+		long count = Long.MAX_VALUE;
+		int pc = -1;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--pc") && i + 1 < args.length)
+				pc = Integer.parseInt(args[++i]);
+			else if (name == null && !args[i].startsWith("-"))
+				name = args[i];
+			else if (count == Long.MAX_VALUE && !args[i].startsWith("-"))
+				count = Long.parseLong(args[i]);
+			else
+				usage();
+		}
+
+		if (name == null)
+			usage();
+
+		Path index = Paths.get(name + ".idx");
+		Path trace = Paths.get(name + ".dtr");
+
+		try {
+			if (pc >= 0) {
+				for (long c : new IndexedTrace(trace, index).findPC(pc))
+					System.out.println(c);
+				return;
+			}
+
+			TraceReader reader;
+			if (count != Long.MAX_VALUE && Files.exists(index)) {
+				reader = new IndexedTrace(trace, index).seek(count);
+			} else {
+				reader = new TraceReader(new FileInputStream(trace.toFile()));
+				if (!reader.seek(Math.max(count, reader.getMachine().getInstructionCount())) && count != Long.MAX_VALUE)
+					reader = null;
+			}
+			if (reader == null) {
+				System.err.printf("The trace has no state after %d commands\n", count);
+				System.exit(1);
+			}
+			printState(reader.getMachine());
+			reader.close();
+		} catch (TraceException ex) {
+			System.err.println("Bad trace: " + ex.getMessage());
+			System.exit(1);
+		}
+	}
+}
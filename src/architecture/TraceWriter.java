@@ -0,0 +1,270 @@
+package architecture;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import architecture.Architecture.HaltReason;
+import components.Memory;
+
+/**
+ * Writes a trace of every command a machine runs, recording only what each
+ * one changed, so that TraceReader can rebuild the full state after any of
+ * them.
+ *
+ * Trace format: the "DSFT" magic and a version byte, then a keyframe with
+ * the state the machine starts from, then one record per command:
+ *
+ *     <header byte>
+ *     <PC - previous PC>
+ *     <mask of the other registers that changed, by register id>
+ *     <new value - previous value, for each register in the mask>
+ *     <number of words written> (<address - previous address> <new value - previous value>)...
+ *     <status memory words>
+ *
+ * where bits 0-1 of the header are the Z and N flags after the command, bit 2
+ * tells the memory writes follow and bit 3 that status memory changed (the
+ * other fields are always there). All numbers are VarInts, the differences
+ * zigzag-encoded. A command usually takes 3 to 8 bytes.
+ *
+ * A keyframe is a KEYFRAME header byte, the instruction count and the whole
+ * state (as in an ExecutionRecorder log). With a keyframe interval, one is
+ * written every that many commands and the differences after it don't depend
+ * on anything before, so reading can start at any of them; the offsets of
+ * the keyframes go to an index (see TraceIndex).
+ *
+ * The trace ends with an END header byte, the halt reason (ordinal + 1, or 0)
+ * and the state hash.
+ *
+ * As with ExecutionRecorder, the machine must only run through the writer
+ * while tracing.
+ */
+public class TraceWriter implements Closeable {
+	static final int MAGIC = 0x44534654; // "DSFT"
+	static final int VERSION = 2;
+
+	static final int FLAGS = 0x03;
+	static final int MEMORY = 0x04;
+	static final int STATUS = 0x08;
+	static final int KEYFRAME = 0x40;
+	static final int END = 0x80;
+
+	public static final long DEFAULT_KEYFRAME_INTERVAL = 100_000;
+
+	private Architecture arch;
+	private CountingOutputStream counter;
+	private DataOutputStream out;
+	private int pcID;
+	private int flagsID;
+	private boolean closed;
+
+	// the state as of the last record
+	private int[] registers;
+	private int[] status;
+	private int[] memory;
+	private int lastAddress;
+
+	private long keyframeInterval;
+	private long nextKeyframe;
+
+	// the index, and what it will say about the keyframe being written
+	private DataOutputStream index;
+	private long keyframeOffset;
+	private long keyframeCount;
+	private long[] pcs;
+
+	/**
+	 * Start tracing, from the current state of the machine, without
+	 * keyframes or index.
+	 */
+	public TraceWriter(Architecture arch, OutputStream out) throws IOException {
+		this(arch, out, 0, null);
+	}
+
+	/**
+	 * Start tracing, from the current state of the machine, writing a
+	 * keyframe every `keyframeInterval` commands (0 for none after the first)
+	 * and the index into `index` (if not null).
+	 */
+	public TraceWriter(Architecture arch, OutputStream out, long keyframeInterval, OutputStream index) throws IOException {
+		this.arch = arch;
+		this.counter = new CountingOutputStream(new BufferedOutputStream(out));
+		this.out = new DataOutputStream(counter);
+		this.pcID = arch.getRegisterID("PC");
+		this.flagsID = arch.getRegisterID("Flags");
+		this.keyframeInterval = keyframeInterval;
+		arch.tGetMemory().setStoreTracking(true);
+
+		if (index != null) {
+			this.index = new DataOutputStream(new BufferedOutputStream(index));
+			TraceIndex.writeHeader(this.index, keyframeInterval, arch.getMemorySize());
+		}
+
+		this.out.writeInt(MAGIC);
+		this.out.writeByte(VERSION);
+		writeKeyframe();
+	}
+
+	private void writeKeyframe() throws IOException {
+		if (pcs != null)
+			writeIndexEntry();
+
+		keyframeOffset = counter.count;
+		keyframeCount = arch.getInstructionCount();
+		out.writeByte(KEYFRAME);
+		VarInt.writeUnsigned(out, keyframeCount);
+		ExecutionRecorder.writeState(out, arch);
+
+		registers = arch.saveRegisters();
+		status = arch.tGetStatusMem().getDataList().clone();
+		memory = arch.tGetMemory().getDataList().clone();
+		lastAddress = 0;
+		nextKeyframe = keyframeInterval > 0 ? arch.limitAfter(keyframeInterval) : Long.MAX_VALUE;
+
+		if (index != null) {
+			pcs = new long[TraceIndex.bitmapWords(arch.getMemorySize())];
+			markPC(registers[pcID]);
+		}
+	}
+
+	private void writeIndexEntry() throws IOException {
+		index.writeLong(keyframeCount);
+		index.writeLong(keyframeOffset);
+		for (long w : pcs)
+			index.writeLong(w);
+	}
+
+	private void markPC(int pc) {
+		if (pc >= 0 && pc < arch.getMemorySize())
+			pcs[pc >> 6] |= 1L << pc;
+	}
+
+	/**
+	 * Run until the machine halts or `maxInstructions` more commands are run,
+	 * tracing each one.
+	 *
+	 * @return why the machine halted, or null if it reached the limit
+	 */
+	public HaltReason run(long maxInstructions) throws IOException {
+		long limit = arch.limitAfter(maxInstructions);
+		while (!arch.isHalted() && arch.getInstructionCount() < limit)
+			step();
+		return arch.getHaltReason();
+	}
+
+	private void step() throws IOException {
+		if (arch.getInstructionCount() >= nextKeyframe)
+			writeKeyframe();
+
+		Memory mem = arch.tGetMemory();
+		long stores = mem.getStoreCount();
+		arch.controlUnitCycle();
+		stores = mem.getStoreCount() - stores;
+
+		int[] now = arch.saveRegisters();
+		int[] nowStatus = arch.tGetStatusMem().getDataList();
+		boolean statusChanged = false;
+		for (int i = 0; i < status.length; i++)
+			statusChanged |= nowStatus[i] != status[i];
+
+		int header = now[flagsID] & FLAGS;
+		if (stores > 0)
+			header |= MEMORY;
+		if (statusChanged)
+			header |= STATUS;
+		out.writeByte(header);
+
+		VarInt.writeSigned(out, (long) now[pcID] - registers[pcID]);
+		long mask = 0;
+		for (int i = 0; i < now.length; i++) {
+			if (i != pcID && i != flagsID && now[i] != registers[i])
+				mask |= 1L << i;
+		}
+		VarInt.writeUnsigned(out, mask);
+		for (int i = 0; i < now.length; i++) {
+			if ((mask & (1L << i)) != 0)
+				VarInt.writeSigned(out, (long) now[i] - registers[i]);
+		}
+		registers = now;
+		if (pcs != null)
+			markPC(now[pcID]);
+
+		if (stores == 1) {
+			// commands store at most one word, so this is the usual case
+			VarInt.writeUnsigned(out, 1);
+			writeStore(mem.getLastStoreAddress());
+		} else if (stores > 1) {
+			int[] data = mem.getDataList();
+			int changed = 0;
+			for (int i = 0; i < data.length; i++) {
+				if (data[i] != memory[i])
+					changed++;
+			}
+			VarInt.writeUnsigned(out, changed);
+			for (int i = 0; i < data.length; i++) {
+				if (data[i] != memory[i])
+					writeStore(i);
+			}
+		}
+
+		if (statusChanged) {
+			for (int i = 0; i < status.length; i++) {
+				VarInt.writeSigned(out, nowStatus[i]);
+				status[i] = nowStatus[i];
+			}
+		}
+	}
+
+	private void writeStore(int address) throws IOException {
+		int value = arch.tGetMemory().getDataList()[address];
+		VarInt.writeSigned(out, (long) address - lastAddress);
+		VarInt.writeSigned(out, (long) value - memory[address]);
+		memory[address] = value;
+		lastAddress = address;
+	}
+
+	/**
+	 * End the trace with the halt reason and the final state hash, and write
+	 * the last entry of the index.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		out.writeByte(END);
+		HaltReason reason = arch.getHaltReason();
+		out.writeByte(reason == null ? 0 : reason.ordinal() + 1);
+		out.writeLong(arch.stateHash());
+		out.close();
+
+		if (index != null) {
+			writeIndexEntry();
+			index.close();
+		}
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
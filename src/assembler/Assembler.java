@@ -6,41 +6,170 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import components.Register;
 import architecture.Architecture;
 import architecture.Architecture.CommandID;
+import architecture.DebugSymbols;
+import architecture.ExecutionProfile;
+import architecture.LabelMap;
 
 public class Assembler {
+	/**
+	 * Version of the generated code. Bump it whenever a change in the
+	 * assembler changes its output, so stale cache entries are not reused.
+	 */
+	public static final String VERSION = "1";
+
+	/** Words of free memory left to the stack when inlining. */
+	private static final int INLINE_STACK_RESERVE = 16;
+
+	/**
+	 * Default for setInlineThreshold(): any call the profile saw run is worth
+	 * inlining while it fits the limits.
+	 */
+	public static final int DEFAULT_INLINE_THRESHOLD = 1;
+
 	private ArrayList<String> lines;
 	private ArrayList<String> objProgram;
+	private ArrayList<Integer> objLines;
 	private ArrayList<String> execProgram;
 	private ArrayList<String> labelNames;
 	private ArrayList<Integer> labelAddresses;
 	private ArrayList<String> macroNames;
 	private ArrayList<String> macroValues;
 	private ArrayList<String> variables;
+	private ArrayList<Integer> variableLines;
+	private ArrayList<String> loopBoundLabels;
+	private ArrayList<Integer> loopBounds;
 	private Architecture arch;
+	private AssemblyCache cache;
+	private String cacheKey;
+	private boolean cacheHit;
+	private boolean relocatable;
+	private boolean debugSymbols;
+	private int prefixAt = -1;
+	private boolean peephole;
+	private boolean controlFlowOptimization;
+	private ExecutionProfile profile;
+	private int inlineThreshold = DEFAULT_INLINE_THRESHOLD;
+	private int inlineMaxBodyWords = 12;
+	private int inlineMaxGrowthWords = 64;
+	private OptimizationReport optimizationReport;
 
 	public Assembler() {
 		lines = new ArrayList<>();
 		labelNames = new ArrayList<>();
 		labelAddresses = new ArrayList<>();
 		variables = new ArrayList<>();
+		variableLines = new ArrayList<>();
+		loopBoundLabels = new ArrayList<>();
+		loopBounds = new ArrayList<>();
 		objProgram = new ArrayList<>();
+		objLines = new ArrayList<>();
 		execProgram = new ArrayList<>();
 		macroNames = new ArrayList<>();
 		macroValues = new ArrayList<>();
 		arch = new Architecture();
+		optimizationReport = new OptimizationReport();
 	}
 
 	public ArrayList<String> getObjProgram() {
 		return objProgram;
 	}
 
+	/**
+	 * Use an on-disk cache of executables. With a cache set, parseAll() looks
+	 * the source up first, and on a hit both parsing and building are skipped.
+	 */
+	public void setCache(AssemblyCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Assemble a module into a relocatable object (see makeObject()) instead
+	 * of a whole program. Must be called before parseAll(), since modules
+	 * don't get the register initialization prefix: the linker adds it.
+	 */
+	public void setRelocatable(boolean relocatable) {
+		this.relocatable = relocatable;
+	}
+
+	/**
+	 * Write the debug symbols of the executable (see DebugSymbols) next to it
+	 * in makeExecutable(). Must be called before parseAll(), as the cache
+	 * is skipped to get them.
+	 */
+	public void setDebugSymbols(boolean debugSymbols) {
+		this.debugSymbols = debugSymbols;
+	}
+
+	/**
+	 * Run the peephole optimizer (see the Peephole class) over the object
+	 * program before building the executable. Must be called before
+	 * parseAll(), as it changes the cache key.
+	 */
+	public void setPeephole(boolean peephole) {
+		this.peephole = peephole;
+	}
+
+	/**
+	 * Run the control flow optimizer (see the ControlFlowOptimizer class) over
+	 * the object program before building the executable: jump threading and
+	 * unreachable code elimination. Must be called before parseAll(), as it
+	 * changes the cache key.
+	 */
+	public void setControlFlowOptimization(boolean controlFlowOptimization) {
+		this.controlFlowOptimization = controlFlowOptimization;
+	}
+
+	/**
+	 * Run the profile-guided passes with the given execution profile (null to
+	 * disable them): hot calls to small leaf subroutines are inlined (see the
+	 * Inliner class) and the basic blocks are reordered so the hot paths fall
+	 * through (see the BlockLayout class). The profile must come from
+	 * running the executable built without any optimization. Must be called
+	 * before parseAll(), as it changes the cache key.
+	 */
+	public void setProfile(ExecutionProfile profile) {
+		this.profile = profile;
+	}
+
+	/**
+	 * Set the code size limits for inlining: the maximum size of an inlined
+	 * subroutine body and the maximum growth of the whole program, in words.
+	 * The program never grows into the space needed by its variables and a
+	 * minimal stack, whatever the limits.
+	 */
+	public void setInlineLimits(int maxBodyWords, int maxGrowthWords) {
+		this.inlineMaxBodyWords = maxBodyWords;
+		this.inlineMaxGrowthWords = maxGrowthWords;
+	}
+
+	/**
+	 * Set how many times the profile must have seen a call run for it to be
+	 * inlined.
+	 */
+	public void setInlineThreshold(int minCount) {
+		if (minCount < 1)
+			throw new IllegalArgumentException("the inlining threshold must be positive");
+		this.inlineThreshold = minCount;
+	}
+
+	/**
+	 * Get what the optimization passes did to the program. Nothing is reported
+	 * when the executable came from the cache.
+	 */
+	public OptimizationReport getOptimizationReport() {
+		return optimizationReport;
+	}
+
 	/**
 	 * These methods getters and set below are used only for TDD purposes
 	 *
@@ -62,6 +191,10 @@ public class Assembler {
 		return execProgram;
 	}
 
+	protected boolean wasCacheHit() {
+		return cacheHit;
+	}
+
 	protected void setLines(ArrayList<String> lines) {
 		this.lines = lines;
 	}
@@ -104,6 +237,19 @@ public class Assembler {
 	private void addPrefix(int at) {
 		lines.add(at, "move $stackbottom %stktop");
 		lines.add(at + 1, "move $stackbottom %stkbot");
+		prefixAt = at;
+	}
+
+	/**
+	 * Get the line of the source file the line at `index` came from, or 0
+	 * for the prefix.
+	 */
+	private int sourceLine(int index) {
+		if (prefixAt < 0 || index < prefixAt)
+			return index + 1;
+		if (index < prefixAt + 2)
+			return 0;
+		return index - 1;
 	}
 
 	/**
@@ -112,57 +258,106 @@ public class Assembler {
 	 * @param lines
 	 */
 	public void parseAll() throws ParseException {
+		AssemblerEvents.Phase event = AssemblerEvents.begin("parseAll");
+		parseLines();
+		AssemblerEvents.commit(event, cacheHit ? execProgram.size() : objProgram.size());
+	}
+
+	private void parseLines() throws ParseException {
 		int i = 0;
+		Integer loopBound = null;
+
+		if (cache != null && !relocatable && !debugSymbols) {
+			cacheKey = AssemblyCache.makeKey(lines, versionWithOptions(), arch.getMemorySize());
+			String[] cached = cache.get(cacheKey);
+			if (cached != null) {
+				cacheHit = true;
+				execProgram = new ArrayList<>();
+				for (String s : cached)
+					execProgram.add(s);
+				return;
+			}
+		}
 
 		// parse variable declarations first
 		while (i < lines.size()) {
 			String currentLine = lines.get(i).trim();
 			String varName;
+			Integer bound;
 
-			if (Parser.isSkippableLine(currentLine)) {
+			if ((bound = Parser.parseLoopBound(currentLine)) != null) {
+				// annotation for the next label
+				loopBound = bound;
+				i++;
+			} else if (Parser.isSkippableLine(currentLine)) {
 				// skip empty line
 				i++;
 			} else if ((varName = Parser.parseVariableDecl(currentLine)) != null) {
 				// this line is a variable declaration
 				variables.add(varName);
+				variableLines.add(sourceLine(i));
 				i++;
 			} else {
 				break;
 			}
 		}
 
-		addPrefix(i);
+		if (!relocatable)
+			addPrefix(i);
 
 		// parse the rest
 		while (i < lines.size()) {
 			String currentLine = lines.get(i).trim();
 			String labelName;
 			Command command;
+			Integer bound;
 
-			if (Parser.isSkippableLine(currentLine)) {
+			if ((bound = Parser.parseLoopBound(currentLine)) != null) {
+				// annotation for the next label
+				loopBound = bound;
+				i++;
+			} else if (Parser.isSkippableLine(currentLine)) {
 				// skip empty line
 				i++;
 			} else if ((labelName = Parser.parseLabelDecl(currentLine)) != null) {
 				// this line is a label declaration
 				labelNames.add(labelName);
 				labelAddresses.add(objProgram.size());
+				if (loopBound != null) {
+					loopBoundLabels.add(labelName);
+					loopBounds.add(loopBound);
+					loopBound = null;
+				}
 				i++;
+			} else if (loopBound != null) {
+				throw new ParseException("loop bound annotation not followed by a label at line " + (i + 1));
 			} else if ((command = Parser.parseCommand(currentLine.split(" "))) != null) {
 				// this line is a command
 				objProgram.add(Integer.toString(command.id.toInt()));
+				objLines.add(sourceLine(i));
 				for (String arg : command.args) {
-					if (!arg.isEmpty())
+					if (!arg.isEmpty()) {
 						objProgram.add(arg);
+						objLines.add(sourceLine(i));
+					}
 				}
 				i++;
 			} else {
 				throw new ParseException("could not parse line " + (i + 1) + ": " + currentLine);
 			}
 		}
+
+		if (loopBound != null)
+			throw new ParseException("loop bound annotation not followed by a label at the end of the file");
 	}
 
 	public void buildExecutable() {
+		// the executable came straight from the cache
+		if (cacheHit)
+			return;
+
 		checkProperDeclaration();
+		optimize();
 
 		// allocate memory space to store program and variables
 		execProgram = new ArrayList<>();
@@ -177,11 +372,71 @@ public class Assembler {
 
 		replaceMacros();
 		replaceAllVariables();
+		AssemblerEvents.Phase event = AssemblerEvents.begin("replaceLabels");
 		replaceLabels();
+		AssemblerEvents.commit(event, execProgram.size());
+
+		event = AssemblerEvents.begin("replaceRegisters");
 		replaceRegisters();
+		AssemblerEvents.commit(event, execProgram.size());
 
 		// add halt instruction
 		execProgram.add(Integer.toString(-1));
+
+		// no key when the cache was skipped (see parseLines())
+		if (cache != null && cacheKey != null)
+			cache.put(cacheKey, execProgram);
+	}
+
+	/**
+	 * Run the enabled optimization passes over the object program.
+	 */
+	protected void optimize() {
+		if (!peephole && !controlFlowOptimization && profile == null)
+			return;
+
+		ParsedProgram program = ParsedProgram.decode(objProgram, labelNames, labelAddresses);
+		ControlFlowOptimizer cfo = new ControlFlowOptimizer(program, optimizationReport, relocatable);
+
+		// the profile refers to the program as parsed, so these come first (and
+		// it can't refer to a relocatable module, which has no address yet)
+		if (profile != null && !relocatable) {
+			int freeWords = arch.getMemorySize() - variables.size() - objProgram.size() - 1;
+			int maxGrowth = Math.min(inlineMaxGrowthWords, freeWords - INLINE_STACK_RESERVE);
+			new Inliner(program, optimizationReport, profile, inlineThreshold, inlineMaxBodyWords, maxGrowth).run();
+			new BlockLayout(program, optimizationReport, profile).run();
+		}
+
+		if (controlFlowOptimization)
+			cfo.run();
+
+		if (peephole) {
+			int wordsSaved = optimizationReport.getWordsSaved();
+			new Peephole(program, optimizationReport).run();
+
+			// the peephole pass may have left more jumps to thread
+			if (controlFlowOptimization && optimizationReport.getWordsSaved() != wordsSaved)
+				cfo.run();
+		}
+
+		program.encode(objProgram, labelNames, labelAddresses);
+		objLines = program.encodeLines(objLines);
+	}
+
+	/**
+	 * Get the assembler version, plus the enabled options that change its
+	 * output.
+	 */
+	private String versionWithOptions() {
+		String ret = VERSION;
+		if (peephole)
+			ret += "+peephole";
+		if (controlFlowOptimization)
+			ret += "+cfo";
+		if (profile != null)
+			ret += String.format("+inline:%d:%d:%d+layout:%s", inlineThreshold, inlineMaxBodyWords, inlineMaxGrowthWords,
+					profile.fingerprint());
+		return ret;
 	}
 
 	/**
@@ -193,6 +448,47 @@ public class Assembler {
 	public void makeExecutable(String filename) throws IOException {
 		buildExecutable();
 		saveExecFile(filename);
+		if (debugSymbols) {
+			int[] words = new int[execProgram.size()];
+			for (int i = 0; i < words.length; i++)
+				words[i] = Integer.parseInt(execProgram.get(i));
+			DebugSymbols.Writer symbols = makeDebugSymbols();
+			symbols.setExecutable(words);
+			symbols.write(filename + ".dsym");
+		} else {
+			// the symbols of an earlier build with -g don't describe this one
+			Files.deleteIfExists(Paths.get(filename + ".dsym"));
+		}
+	}
+
+	/**
+	 * Collect the debug symbols of the executable, once it's built.
+	 */
+	public DebugSymbols.Writer makeDebugSymbols() {
+		if (cacheHit)
+			throw new RuntimeException("the executable came from the cache, with no symbols");
+
+		DebugSymbols.Writer symbols = new DebugSymbols.Writer(arch.getMemorySize());
+		LabelMap labels = getLabelMap();
+		for (int i = 0; i < labelNames.size(); i++)
+			symbols.addLabel(labelNames.get(i), labelAddresses.get(i));
+
+		int address = 0;
+		while (address < objProgram.size()) {
+			CommandID id = CommandID.fromInt(Integer.parseInt(objProgram.get(address)));
+			int end = Math.min(address + id.getSize(), objProgram.size());
+			symbols.addRange(address, end, objLines.get(address), labels.getEnclosingLabel(address), null);
+			address = end;
+		}
+		// the halt added at the end
+		symbols.addRange(address, address + 1, 0, labels.getEnclosingLabel(address), null);
+
+		// variables are stored from the end of the memory backwards
+		for (int i = variables.size() - 1; i >= 0; i--) {
+			int position = arch.getMemorySize() - 1 - i;
+			symbols.addRange(position, position + 1, variableLines.get(i), null, variables.get(i));
+		}
+		return symbols;
 	}
 
 	/**
@@ -206,6 +502,161 @@ public class Assembler {
 		return ret;
 	}
 
+	/**
+	 * Make the executable as an image of memory words, ready for
+	 * Architecture.loadImage().
+	 *
+	 * Unlike makeExecutableLines(), the words are never formatted as strings:
+	 * every symbol of the object program is resolved with a single lookup.
+	 */
+	public int[] makeExecutableImage() {
+		if (cacheHit) {
+			int[] image = new int[execProgram.size()];
+			for (int i = 0; i < image.length; i++)
+				image[i] = Integer.parseInt(execProgram.get(i));
+			return image;
+		}
+
+		checkProperDeclaration();
+		optimize();
+
+		// same precedence as the replace*() passes: macros, then variables,
+		// then labels
+		HashMap<String, Integer> symbols = new HashMap<>();
+		for (int i = 0; i < labelNames.size(); i++)
+			symbols.put("&" + labelNames.get(i), labelAddresses.get(i));
+		int position = arch.getMemorySize() - 1;
+		for (String varName : variables)
+			symbols.put("&" + varName, position--);
+		for (int i = 0; i < macroNames.size(); i++)
+			symbols.put("$" + macroNames.get(i), Integer.parseInt(macroValues.get(i)));
+		symbols.put("$stackbottom", arch.getMemorySize() - variables.size());
+
+		int[] image = new int[objProgram.size() + 1];
+		for (int i = 0; i < objProgram.size(); i++) {
+			String word = objProgram.get(i);
+			Integer value = symbols.get(word);
+			if (value != null) {
+				image[i] = value;
+			} else if (word.startsWith("%")) {
+				int regID = arch.getRegisterID(word.substring(1));
+				if (regID < 0)
+					throw new RuntimeException("could not find register with name " + word.substring(1));
+				image[i] = regID;
+			} else {
+				image[i] = Integer.parseInt(word);
+			}
+		}
+
+		// halt instruction
+		image[objProgram.size()] = -1;
+
+		if (cache != null && cacheKey != null) {
+			ArrayList<String> lines = new ArrayList<>();
+			for (int word : image)
+				lines.add(Integer.toString(word));
+			cache.put(cacheKey, lines);
+		}
+
+		return image;
+	}
+
+	/**
+	 * Get the program as it would be built into an executable (optimizations
+	 * included), for analysis tools.
+	 */
+	ParsedProgram makeParsedProgram() {
+		checkProperDeclaration();
+		optimize();
+		return ParsedProgram.decode(objProgram, labelNames, labelAddresses);
+	}
+
+	/**
+	 * Get the bound given with a `; @loopbound N` annotation right before
+	 * `label`, or -1 if there's none.
+	 */
+	public int getLoopBound(String label) {
+		int i = loopBoundLabels.indexOf(label);
+		return i < 0 ? -1 : loopBounds.get(i);
+	}
+
+	/**
+	 * Get the labels of the program by address, to name the addresses of
+	 * the executable once it's built (a cached executable has no labels).
+	 */
+	public LabelMap getLabelMap() {
+		return new LabelMap(labelNames, labelAddresses);
+	}
+
+	/**
+	 * Create a relocatable object module from the object program.
+	 *
+	 * Labels become exported symbols, variables stay private to the module, and
+	 * references to labels that are not declared in this module become imports,
+	 * to be resolved by the linker.
+	 *
+	 * @param name the module name
+	 */
+	public ObjectFile makeObject(String name) {
+		if (!relocatable)
+			throw new RuntimeException("the assembler was not set up to make relocatable objects");
+
+		optimize();
+		ObjectFile obj = new ObjectFile(name);
+
+		for (String v : variables)
+			obj.getVariables().add(v);
+
+		for (int i = 0; i < labelNames.size(); i++) {
+			obj.getExportNames().add(labelNames.get(i));
+			obj.getExportAddresses().add(labelAddresses.get(i));
+		}
+
+		for (int offset = 0; offset < objProgram.size(); offset++) {
+			String word = objProgram.get(offset);
+			int value = 0;
+
+			if (word.startsWith("&")) {
+				String symbol = word.substring(1);
+				int labelIndex = labelNames.indexOf(symbol);
+				int varIndex = variables.indexOf(symbol);
+
+				if (labelIndex >= 0) {
+					value = labelAddresses.get(labelIndex);
+					obj.getRelocations().add(new ObjectFile.Relocation(offset, ObjectFile.RelocKind.CODE, symbol));
+				} else if (varIndex >= 0) {
+					value = varIndex;
+					obj.getRelocations().add(new ObjectFile.Relocation(offset, ObjectFile.RelocKind.DATA, symbol));
+				} else {
+					obj.getRelocations().add(new ObjectFile.Relocation(offset, ObjectFile.RelocKind.EXTERN, symbol));
+				}
+			} else if (word.startsWith("$")) {
+				obj.getRelocations().add(new ObjectFile.Relocation(offset, ObjectFile.RelocKind.MACRO, word.substring(1)));
+			} else if (word.startsWith("%")) {
+				String regName = word.substring(1);
+				value = arch.getRegisterID(regName);
+				if (value < 0)
+					throw new RuntimeException("could not find register with name " + regName);
+			} else {
+				value = Integer.parseInt(word);
+			}
+
+			obj.getCode().add(value);
+		}
+
+		return obj;
+	}
+
+	/**
+	 * Create a relocatable object module and save it into `filename.dof`.
+	 *
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void makeObjectFile(String filename) throws IOException {
+		makeObject(new File(filename).getName()).write(filename);
+	}
+
 	/**
 	 * Replace all the register names in the executable program with its
 	 * corresponding IDs.
@@ -331,6 +782,7 @@ public class Assembler {
 		static private Pattern MACRO_PATT = Pattern.compile("^\\s*\\$([a-zA-Z][a-zA-Z0-9]*)\\s*$");
 		static private Pattern NUMBER_PATT = Pattern.compile("^[-+]?[0-9]+$");
 		static private Pattern REG_PATT = Pattern.compile("^%[a-zA-Z0-9]+$");
+		static private Pattern LOOP_BOUND_PATT = Pattern.compile("^;\\s*@loopbound\\s+([0-9]+)\\s*$");
 
 		/**
 		 * Attempt to parse a variable declaration.
@@ -368,6 +820,14 @@ public class Assembler {
 			return m.find() ? m.group(1) : null;
 		}
 
+		/**
+		 * Parse a `; @loopbound N` annotation, returning N.
+		 */
+		static protected Integer parseLoopBound(String s) {
+			Matcher m = LOOP_BOUND_PATT.matcher(s);
+			return m.find() ? Integer.valueOf(m.group(1)) : null;
+		}
+
 		static protected boolean isSkippableLine(String line) {
 			return line.length() == 0 || line.charAt(0) == ';';
 		}
@@ -547,16 +1007,74 @@ public class Assembler {
 		return sb.toString();
 	}
 
+	/**
+	 * Parse a count given as an option, at least 1.
+	 */
+	private static int parsePositive(String arg) {
+		int ret = 0;
+		try {
+			ret = Integer.parseInt(arg);
+		} catch (NumberFormatException ex) {
+			usage();
+		}
+		if (ret < 1)
+			usage();
+		return ret;
+	}
+
+	private static void usage() {
+		System.err.println("Usage: assembler [--cache <DIR>] [-c] [-O] [-g] [--profile <PROFILE> [--inline-threshold <N>]] <INPUT>");
+		System.err.println("INPUT must be the name of a .dsf file, without the extension");
+		System.err.println("With -c, a relocatable object (.dof) is made instead of an executable (.dxf)");
+		System.err.println("With -O, the program is optimized");
+		System.err.println("With -g, debug symbols are written into INPUT.dsym, for the tools of the architecture");
+		System.err.println("With --profile, PROFILE.dpf (made by `architecture --profile`) guides the optimization");
+		System.err.println("With --inline-threshold, only calls the profile saw run at least N times are inlined (default "
+				+ DEFAULT_INLINE_THRESHOLD + ")");
+		System.exit(2);
+	}
+
 	public static void main(String[] args) throws IOException {
-		if (args.length != 1) {
-			System.err.println("Usage: assembler <INPUT>");
-			System.err.println("INPUT must be the name of a .dsf file, without the extension");
-			System.exit(2);
+		String filename = null;
+		String cacheDir = null;
+		boolean objectOnly = false;
+		boolean optimize = false;
+		boolean debug = false;
+		String profileName = null;
+		int inlineThreshold = DEFAULT_INLINE_THRESHOLD;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--cache") && i + 1 < args.length)
+				cacheDir = args[++i];
+			else if (args[i].equals("-c"))
+				objectOnly = true;
+			else if (args[i].equals("-O"))
+				optimize = true;
+			else if (args[i].equals("-g"))
+				debug = true;
+			else if (args[i].equals("--profile") && i + 1 < args.length)
+				profileName = args[++i];
+			else if (args[i].equals("--inline-threshold") && i + 1 < args.length)
+				inlineThreshold = parsePositive(args[++i]);
+			else if (filename == null && !args[i].startsWith("-"))
+				filename = args[i];
+			else
+				usage();
 		}
 
-		String filename = args[0];
+		if (filename == null)
+			usage();
 
 		Assembler assembler = new Assembler();
+		if (cacheDir != null)
+			assembler.setCache(new AssemblyCache(new File(cacheDir)));
+		assembler.setRelocatable(objectOnly);
+		assembler.setPeephole(optimize);
+		assembler.setControlFlowOptimization(optimize);
+		assembler.setDebugSymbols(debug);
+		if (profileName != null)
+			assembler.setProfile(ExecutionProfile.read(profileName));
+		assembler.setInlineThreshold(inlineThreshold);
 
 		try {
 			System.err.printf("Reading source assembler file: %s.dsf\n", filename);
@@ -565,8 +1083,15 @@ public class Assembler {
 			System.err.println("Generating the object program");
 			assembler.parseAll();
 
-			System.err.printf("Generating executable: %s.dxf\n", filename);
-			assembler.makeExecutable(filename);
+			if (objectOnly) {
+				System.err.printf("Generating object file: %s.dof\n", filename);
+				assembler.makeObjectFile(filename);
+			} else {
+				System.err.printf("Generating executable: %s.dxf\n", filename);
+				assembler.makeExecutable(filename);
+				if (optimize || profileName != null)
+					System.err.println("Optimization: " + assembler.getOptimizationReport());
+			}
 
 			System.err.println("Assembling finished!");
 		} catch (ParseException ex) {
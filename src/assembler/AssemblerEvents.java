@@ -0,0 +1,50 @@
+package assembler;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder events for the phases of the assembler (see also
+ * architecture.SimulatorEvents).
+ */
+public class AssemblerEvents {
+	private AssemblerEvents() {
+	}
+
+	@Name("dsf.AssemblerPhase")
+	@Label("Assembler Phase")
+	@Category({ "DSF", "Assembler" })
+	@Description("A phase of assembling a program")
+	public static class Phase extends Event {
+		@Label("Phase")
+		String phase;
+
+		@Label("Words")
+		@Description("Size of the program the phase worked on")
+		int words;
+	}
+
+	/**
+	 * Start timing a phase.
+	 *
+	 * @return null if the event isn't recorded
+	 */
+	static Phase begin(String phase) {
+		Phase event = new Phase();
+		if (!event.isEnabled())
+			return null;
+		event.phase = phase;
+		event.begin();
+		return event;
+	}
+
+	static void commit(Phase event, int words) {
+		if (event == null)
+			return;
+		event.words = words;
+		event.commit();
+	}
+}
@@ -0,0 +1,190 @@
+package assembler;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * On-disk cache of assembled executables.
+ *
+ * Entries are keyed by a hash of the source lines, the assembler version and
+ * the target memory size, so a key never has to be invalidated: a different
+ * input simply yields a different key.
+ *
+ * Every entry is written to a temporary file and then atomically renamed into
+ * place, which means several assembler processes can share the same directory
+ * without ever seeing a half-written entry. A hit refreshes the entry's
+ * modification time, and whenever the directory grows past its size limit the
+ * least recently used entries are deleted.
+ */
+public class AssemblyCache {
+	private static final String ENTRY_SUFFIX = ".dxf";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/** Temporary files older than this are leftovers from dead processes. */
+	private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000;
+
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	private File dir;
+	private long maxBytes;
+
+	public AssemblyCache(File dir, long maxBytes) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		dir.mkdirs();
+	}
+
+	public AssemblyCache(File dir) {
+		this(dir, DEFAULT_MAX_BYTES);
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * Compute the cache key of a source program.
+	 *
+	 * @param lines the source lines, exactly as read
+	 * @param version the assembler version (and any option that changes the output)
+	 * @param memorySize the memory size of the target architecture
+	 * @return the key, as a hex string
+	 */
+	public static String makeKey(List<String> lines, String version, int memorySize) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException("SHA-256 not available: " + ex);
+		}
+
+		md.update((version + "\n" + memorySize + "\n").getBytes(StandardCharsets.UTF_8));
+		for (String line : lines) {
+			md.update(line.getBytes(StandardCharsets.UTF_8));
+			md.update((byte) '\n');
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest())
+			sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+
+	/**
+	 * Look up an entry.
+	 *
+	 * @return the executable lines, or null if there is no such entry
+	 */
+	public String[] get(String key) {
+		File file = entryFile(key);
+		ArrayList<String> ret = new ArrayList<>();
+
+		try {
+			BufferedReader br = new BufferedReader(new FileReader(file));
+			while (true) {
+				String line = br.readLine();
+				if (line == null)
+					break;
+				ret.add(line);
+			}
+			br.close();
+		} catch (IOException ex) {
+			// missing, or evicted by another process while we were reading
+			return null;
+		}
+
+		// mark it as recently used (failing here only hurts the LRU order)
+		file.setLastModified(System.currentTimeMillis());
+
+		return ret.toArray(new String[0]);
+	}
+
+	/**
+	 * Store an entry, then evict old entries if the cache became too big.
+	 *
+	 * Failing to write is not an error: the cache is only an optimization.
+	 */
+	public void put(String key, List<String> execLines) {
+		File target = entryFile(key);
+		File temp = null;
+
+		try {
+			temp = File.createTempFile(key + ".", TEMP_SUFFIX, dir);
+
+			BufferedWriter writer = new BufferedWriter(new FileWriter(temp));
+			for (String l : execLines)
+				writer.write(l + "\n");
+			writer.close();
+
+			try {
+				Files.move(temp.toPath(), target.toPath(),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException ex) {
+			if (temp != null)
+				temp.delete();
+			return;
+		}
+
+		evict();
+	}
+
+	/**
+	 * Delete the least recently used entries until the total size of the
+	 * cache is within the limit.
+	 */
+	protected void evict() {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+
+		long now = System.currentTimeMillis();
+		ArrayList<File> entries = new ArrayList<>();
+		long total = 0;
+
+		for (File f : files) {
+			String name = f.getName();
+			if (name.endsWith(ENTRY_SUFFIX)) {
+				entries.add(f);
+				total += f.length();
+			} else if (name.endsWith(TEMP_SUFFIX) && now - f.lastModified() > STALE_TEMP_MILLIS) {
+				f.delete();
+			}
+		}
+
+		if (total <= maxBytes)
+			return;
+
+		File[] sorted = entries.toArray(new File[0]);
+		Arrays.sort(sorted, Comparator.comparingLong(File::lastModified));
+
+		for (File f : sorted) {
+			if (total <= maxBytes)
+				break;
+			long len = f.length();
+			// if another process already removed it, it still stops counting
+			f.delete();
+			total -= len;
+		}
+	}
+
+	private File entryFile(String key) {
+		return new File(dir, key + ENTRY_SUFFIX);
+	}
+}
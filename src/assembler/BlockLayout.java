@@ -0,0 +1,313 @@
+package assembler;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+
+import architecture.Architecture.CommandID;
+import architecture.ExecutionProfile;
+import assembler.ParsedProgram.Instruction;
+
+/**
+ * Profile-guided basic block layout.
+ *
+ * The program is split into basic blocks, and the edges between them are
+ * weighted with the taken/not-taken counts of the profile. Blocks are then
+ * chained greedily, heaviest edge first, so that the hot successor of each
+ * block is laid out right after it and reached by falling through:
+ *   - a `jmp` to the next block is dropped;
+ *   - a `jz`/`jnz` whose target is the next block is flipped into a
+ *     `jnz`/`jz` to its old fall-through block;
+ *   - a block whose fall-through successor is no longer next to it gets a
+ *     `jmp` to it (the other conditional jumps can't be flipped, so their
+ *     fall-through edge is the only one a chain may follow).
+ *
+ * The entry block stays first and the end of the program (the halt) stays
+ * last. Every label still points to the same instruction, so jumps and calls
+ * reach the same code as before; a block that has to be jumped to but has no
+ * label gets a new `__bb<n>` one.
+ */
+class BlockLayout {
+	static final String BRANCH_FLIPPED = "branches flipped";
+	static final String JUMP_REMOVED = "jumps removed by layout";
+	static final String JUMP_ADDED = "jumps added by layout";
+
+	private static class Block {
+		int index;
+		ArrayList<Instruction> instructions = new ArrayList<>();
+
+		// successor reached by falling through (null if it can't), and by jumping
+		Block fallThrough;
+		Block jumpTarget;
+		long fallThroughWeight;
+		long jumpWeight;
+
+		Block chainHead = this;
+		Block next;
+
+		Block(int index) {
+			this.index = index;
+		}
+
+		Instruction last() {
+			return instructions.isEmpty() ? null : instructions.get(instructions.size() - 1);
+		}
+
+		boolean isEnd() {
+			return instructions.isEmpty();
+		}
+	}
+
+	private static class Edge {
+		Block from;
+		Block to;
+		long weight;
+
+		Edge(Block from, Block to, long weight) {
+			this.from = from;
+			this.to = to;
+			this.weight = weight;
+		}
+	}
+
+	private ParsedProgram program;
+	private OptimizationReport report;
+	private ExecutionProfile profile;
+
+	private ArrayList<Block> blocks;
+	private Block end;
+
+	BlockLayout(ParsedProgram program, OptimizationReport report, ExecutionProfile profile) {
+		this.program = program;
+		this.report = report;
+		this.profile = profile;
+	}
+
+	void run() {
+		if (program.instructions.isEmpty())
+			return;
+
+		splitBlocks();
+		linkBlocks();
+		buildChains();
+		emit(orderChains());
+	}
+
+	private static boolean endsBlock(CommandID id) {
+		switch (id) {
+		case JMP: case JN: case JZ: case JNZ: case JEQ: case JGT: case JLW: case RET:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static boolean canFlip(CommandID id) {
+		return id == CommandID.JZ || id == CommandID.JNZ;
+	}
+
+	private void splitBlocks() {
+		blocks = new ArrayList<>();
+		Block current = null;
+		boolean leader = true;
+
+		for (Instruction instr : program.instructions) {
+			if (leader || !instr.labels.isEmpty()) {
+				current = new Block(blocks.size());
+				blocks.add(current);
+			}
+			current.instructions.add(instr);
+			leader = endsBlock(instr.id);
+		}
+
+		// the end of the program, where the halt goes
+		end = new Block(blocks.size());
+		blocks.add(end);
+	}
+
+	private Block blockOfLabel(String label) {
+		int index = program.indexOfLabel(label);
+		if (index < 0)
+			return null;
+		if (index == program.instructions.size())
+			return end;
+
+		Instruction instr = program.instructions.get(index);
+		for (Block b : blocks) {
+			if (!b.isEnd() && b.instructions.get(0) == instr)
+				return b;
+		}
+		return null;
+	}
+
+	private void linkBlocks() {
+		for (Block b : blocks) {
+			if (b.isEnd())
+				continue;
+
+			Instruction last = b.last();
+			long executions = last.origin >= 0 ? profile.getExecutions(last.origin) : 0;
+			long taken = last.origin >= 0 ? profile.getTaken(last.origin) : 0;
+
+			if (last.id != CommandID.JMP && last.id != CommandID.RET) {
+				b.fallThrough = blocks.get(b.index + 1);
+				b.fallThroughWeight = endsBlock(last.id) ? executions - taken : executions;
+			}
+			if (endsBlock(last.id) && last.id != CommandID.RET) {
+				b.jumpTarget = blockOfLabel(last.target());
+				b.jumpWeight = taken;
+			}
+		}
+	}
+
+	/**
+	 * Chain the blocks along their heaviest edges.
+	 */
+	private void buildChains() {
+		Block entry = blocks.get(0);
+
+		ArrayList<Edge> edges = new ArrayList<>();
+		for (Block b : blocks) {
+			if (b.fallThrough != null)
+				edges.add(new Edge(b, b.fallThrough, b.fallThroughWeight));
+			if (b.jumpTarget != null && (b.last().id == CommandID.JMP || canFlip(b.last().id)))
+				edges.add(new Edge(b, b.jumpTarget, b.jumpWeight));
+		}
+		// stable sort: on ties the original order wins
+		edges.sort(Comparator.comparingLong((Edge e) -> e.weight).reversed());
+
+		for (Edge e : edges) {
+			if (e.weight <= 0 || e.from.next != null || e.to == entry)
+				continue;
+			if (e.to.chainHead != e.to || e.from.chainHead == e.to)
+				continue;
+
+			// the entry chain goes first and the end last, so they can't be
+			// joined (the end is reached at most once anyway)
+			if (e.from.chainHead == entry && tail(e.to).isEnd())
+				continue;
+
+			e.from.next = e.to;
+			for (Block b = e.to; b != null; b = b.next)
+				b.chainHead = e.from.chainHead;
+		}
+	}
+
+	private static Block tail(Block b) {
+		while (b.next != null)
+			b = b.next;
+		return b;
+	}
+
+	/**
+	 * Order the chains: the entry chain first, the chain holding the end of
+	 * the program last, and the others hottest first.
+	 */
+	private ArrayList<Block> orderChains() {
+		ArrayList<Block> heads = new ArrayList<>();
+		Block endHead = end.chainHead;
+		for (Block b : blocks) {
+			if (b.chainHead == b && b != blocks.get(0) && b != endHead)
+				heads.add(b);
+		}
+		heads.sort(Comparator.comparingLong((Block b) -> executions(b)).reversed());
+
+		heads.add(0, blocks.get(0));
+		if (endHead != blocks.get(0))
+			heads.add(endHead);
+
+		ArrayList<Block> order = new ArrayList<>();
+		for (Block head : heads) {
+			for (Block b = head; b != null; b = b.next)
+				order.add(b);
+		}
+		return order;
+	}
+
+	private long executions(Block b) {
+		Instruction first = b.instructions.get(0);
+		return first.origin >= 0 ? profile.getExecutions(first.origin) : 0;
+	}
+
+	private void emit(ArrayList<Block> order) {
+		boolean moved = false;
+		for (int i = 0; i < order.size(); i++)
+			moved |= order.get(i) != blocks.get(i);
+		if (!moved)
+			return;
+
+		HashSet<String> labels = new HashSet<>(program.trailingLabels);
+		for (Instruction instr : program.instructions)
+			labels.addAll(instr.labels);
+
+		// fix up the ends of the blocks first, since giving a block a label
+		// must happen before its instructions are copied over
+		boolean[] dropJump = new boolean[blocks.size()];
+		for (int i = 0; i < order.size(); i++) {
+			Block b = order.get(i);
+			if (b.isEnd())
+				break;
+			Block next = order.get(i + 1);
+			Instruction last = b.last();
+
+			if (last.id == CommandID.JMP && b.jumpTarget == next) {
+				dropJump[b.index] = true;
+				report.removed(CommandID.JMP);
+				report.count(JUMP_REMOVED);
+				continue;
+			}
+
+			if (b.fallThrough == null || b.fallThrough == next)
+				continue;
+
+			if (canFlip(last.id) && b.jumpTarget == next) {
+				last.id = last.id == CommandID.JZ ? CommandID.JNZ : CommandID.JZ;
+				last.setTarget(labelOf(b.fallThrough, labels));
+				report.count(BRANCH_FLIPPED);
+				continue;
+			}
+
+			String[] args = new String[] { "&" + labelOf(b.fallThrough, labels) };
+			b.instructions.add(new Instruction(CommandID.JMP, args));
+			report.added(CommandID.JMP);
+			report.count(JUMP_ADDED);
+		}
+
+		ArrayList<Instruction> instructions = new ArrayList<>();
+		for (int i = 0; i < order.size(); i++) {
+			Block b = order.get(i);
+			if (b.isEnd())
+				break;
+
+			instructions.addAll(b.instructions);
+			if (dropJump[b.index]) {
+				// the labels of the jump now point to its target
+				Instruction jump = instructions.remove(instructions.size() - 1);
+				labelsAtStart(order.get(i + 1)).addAll(0, jump.labels);
+			}
+		}
+
+		program.instructions = instructions;
+	}
+
+	private ArrayList<String> labelsAtStart(Block b) {
+		return b.isEnd() ? program.trailingLabels : b.instructions.get(0).labels;
+	}
+
+	/**
+	 * Get a label of a block, giving it a new one if it has none.
+	 */
+	private String labelOf(Block b, HashSet<String> labels) {
+		ArrayList<String> blockLabels = labelsAtStart(b);
+		if (!blockLabels.isEmpty())
+			return blockLabels.get(0);
+
+		int n = b.index;
+		while (labels.contains("__bb" + n))
+			n++;
+		String label = "__bb" + n;
+		labels.add(label);
+		blockLabels.add(label);
+		return label;
+	}
+}
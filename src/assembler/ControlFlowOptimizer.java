@@ -0,0 +1,212 @@
+package assembler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import architecture.Architecture.CommandID;
+import assembler.ParsedProgram.Instruction;
+
+/**
+ * Control flow optimizer, run over the parsed program before the executable
+ * is built.
+ *
+ * It repeats the following until the program stops changing:
+ *   - jump threading: a jump (or call) to a `jmp` is redirected to the final
+ *     target of the chain of unconditional jumps;
+ *   - `jmp x` where x is the very next instruction is removed;
+ *   - unreachable code is removed: everything that can't be reached from the
+ *     start of the program by following fall-throughs, jumps and calls. A
+ *     label read or written as data (`move lbl %reg0`) is kept as an entry
+ *     point too, and if the program writes %pc (an indirect jump, to
+ *     anywhere) nothing is removed;
+ *   - labels that nothing refers to are dropped.
+ *
+ * Since the program is encoded back from the instruction list, removing code
+ * also compacts the address space.
+ *
+ * In a relocatable module any label may be called from another module, so
+ * all labels are kept and count as entry points.
+ */
+class ControlFlowOptimizer {
+	static final String JUMP_THREADED = "jumps threaded";
+	static final String UNREACHABLE = "unreachable instructions removed";
+	static final String UNUSED_LABEL = "unused labels removed";
+
+	private ParsedProgram program;
+	private OptimizationReport report;
+	private boolean relocatable;
+
+	ControlFlowOptimizer(ParsedProgram program, OptimizationReport report, boolean relocatable) {
+		this.program = program;
+		this.report = report;
+		this.relocatable = relocatable;
+	}
+
+	void run() {
+		boolean changed = true;
+		while (changed) {
+			changed = threadJumps();
+			changed |= removeJumpsToNext();
+			changed |= removeUnreachable();
+		}
+
+		if (!relocatable)
+			removeUnusedLabels();
+	}
+
+	private boolean threadJumps() {
+		boolean changed = false;
+
+		for (Instruction instr : program.instructions) {
+			String target = instr.target();
+			if (target == null)
+				continue;
+
+			String finalTarget = followJumps(target);
+			if (!finalTarget.equals(target)) {
+				instr.setTarget(finalTarget);
+				report.count(JUMP_THREADED);
+				changed = true;
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Follow a chain of unconditional jumps, starting at `label`.
+	 *
+	 * @return the label the chain ends at
+	 */
+	private String followJumps(String label) {
+		HashSet<String> seen = new HashSet<>();
+
+		while (seen.add(label)) {
+			int i = program.indexOfLabel(label);
+			if (i < 0 || i >= program.instructions.size())
+				break;
+
+			Instruction instr = program.instructions.get(i);
+			if (instr.id != CommandID.JMP)
+				break;
+
+			label = instr.target();
+		}
+
+		return label;
+	}
+
+	private boolean removeJumpsToNext() {
+		boolean changed = false;
+
+		for (int i = 0; i < program.instructions.size(); i++) {
+			Instruction instr = program.instructions.get(i);
+			if (instr.id == CommandID.JMP && program.indexOfLabel(instr.target()) == i + 1) {
+				report.removed(instr.id);
+				report.count(Peephole.JUMP_TO_NEXT);
+				program.remove(i);
+				i--;
+				changed = true;
+			}
+		}
+
+		return changed;
+	}
+
+	private boolean removeUnreachable() {
+		int n = program.instructions.size();
+		boolean[] reachable = new boolean[n + 1];
+		ArrayDeque<Integer> pending = new ArrayDeque<>();
+
+		pending.add(0);
+		for (int i = 0; i < n; i++) {
+			Instruction instr = program.instructions.get(i);
+			if (relocatable && !instr.labels.isEmpty())
+				pending.add(i);
+			if (Peephole.isControlFlow(instr.id))
+				continue;
+			if (writesPc(instr))
+				return false;
+			for (String arg : instr.args) {
+				if (arg.startsWith("&"))
+					pending.add(program.indexOfLabel(arg.substring(1)));
+			}
+		}
+
+		while (!pending.isEmpty()) {
+			int i = pending.poll();
+			if (i < 0 || reachable[i])
+				continue;
+			reachable[i] = true;
+			if (i == n)
+				continue;
+
+			for (int s : successors(i))
+				pending.add(s);
+		}
+
+		boolean changed = false;
+		for (int i = n - 1; i >= 0; i--) {
+			if (!reachable[i]) {
+				report.removed(program.instructions.get(i).id);
+				report.count(UNREACHABLE);
+				program.remove(i);
+				changed = true;
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Get the indexes of the instructions that may run right after the one at
+	 * `i`. A call is assumed to return. Jumps out of the program (to labels of
+	 * other modules) have no successor here.
+	 */
+	ArrayList<Integer> successors(int i) {
+		Instruction instr = program.instructions.get(i);
+		ArrayList<Integer> ret = new ArrayList<>();
+
+		if (instr.id != CommandID.JMP && instr.id != CommandID.RET)
+			ret.add(i + 1);
+
+		String target = instr.target();
+		if (target != null) {
+			int t = program.indexOfLabel(target);
+			if (t >= 0)
+				ret.add(t);
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Tell whether a command that isn't a jump writes to %pc (the destination
+	 * is always its last argument).
+	 */
+	private static boolean writesPc(Instruction instr) {
+		return instr.args.length > 0 && instr.args[instr.args.length - 1].equalsIgnoreCase("%pc");
+	}
+
+	private void removeUnusedLabels() {
+		HashSet<String> used = new HashSet<>();
+		for (Instruction instr : program.instructions) {
+			String target = instr.target();
+			if (target != null)
+				used.add(target);
+			for (String arg : instr.args) {
+				if (arg.startsWith("&"))
+					used.add(arg.substring(1));
+			}
+		}
+
+		for (int i = 0; i <= program.instructions.size(); i++) {
+			ArrayList<String> labels = program.labelsAt(i);
+			int before = labels.size();
+			labels.retainAll(used);
+			for (int k = labels.size(); k < before; k++)
+				report.count(UNUSED_LABEL);
+		}
+	}
+}
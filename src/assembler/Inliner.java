@@ -0,0 +1,138 @@
+package assembler;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+import architecture.Architecture.CommandID;
+import architecture.ExecutionProfile;
+import assembler.ParsedProgram.Instruction;
+
+/**
+ * Profile-guided inliner of small leaf subroutines.
+ *
+ * A `call` whose profile count reaches the threshold is replaced by a copy of
+ * the subroutine body (without its `ret`) when the subroutine is a leaf: a
+ * straight run of instructions ending in `ret`, with no jumps or calls, that
+ * only touches the general purpose registers. Such a body leaves the same
+ * registers, flags and variables whether it runs inside a call or not.
+ *
+ * This is an adaptation of running exactly like the original: the one word
+ * that differs is the return address the call would have left below the
+ * stack top. The instruction set can't store a constant through %stktop
+ * without a scratch register, and that word is only ever read by the `ret`
+ * of the call, so the inlined code leaves it as it was.
+ *
+ * Call sites are inlined hottest first, while the bodies fit `maxBodyWords`
+ * and the program growth fits `maxGrowthWords`. The original subroutines are
+ * left in place (the control flow optimizer removes the unreachable ones).
+ */
+class Inliner {
+	static final String INLINED = "calls inlined";
+
+	private static final String[] GENERAL_REGISTERS = new String[] { "%reg0", "%reg1", "%reg2", "%reg3" };
+
+	private ParsedProgram program;
+	private OptimizationReport report;
+	private ExecutionProfile profile;
+	private int minCount;
+	private int maxBodyWords;
+	private int maxGrowthWords;
+
+	Inliner(ParsedProgram program, OptimizationReport report, ExecutionProfile profile,
+			int minCount, int maxBodyWords, int maxGrowthWords) {
+		this.program = program;
+		this.report = report;
+		this.profile = profile;
+		this.minCount = minCount;
+		this.maxBodyWords = maxBodyWords;
+		this.maxGrowthWords = maxGrowthWords;
+	}
+
+	void run() {
+		// collect the hot call sites, hottest first
+		ArrayList<Instruction> sites = new ArrayList<>();
+		for (Instruction instr : program.instructions) {
+			if (instr.id == CommandID.CALL && instr.origin >= 0 && profile.getExecutions(instr.origin) >= minCount)
+				sites.add(instr);
+		}
+		sites.sort(Comparator.comparingLong((Instruction instr) -> profile.getExecutions(instr.origin)).reversed());
+
+		int growth = 0;
+		for (Instruction site : sites) {
+			ArrayList<Instruction> body = leafBody(site.target());
+			if (body == null)
+				continue;
+
+			int bodyWords = 0;
+			int bodyCycles = 0;
+			for (Instruction instr : body) {
+				bodyWords += instr.size();
+				bodyCycles += instr.id.getCycles();
+			}
+
+			int siteGrowth = bodyWords - site.size();
+			if (bodyWords > maxBodyWords || growth + siteGrowth > maxGrowthWords)
+				continue;
+
+			int index = program.instructions.indexOf(site);
+			program.instructions.remove(index);
+			for (int k = 0; k < body.size(); k++) {
+				Instruction copy = body.get(k).copy();
+				if (k == 0)
+					copy.labels.addAll(site.labels);
+				program.instructions.add(index + k, copy);
+			}
+
+			// an empty body leaves the labels of the call site without an instruction
+			if (body.isEmpty()) {
+				if (index < program.instructions.size())
+					program.instructions.get(index).labels.addAll(0, site.labels);
+				else
+					program.trailingLabels.addAll(0, site.labels);
+			}
+
+			growth += siteGrowth;
+			report.saved(-siteGrowth, CommandID.CALL.getCycles() + CommandID.RET.getCycles());
+			report.count(INLINED);
+		}
+	}
+
+	/**
+	 * Get the body of the subroutine starting at `label` (without its final
+	 * `ret`), or null if it's not a leaf subroutine that can be inlined.
+	 */
+	private ArrayList<Instruction> leafBody(String label) {
+		int start = program.indexOfLabel(label);
+		if (start < 0)
+			return null;
+
+		ArrayList<Instruction> body = new ArrayList<>();
+		for (int i = start; i < program.instructions.size(); i++) {
+			Instruction instr = program.instructions.get(i);
+			if (instr.id == CommandID.RET)
+				return body;
+			if (Peephole.isControlFlow(instr.id) || !usesOnlyGeneralRegisters(instr))
+				return null;
+			body.add(instr);
+		}
+
+		// fell off the end of the program without a ret
+		return null;
+	}
+
+	private static boolean usesOnlyGeneralRegisters(Instruction instr) {
+		for (String arg : instr.args) {
+			if (!arg.startsWith("%"))
+				continue;
+
+			boolean general = false;
+			for (String r : GENERAL_REGISTERS) {
+				if (r.equalsIgnoreCase(arg))
+					general = true;
+			}
+			if (!general)
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,203 @@
+package assembler;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import architecture.Architecture;
+import architecture.Architecture.CommandID;
+import assembler.ObjectFile.Relocation;
+
+/**
+ * Links relocatable object modules into an executable.
+ *
+ * Memory layout of the result, which matches what the assembler produces for
+ * a single source file:
+ *
+ *   - the register initialization prefix (stack pointers);
+ *   - the code of the first module (the entry module), followed by the halt
+ *     instruction, so the program ends when it falls off its entry module;
+ *   - the code of the remaining modules, in the order they were added;
+ *   - the variables of all modules, from the end of the memory down, also in
+ *     the order the modules were added.
+ */
+public class Linker {
+	private static final int PREFIX_SIZE = 6;
+
+	private ArrayList<ObjectFile> modules;
+	private Architecture arch;
+
+	public Linker() {
+		modules = new ArrayList<>();
+		arch = new Architecture();
+	}
+
+	public void add(ObjectFile module) {
+		modules.add(module);
+	}
+
+	/**
+	 * Link all the added modules, returning the executable lines.
+	 */
+	public String[] link() throws LinkException {
+		int[] image = linkImage();
+		String[] ret = new String[image.length];
+		for (int i = 0; i < image.length; i++)
+			ret[i] = Integer.toString(image[i]);
+		return ret;
+	}
+
+	/**
+	 * Link all the added modules into `filename.dxf`.
+	 *
+	 * @param filename
+	 * @throws IOException
+	 * @throws LinkException
+	 */
+	public void link(String filename) throws IOException, LinkException {
+		String[] exec = link();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(new File(filename + ".dxf")));
+		for (String l : exec)
+			writer.write(l + "\n");
+		writer.close();
+	}
+
+	private int[] linkImage() throws LinkException {
+		if (modules.isEmpty())
+			throw new LinkException("no modules to link");
+
+		int memorySize = arch.getMemorySize();
+
+		// lay out the code
+		int[] bases = new int[modules.size()];
+		int size = PREFIX_SIZE;
+		for (int m = 0; m < modules.size(); m++) {
+			bases[m] = size;
+			size += modules.get(m).getCode().size();
+			if (m == 0)
+				size++; // halt instruction
+		}
+
+		// lay out the data
+		int[] dataBases = new int[modules.size()];
+		int position = memorySize - 1;
+		for (int m = 0; m < modules.size(); m++) {
+			dataBases[m] = position;
+			position -= modules.get(m).getVariables().size();
+		}
+		int stackBottom = position + 1;
+
+		if (size > stackBottom)
+			throw new LinkException(String.format(
+				"program does not fit in memory (%d words of code, %d words of data, %d available)",
+				size, memorySize - stackBottom, memorySize));
+
+		// collect the exported symbols
+		HashMap<String, Integer> symbols = new HashMap<>();
+		HashMap<String, String> definedBy = new HashMap<>();
+		for (int m = 0; m < modules.size(); m++) {
+			ObjectFile module = modules.get(m);
+			for (int i = 0; i < module.getExportNames().size(); i++) {
+				String name = module.getExportNames().get(i);
+				if (symbols.containsKey(name))
+					throw new LinkException(String.format(
+						"symbol '%s' defined by both %s and %s", name, definedBy.get(name), module.getName()));
+				symbols.put(name, bases[m] + module.getExportAddresses().get(i));
+				definedBy.put(name, module.getName());
+			}
+		}
+
+		// copy the code over, resolving the relocations
+		int[] image = new int[size];
+		int[] prefix = makePrefix(stackBottom);
+		for (int i = 0; i < PREFIX_SIZE; i++)
+			image[i] = prefix[i];
+
+		for (int m = 0; m < modules.size(); m++) {
+			ObjectFile module = modules.get(m);
+			ArrayList<Integer> code = module.getCode();
+			for (int i = 0; i < code.size(); i++)
+				image[bases[m] + i] = code.get(i);
+
+			for (Relocation r : module.getRelocations()) {
+				if (r.offset < 0 || r.offset >= code.size())
+					throw new LinkException(String.format("%s: relocation out of range: %s", module.getName(), r));
+
+				int at = bases[m] + r.offset;
+				switch (r.kind) {
+				case CODE:
+					image[at] += bases[m];
+					break;
+				case DATA:
+					image[at] = dataBases[m] - image[at];
+					break;
+				case EXTERN:
+					Integer address = symbols.get(r.symbol);
+					if (address == null)
+						throw new LinkException(String.format("%s: undefined symbol '%s'", module.getName(), r.symbol));
+					image[at] = address;
+					break;
+				case MACRO:
+					if (!r.symbol.equals("stackbottom"))
+						throw new LinkException(String.format("%s: unknown macro '%s'", module.getName(), r.symbol));
+					image[at] = stackBottom;
+					break;
+				}
+			}
+
+			if (m == 0)
+				image[bases[m] + code.size()] = -1;
+		}
+
+		return image;
+	}
+
+	/**
+	 * Make the register initialization prefix, the same one the assembler
+	 * adds to a program (see Assembler.addPrefix()).
+	 */
+	private int[] makePrefix(int stackBottom) {
+		int move = CommandID.MOVE_IMM_REG.toInt();
+		return new int[] {
+			move, stackBottom, arch.getRegisterID("stktop"),
+			move, stackBottom, arch.getRegisterID("stkbot"),
+		};
+	}
+
+	/**
+	 * Error thrown when the modules can't be linked together.
+	 */
+	public static class LinkException extends Exception {
+		public LinkException(String msg) {
+			super(msg);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: linker <OUTPUT> <MODULE>...");
+			System.err.println("OUTPUT must be the name of the .dxf file to create, without the extension");
+			System.err.println("Each MODULE must be the name of a .dof file, without the extension; the first one is the entry module");
+			System.exit(2);
+		}
+
+		Linker linker = new Linker();
+
+		for (int i = 1; i < args.length; i++) {
+			System.err.printf("Reading object file: %s.dof\n", args[i]);
+			linker.add(ObjectFile.read(args[i]));
+		}
+
+		try {
+			System.err.printf("Linking executable: %s.dxf\n", args[0]);
+			linker.link(args[0]);
+			System.err.println("Linking finished!");
+		} catch (LinkException ex) {
+			System.err.println("Error while linking: " + ex.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package assembler;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A relocatable object module (`.dof` file), produced by the assembler from a
+ * single `.dsf` source and consumed by the {@link Linker}.
+ *
+ * The code is stored as if the module was placed at address 0. Every word that
+ * depends on where things end up in memory has a relocation entry:
+ *
+ *   CODE: the word is an address inside this module's code
+ *   DATA: the word is the index of one of this module's variables
+ *   EXTERN: the word is the address of a label exported by another module
+ *   MACRO: the word is the value of a macro only known at link time ($stackbottom)
+ *
+ * Labels are exported; variables are private to the module.
+ *
+ * File format (one item per line):
+ *   module <name>
+ *   code <n>, followed by n lines with one word each
+ *   var <name>
+ *   export <name> <address>
+ *   reloc <offset> <code|data|extern|macro> <symbol>
+ */
+public class ObjectFile {
+	public enum RelocKind {
+		CODE, DATA, EXTERN, MACRO;
+
+		static RelocKind fromString(String s) {
+			for (RelocKind k : values()) {
+				if (k.toString().toLowerCase().equals(s))
+					return k;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * A word of the code that must be patched by the linker.
+	 */
+	public static class Relocation {
+		int offset;
+		RelocKind kind;
+		String symbol;
+
+		public Relocation(int offset, RelocKind kind, String symbol) {
+			this.offset = offset;
+			this.kind = kind;
+			this.symbol = symbol;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Relocation[offset=%d, kind=%s, symbol=%s]", offset, kind, symbol);
+		}
+	}
+
+	private String name;
+	private ArrayList<Integer> code;
+	private ArrayList<String> variables;
+	private ArrayList<String> exportNames;
+	private ArrayList<Integer> exportAddresses;
+	private ArrayList<Relocation> relocations;
+
+	public ObjectFile(String name) {
+		this.name = name;
+		code = new ArrayList<>();
+		variables = new ArrayList<>();
+		exportNames = new ArrayList<>();
+		exportAddresses = new ArrayList<>();
+		relocations = new ArrayList<>();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public ArrayList<Integer> getCode() {
+		return code;
+	}
+
+	public ArrayList<String> getVariables() {
+		return variables;
+	}
+
+	public ArrayList<String> getExportNames() {
+		return exportNames;
+	}
+
+	public ArrayList<Integer> getExportAddresses() {
+		return exportAddresses;
+	}
+
+	public ArrayList<Relocation> getRelocations() {
+		return relocations;
+	}
+
+	/**
+	 * Get the names of the symbols this module needs from other modules.
+	 */
+	public ArrayList<String> getImports() {
+		ArrayList<String> ret = new ArrayList<>();
+		for (Relocation r : relocations) {
+			if (r.kind == RelocKind.EXTERN && !ret.contains(r.symbol))
+				ret.add(r.symbol);
+		}
+		return ret;
+	}
+
+	/**
+	 * Save the module into `filename.dof`.
+	 *
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void write(String filename) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(new File(filename + ".dof")));
+
+		writer.write("module " + name + "\n");
+		writer.write("code " + code.size() + "\n");
+		for (int w : code)
+			writer.write(w + "\n");
+		for (String v : variables)
+			writer.write("var " + v + "\n");
+		for (int i = 0; i < exportNames.size(); i++)
+			writer.write("export " + exportNames.get(i) + " " + exportAddresses.get(i) + "\n");
+		for (Relocation r : relocations)
+			writer.write("reloc " + r.offset + " " + r.kind.toString().toLowerCase() + " " + r.symbol + "\n");
+
+		writer.close();
+	}
+
+	/**
+	 * Load a module from `filename.dof`.
+	 *
+	 * @param filename
+	 * @throws IOException if the file can't be read or is malformed
+	 */
+	public static ObjectFile read(String filename) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(filename + ".dof"));
+		ObjectFile obj = null;
+		int lineNo = 0;
+
+		try {
+			while (true) {
+				String line = br.readLine();
+				lineNo++;
+				if (line == null)
+					break;
+				if (line.isEmpty())
+					continue;
+
+				String[] tokens = line.split(" ");
+
+				if (tokens[0].equals("module") && tokens.length == 2 && obj == null) {
+					obj = new ObjectFile(tokens[1]);
+				} else if (obj == null) {
+					throw new IOException("missing module header");
+				} else if (tokens[0].equals("code") && tokens.length == 2) {
+					int n = Integer.parseInt(tokens[1]);
+					for (int i = 0; i < n; i++) {
+						String w = br.readLine();
+						lineNo++;
+						if (w == null)
+							throw new IOException("unexpected end of file");
+						obj.code.add(Integer.parseInt(w));
+					}
+				} else if (tokens[0].equals("var") && tokens.length == 2) {
+					obj.variables.add(tokens[1]);
+				} else if (tokens[0].equals("export") && tokens.length == 3) {
+					obj.exportNames.add(tokens[1]);
+					obj.exportAddresses.add(Integer.parseInt(tokens[2]));
+				} else if (tokens[0].equals("reloc") && tokens.length == 4) {
+					RelocKind kind = RelocKind.fromString(tokens[2]);
+					if (kind == null)
+						throw new IOException("unknown relocation kind " + tokens[2]);
+					obj.relocations.add(new Relocation(Integer.parseInt(tokens[1]), kind, tokens[3]));
+				} else {
+					throw new IOException("unexpected line: " + line);
+				}
+			}
+		} catch (NumberFormatException | IOException ex) {
+			throw new IOException(String.format("%s.dof:%d: malformed object file: %s", filename, lineNo, ex.getMessage()));
+		} finally {
+			br.close();
+		}
+
+		if (obj == null)
+			throw new IOException(filename + ".dof: empty object file");
+
+		return obj;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ObjectFile[name=%s, code=%d words, variables=%s, exports=%s, imports=%s]",
+			name, code.size(), variables, exportNames, getImports());
+	}
+}
@@ -0,0 +1,67 @@
+package assembler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import architecture.Architecture.CommandID;
+
+/**
+ * Summary of what the optimization passes did to a program.
+ *
+ * The cycle savings are a static estimate: the micro-operations saved each
+ * time the changed code runs once (see CommandID.getCycles()). How much is
+ * saved at runtime depends on how often that code runs.
+ */
+public class OptimizationReport {
+	private int wordsSaved;
+	private int cyclesSaved;
+	private LinkedHashMap<String, Integer> counters;
+
+	public OptimizationReport() {
+		counters = new LinkedHashMap<>();
+	}
+
+	public int getWordsSaved() {
+		return wordsSaved;
+	}
+
+	public int getCyclesSaved() {
+		return cyclesSaved;
+	}
+
+	/**
+	 * Get how many times a given transformation was applied.
+	 */
+	public int getCount(String what) {
+		Integer n = counters.get(what);
+		return n == null ? 0 : n;
+	}
+
+	void count(String what) {
+		counters.put(what, getCount(what) + 1);
+	}
+
+	void removed(CommandID id) {
+		wordsSaved += id.getSize();
+		cyclesSaved += id.getCycles();
+	}
+
+	void added(CommandID id) {
+		wordsSaved -= id.getSize();
+		cyclesSaved -= id.getCycles();
+	}
+
+	void saved(int words, int cycles) {
+		wordsSaved += words;
+		cyclesSaved += cycles;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%d words and an estimated %d cycles saved", wordsSaved, cyclesSaved));
+		for (Map.Entry<String, Integer> e : counters.entrySet())
+			sb.append(String.format("\n  %s: %d", e.getKey(), e.getValue()));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,205 @@
+package assembler;
+
+import java.util.ArrayList;
+
+import architecture.Architecture.CommandID;
+
+/**
+ * A structured view of the object program, used by the optimization passes.
+ *
+ * The assembler keeps the object program as a flat list of words plus the
+ * label addresses. That's convenient for building the executable, but any
+ * pass that moves or removes code would have to fix up every address by
+ * hand. Instead, passes decode the object program into a list of
+ * instructions, each carrying the labels declared right before it, edit the
+ * list, and encode it back, which recomputes all the label addresses.
+ */
+class ParsedProgram {
+	static class Instruction {
+		CommandID id;
+		String[] args;
+
+		// labels declared right before this instruction
+		ArrayList<String> labels;
+
+		// address of the instruction in the object program, as it was first
+		// decoded (-1 for instructions created by a pass)
+		int origin;
+
+		Instruction(CommandID id, String[] args) {
+			this.id = id;
+			this.args = args;
+			this.labels = new ArrayList<>();
+			this.origin = -1;
+		}
+
+		int size() {
+			return id.getSize();
+		}
+
+		/**
+		 * Get the label the instruction jumps to, or null if it's not a jump.
+		 * The target of jeq/jgt/jlw is their last argument.
+		 */
+		String target() {
+			switch (id) {
+			case JMP: case JN: case JZ: case JNZ: case CALL:
+				return args[0].substring(1);
+			case JEQ: case JGT: case JLW:
+				return args[2].substring(1);
+			default:
+				return null;
+			}
+		}
+
+		void setTarget(String label) {
+			if (id == CommandID.JEQ || id == CommandID.JGT || id == CommandID.JLW)
+				args[2] = "&" + label;
+			else
+				args[0] = "&" + label;
+		}
+
+		Instruction copy() {
+			Instruction ret = new Instruction(id, args.clone());
+			ret.origin = origin;
+			return ret;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Instruction[id=%s, args=%s, labels=%s]", id, String.join(" ", args), labels);
+		}
+	}
+
+	ArrayList<Instruction> instructions;
+
+	// labels declared after the last instruction (they point to the halt)
+	ArrayList<String> trailingLabels;
+
+	ParsedProgram() {
+		instructions = new ArrayList<>();
+		trailingLabels = new ArrayList<>();
+	}
+
+	/**
+	 * Decode an object program.
+	 */
+	static ParsedProgram decode(ArrayList<String> objProgram, ArrayList<String> labelNames, ArrayList<Integer> labelAddresses) {
+		ParsedProgram program = new ParsedProgram();
+
+		int address = 0;
+		while (address < objProgram.size()) {
+			CommandID id = CommandID.fromInt(Integer.parseInt(objProgram.get(address)));
+			String[] args = new String[id.getArgCount()];
+			for (int i = 0; i < args.length; i++)
+				args[i] = objProgram.get(address + 1 + i);
+
+			Instruction instr = new Instruction(id, args);
+			instr.origin = address;
+			program.instructions.add(instr);
+			address += instr.size();
+		}
+
+		for (int i = 0; i < labelNames.size(); i++) {
+			int labelAddress = labelAddresses.get(i);
+			Instruction instr = program.instructionAt(labelAddress);
+			if (instr != null)
+				instr.labels.add(labelNames.get(i));
+			else
+				program.trailingLabels.add(labelNames.get(i));
+		}
+
+		return program;
+	}
+
+	/**
+	 * Encode the program back, replacing the contents of the given lists.
+	 */
+	void encode(ArrayList<String> objProgram, ArrayList<String> labelNames, ArrayList<Integer> labelAddresses) {
+		objProgram.clear();
+		labelNames.clear();
+		labelAddresses.clear();
+
+		for (Instruction instr : instructions) {
+			for (String label : instr.labels) {
+				labelNames.add(label);
+				labelAddresses.add(objProgram.size());
+			}
+
+			objProgram.add(Integer.toString(instr.id.toInt()));
+			for (String arg : instr.args)
+				objProgram.add(arg);
+		}
+
+		for (String label : trailingLabels) {
+			labelNames.add(label);
+			labelAddresses.add(objProgram.size());
+		}
+	}
+
+	/**
+	 * Get the source line of each word of the encoded program, given those of
+	 * the program as it was decoded (0 for instructions made by a pass).
+	 */
+	ArrayList<Integer> encodeLines(ArrayList<Integer> decodedLines) {
+		ArrayList<Integer> ret = new ArrayList<>();
+		for (Instruction instr : instructions) {
+			int line = instr.origin >= 0 && instr.origin < decodedLines.size() ? decodedLines.get(instr.origin) : 0;
+			for (int i = 0; i < instr.size(); i++)
+				ret.add(line);
+		}
+		return ret;
+	}
+
+	private Instruction instructionAt(int address) {
+		int a = 0;
+		for (Instruction instr : instructions) {
+			if (a == address)
+				return instr;
+			a += instr.size();
+		}
+		return null;
+	}
+
+	/**
+	 * Get the index of the instruction a label points to. The end of the
+	 * program (instructions.size()) is returned for trailing labels, and -1 if
+	 * there's no such label.
+	 */
+	int indexOfLabel(String label) {
+		for (int i = 0; i < instructions.size(); i++) {
+			if (instructions.get(i).labels.contains(label))
+				return i;
+		}
+		return trailingLabels.contains(label) ? instructions.size() : -1;
+	}
+
+	/**
+	 * Remove an instruction, moving its labels to the one after it.
+	 */
+	void remove(int index) {
+		Instruction removed = instructions.remove(index);
+		if (index < instructions.size())
+			instructions.get(index).labels.addAll(0, removed.labels);
+		else
+			trailingLabels.addAll(0, removed.labels);
+	}
+
+	/**
+	 * Get the labels of the instruction at `index`, or the trailing labels if
+	 * it's the end of the program.
+	 */
+	ArrayList<String> labelsAt(int index) {
+		return index < instructions.size() ? instructions.get(index).labels : trailingLabels;
+	}
+
+	/**
+	 * Get the size of the program, in words.
+	 */
+	int size() {
+		int ret = 0;
+		for (Instruction instr : instructions)
+			ret += instr.size();
+		return ret;
+	}
+}
@@ -0,0 +1,241 @@
+package assembler;
+
+import architecture.Architecture.CommandID;
+import assembler.ParsedProgram.Instruction;
+
+/**
+ * Peephole optimizer, run over the parsed program before the executable is
+ * built.
+ *
+ * Rules:
+ *   - `jmp x` where x is the very next instruction is removed;
+ *   - `move 0 %r` followed by `add %a %r` (or `add <mem> %r`) becomes
+ *     `move %a %r` (or `move <mem> %r`), when nothing reads the flags the add
+ *     would have set;
+ *   - in `move %a %b` followed by `move %b %a`, the second move is removed;
+ *   - a move into a register that is overwritten before being read is removed.
+ *
+ * Every rule only looks at straight-line code: an instruction with a label
+ * might be reached from elsewhere, so it ends the window. Registers and flags
+ * are considered live at any jump, call, return and at the end of the program,
+ * where their final values can be inspected. Only the general purpose
+ * registers are touched.
+ */
+class Peephole {
+	static final String JUMP_TO_NEXT = "jumps to the next instruction removed";
+	static final String MOVE_ADD_FOLDED = "move 0 + add folded into a move";
+	static final String MOVE_BACK = "moves back to the source register removed";
+	static final String DEAD_STORE = "dead register stores removed";
+
+	private static final String[] GENERAL_REGISTERS = new String[] { "%reg0", "%reg1", "%reg2", "%reg3" };
+
+	private ParsedProgram program;
+	private OptimizationReport report;
+
+	Peephole(ParsedProgram program, OptimizationReport report) {
+		this.program = program;
+		this.report = report;
+	}
+
+	/**
+	 * Apply the rules until none of them matches anymore.
+	 */
+	void run() {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < program.instructions.size(); i++) {
+				if (removeJumpToNext(i) || foldMoveAdd(i) || removeMoveBack(i) || removeDeadStore(i)) {
+					changed = true;
+					i--;
+				}
+			}
+		}
+	}
+
+	private Instruction get(int i) {
+		return program.instructions.get(i);
+	}
+
+	private boolean hasNextInBlock(int i) {
+		return i + 1 < program.instructions.size() && get(i + 1).labels.isEmpty();
+	}
+
+	private void remove(int i) {
+		report.removed(get(i).id);
+		program.remove(i);
+	}
+
+	private boolean removeJumpToNext(int i) {
+		Instruction instr = get(i);
+		if (instr.id != CommandID.JMP || program.indexOfLabel(instr.target()) != i + 1)
+			return false;
+
+		remove(i);
+		report.count(JUMP_TO_NEXT);
+		return true;
+	}
+
+	private boolean foldMoveAdd(int i) {
+		Instruction move = get(i);
+		if (move.id != CommandID.MOVE_IMM_REG || !move.args[0].equals("0") || !hasNextInBlock(i))
+			return false;
+
+		String reg = move.args[1];
+		if (!isGeneralRegister(reg))
+			return false;
+		Instruction add = get(i + 1);
+		CommandID folded;
+
+		// a move would read %pc one command earlier than the add
+		if (add.id == CommandID.ADD_REG_REG && sameRegister(add.args[1], reg) && !sameRegister(add.args[0], reg)
+				&& isGeneralRegister(add.args[0]))
+			folded = CommandID.MOVE_REG_REG;
+		else if (add.id == CommandID.ADD_MEM_REG && sameRegister(add.args[1], reg))
+			folded = CommandID.MOVE_MEM_REG;
+		else
+			return false;
+
+		if (flagsLiveAfter(i + 1))
+			return false;
+
+		report.removed(move.id);
+		report.removed(add.id);
+		report.added(folded);
+
+		move.id = folded;
+		move.args = new String[] { add.args[0], reg };
+		program.instructions.remove(i + 1);
+
+		report.count(MOVE_ADD_FOLDED);
+		return true;
+	}
+
+	private boolean removeMoveBack(int i) {
+		Instruction first = get(i);
+		if (first.id != CommandID.MOVE_REG_REG || !hasNextInBlock(i))
+			return false;
+		if (!isGeneralRegister(first.args[0]) || !isGeneralRegister(first.args[1]))
+			return false;
+
+		Instruction second = get(i + 1);
+		if (second.id != CommandID.MOVE_REG_REG
+				|| !sameRegister(second.args[0], first.args[1])
+				|| !sameRegister(second.args[1], first.args[0]))
+			return false;
+
+		remove(i + 1);
+		report.count(MOVE_BACK);
+		return true;
+	}
+
+	private boolean removeDeadStore(int i) {
+		Instruction instr = get(i);
+		String reg = pureRegisterWrite(instr);
+		if (reg == null || !isGeneralRegister(reg))
+			return false;
+
+		for (int j = i + 1; j < program.instructions.size(); j++) {
+			Instruction next = get(j);
+			if (!next.labels.isEmpty() || isControlFlow(next.id) || readsRegister(next, reg))
+				return false;
+
+			String written = pureRegisterWrite(next);
+			if (written != null && sameRegister(written, reg)) {
+				remove(i);
+				report.count(DEAD_STORE);
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Check whether the flags set by the instruction at `i` may be read.
+	 */
+	private boolean flagsLiveAfter(int i) {
+		for (int j = i + 1; j < program.instructions.size(); j++) {
+			Instruction instr = get(j);
+			if (!instr.labels.isEmpty() || readsFlags(instr.id) || isControlFlow(instr.id))
+				return true;
+			if (writesFlags(instr.id))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Get the register a move writes to without reading it first (and without
+	 * any other effect), or null if it's not such a move.
+	 */
+	private static String pureRegisterWrite(Instruction instr) {
+		switch (instr.id) {
+		case MOVE_MEM_REG:
+		case MOVE_IMM_REG:
+			return instr.args[1];
+		case MOVE_REG_REG:
+			return sameRegister(instr.args[0], instr.args[1]) ? null : instr.args[1];
+		default:
+			return null;
+		}
+	}
+
+	private static boolean readsRegister(Instruction instr, String reg) {
+		switch (instr.id) {
+		case MOVE_MEM_REG:
+		case MOVE_IMM_REG:
+			return false;
+		case MOVE_REG_REG:
+			return sameRegister(instr.args[0], reg);
+		default:
+			for (String arg : instr.args) {
+				if (sameRegister(arg, reg))
+					return true;
+			}
+			return false;
+		}
+	}
+
+	private static boolean readsFlags(CommandID id) {
+		return id == CommandID.JN || id == CommandID.JZ || id == CommandID.JNZ;
+	}
+
+	private static boolean writesFlags(CommandID id) {
+		switch (id) {
+		case ADD_REG_REG: case ADD_MEM_REG: case ADD_REG_MEM:
+		case SUB_REG_REG: case SUB_MEM_REG: case SUB_REG_MEM:
+		case INC_REG: case INC_MEM:
+		case JEQ: case JGT: case JLW:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	static boolean isControlFlow(CommandID id) {
+		switch (id) {
+		case JMP: case JN: case JZ: case JNZ:
+		case JEQ: case JGT: case JLW:
+		case CALL: case RET:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static boolean isGeneralRegister(String reg) {
+		for (String r : GENERAL_REGISTERS) {
+			if (sameRegister(r, reg))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Register names are case insensitive (see Architecture.getRegisterID()).
+	 */
+	private static boolean sameRegister(String a, String b) {
+		return a.equalsIgnoreCase(b);
+	}
+}
@@ -1,7 +1,14 @@
 package assembler;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -126,4 +133,65 @@ public class TestAssembler {
 		int[] bytes = new int[] { 9, -8, 1, 9, 5, 1, 9, 10, 1 };
 		compileAndExpectStarts(program, bytes, minimumLength);
 	}
+
+	@Test
+	public void testExecutableImage() throws IOException, ParseException {
+		String[] program = new String[] {
+			"var1",
+			"var2",
+			"move 3 %reg0",
+			"move %reg0 var2",
+			"loop:",
+			"inc var1",
+			"jeq %REG0 %reg1 loop",
+			"call end",
+			"end:",
+		};
+		assertArrayEquals(toInts(assembleCode(program)), parseCode(program).makeExecutableImage());
+
+		for (String path : new String[] { "examples/ex01", "examples/ex02", "examples/ex03-call" }) {
+			Assembler a = new Assembler();
+			a.read(path);
+			a.parseAll();
+			Assembler b = new Assembler();
+			b.read(path);
+			b.parseAll();
+			assertArrayEquals(toInts(a.makeExecutableLines()), b.makeExecutableImage());
+		}
+	}
+
+	@Test
+	public void testPhaseEvents() throws IOException, ParseException {
+		Path file = Files.createTempFile("events", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("dsf.AssemblerPhase");
+			recording.start();
+			assembleCode(new String[] {
+				"var1",
+				"loop:",
+				"inc var1",
+				"jmp loop",
+			});
+			recording.stop();
+			recording.dump(file);
+		}
+
+		ArrayList<String> phases = new ArrayList<>();
+		for (RecordedEvent e : RecordingFile.readAllEvents(file))
+			phases.add(e.getString("phase"));
+		Files.delete(file);
+
+		ArrayList<String> expected = new ArrayList<>();
+		expected.add("parseAll");
+		expected.add("replaceLabels");
+		expected.add("replaceRegisters");
+		assertEquals(expected, phases);
+	}
+
+	private static int[] toInts(String[] lines) {
+		int[] ret = new int[lines.length];
+		for (int i = 0; i < lines.length; i++)
+			ret[i] = Integer.parseInt(lines[i]);
+		return ret;
+	}
 }
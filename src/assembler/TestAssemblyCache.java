@@ -0,0 +1,106 @@
+package assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import assembler.Assembler.ParseException;
+
+public class TestAssemblyCache {
+	static private File makeTempDir() {
+		try {
+			return Files.createTempDirectory("dsfcache").toFile();
+		} catch (IOException ex) {
+			throw new RuntimeException("Failed to create a temporary directory: " + ex);
+		}
+	}
+
+	static private Assembler assembleWith(AssemblyCache cache, String[] codeLines) {
+		try {
+			Assembler assembler = new Assembler();
+			assembler.setCache(cache);
+			assembler.readLines(codeLines);
+			assembler.parseAll();
+			return assembler;
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+	}
+
+	@Test
+	public void testHitAndMiss() {
+		AssemblyCache cache = new AssemblyCache(makeTempDir());
+		String[] program = new String[] {
+			"var1",
+			"move 10 %reg0",
+			"move %reg0 var1",
+		};
+
+		Assembler first = assembleWith(cache, program);
+		String[] expected = first.makeExecutableLines();
+		assertFalse(first.wasCacheHit());
+
+		Assembler second = assembleWith(cache, program);
+		assertTrue(second.wasCacheHit());
+		assertTrue(second.getObjProgram().isEmpty()); // nothing was parsed
+		assertArrayEquals(expected, second.makeExecutableLines());
+
+		Assembler other = assembleWith(cache, new String[] { "move 11 %reg0" });
+		assertFalse(other.wasCacheHit());
+	}
+
+	@Test
+	public void testDebugSymbolsSkipCache() throws ParseException {
+		File dir = makeTempDir();
+		AssemblyCache cache = new AssemblyCache(dir);
+		String[] program = new String[] { "move 10 %reg0" };
+
+		for (int i = 0; i < 2; i++) {
+			Assembler assembler = new Assembler();
+			assembler.setCache(cache);
+			assembler.setDebugSymbols(true);
+			assembler.readLines(program);
+			assembler.parseAll();
+			if (i == 0)
+				assembler.makeExecutableLines();
+			else
+				assembler.makeExecutableImage();
+			assertFalse(assembler.wasCacheHit());
+		}
+		assertEquals(0, dir.list().length);
+	}
+
+	@Test
+	public void testKey() {
+		ArrayList<String> a = new ArrayList<>(Arrays.asList("move 1 %reg0"));
+		ArrayList<String> b = new ArrayList<>(Arrays.asList("move 2 %reg0"));
+
+		assertEquals(AssemblyCache.makeKey(a, "1", 256), AssemblyCache.makeKey(a, "1", 256));
+		assertNotEquals(AssemblyCache.makeKey(a, "1", 256), AssemblyCache.makeKey(b, "1", 256));
+		assertNotEquals(AssemblyCache.makeKey(a, "1", 256), AssemblyCache.makeKey(a, "2", 256));
+		assertNotEquals(AssemblyCache.makeKey(a, "1", 256), AssemblyCache.makeKey(a, "1", 512));
+	}
+
+	@Test
+	public void testEviction() {
+		File dir = makeTempDir();
+		AssemblyCache cache = new AssemblyCache(dir, 60); // each entry takes 50 bytes
+
+		ArrayList<String> entry = new ArrayList<>();
+		for (int i = 0; i < 10; i++)
+			entry.add("1234");
+
+		cache.put("old", entry);
+		new File(dir, "old.dxf").setLastModified(System.currentTimeMillis() - 10000);
+		cache.put("new", entry);
+
+		// both entries together are over the limit, so the oldest one goes
+		assertNull(cache.get("old"));
+		assertNotNull(cache.get("new"));
+	}
+}
@@ -0,0 +1,164 @@
+package assembler;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import architecture.Architecture;
+import architecture.Architecture.CommandID;
+import architecture.ExecutionProfile;
+import assembler.Assembler.ParseException;
+
+public class TestBlockLayout {
+	static private Assembler parseCode(String[] codeLines, ExecutionProfile profile) {
+		try {
+			Assembler assembler = new Assembler();
+			assembler.setProfile(profile);
+			assembler.readLines(codeLines);
+			assembler.parseAll();
+			return assembler;
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+	}
+
+	static private Architecture run(String[] executable, ExecutionProfile profile) {
+		Architecture arch = new Architecture(false);
+		arch.setProfile(profile);
+		arch.readExecLines(executable);
+		arch.controlUnitEexec();
+		return arch;
+	}
+
+	static private ExecutionProfile profile(String[] executable) {
+		ExecutionProfile profile = new ExecutionProfile(new Architecture().getMemorySize());
+		run(executable, profile);
+		return profile;
+	}
+
+	static private int count(String[] executable, CommandID which) {
+		int n = 0;
+		int i = 0;
+		while (i < executable.length) {
+			CommandID id = CommandID.fromInt(Integer.parseInt(executable[i]));
+			if (id == null)
+				break;
+			if (id == which)
+				n++;
+			i += id.getSize();
+		}
+		return n;
+	}
+
+	static private final String[] LOOP_PROGRAM = new String[] {
+		"move 0 %reg0",
+		"move 0 %reg1",
+		"move 10 %reg2",
+		"top:",
+		"inc %reg1",
+		"move %reg1 %reg3",
+		"sub %reg2 %reg3",
+		"jnz body",
+		"jmp out",
+		"body:",
+		"add %reg1 %reg0",
+		"jmp top",
+		"out:",
+	};
+
+	@Test
+	public void testTakenCounts() {
+		String[] exec = parseCode(LOOP_PROGRAM, null).makeExecutableLines();
+		ExecutionProfile profile = profile(exec);
+
+		// prefix (6 words) + 3 moves (3 words each) + inc + move + sub
+		int jnz = 6 + 9 + 2 + 3 + 3;
+		assertEquals(10, profile.getExecutions(jnz));
+		assertEquals(9, profile.getTaken(jnz));
+		assertEquals(1, profile.getNotTaken(jnz));
+		assertEquals(1, profile.getTaken(jnz + 2)); // jmp out
+	}
+
+	@Test
+	public void testHotPathFallsThrough() {
+		String[] plain = parseCode(LOOP_PROGRAM, null).makeExecutableLines();
+		Assembler assembler = parseCode(LOOP_PROGRAM, profile(plain));
+		String[] exec = assembler.makeExecutableLines();
+
+		assertEquals(0, count(exec, CommandID.JNZ));
+		assertEquals(1, count(exec, CommandID.JZ));
+		assertEquals(1, assembler.getOptimizationReport().getCount(BlockLayout.BRANCH_FLIPPED));
+		assertEquals(2, plain.length - exec.length); // `jmp out` is gone
+
+		Architecture a = run(plain, null);
+		Architecture b = run(exec, null);
+		assertEquals(45, b.tGetREG0().getData());
+		assertEquals(a.tGetREG1().getData(), b.tGetREG1().getData());
+
+		// the taken jumps in the loop went from 2 to 1 per iteration
+		ExecutionProfile before = profile(plain);
+		ExecutionProfile after = profile(exec);
+		assertTrue(takenJumps(after, exec.length) < takenJumps(before, plain.length));
+	}
+
+	static private long takenJumps(ExecutionProfile profile, int size) {
+		long ret = 0;
+		for (int i = 0; i < size; i++)
+			ret += profile.getTaken(i);
+		return ret;
+	}
+
+	@Test
+	public void testColdBlockMovedOut() {
+		String[] program = new String[] {
+			"move 0 %reg0",
+			"move 8 %reg2",
+			"loop:",
+			"move %reg0 %reg3",
+			"sub %reg2 %reg3",
+			"jz done",
+			"move 100 %reg1",
+			"jeq %reg0 %reg1 rare",
+			"inc %reg0",
+			"jmp loop",
+			"rare:",
+			"move 7 %reg1",
+			"jmp loop",
+			"done:",
+			"move %reg0 %reg1",
+		};
+
+		String[] plain = parseCode(program, null).makeExecutableLines();
+		Assembler assembler = parseCode(program, profile(plain));
+		String[] exec = assembler.makeExecutableLines();
+
+		Architecture a = run(plain, null);
+		Architecture b = run(exec, null);
+		assertEquals(8, b.tGetREG0().getData());
+		assertEquals(a.tGetREG0().getData(), b.tGetREG0().getData());
+		assertEquals(a.tGetREG1().getData(), b.tGetREG1().getData());
+	}
+
+	@Test
+	public void testExamples() throws IOException, ParseException {
+		String[] examples = new String[] { "examples/ex01", "examples/ex03-call" };
+		for (String path : examples) {
+			Assembler plain = new Assembler();
+			plain.read(path);
+			plain.parseAll();
+			String[] exec = plain.makeExecutableLines();
+
+			Assembler optimized = new Assembler();
+			optimized.read(path);
+			optimized.setProfile(profile(exec));
+			optimized.setControlFlowOptimization(true);
+			optimized.parseAll();
+
+			Architecture a = run(exec, null);
+			Architecture b = run(optimized.makeExecutableLines(), null);
+			assertEquals(a.tGetREG0().getData(), b.tGetREG0().getData());
+			assertEquals(a.tGetREG1().getData(), b.tGetREG1().getData());
+		}
+	}
+}
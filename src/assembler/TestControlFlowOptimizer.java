@@ -0,0 +1,161 @@
+package assembler;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import architecture.Architecture;
+import assembler.Assembler.ParseException;
+
+public class TestControlFlowOptimizer {
+	static private Assembler parseCode(String[] codeLines, boolean optimize) {
+		try {
+			Assembler assembler = new Assembler();
+			assembler.setControlFlowOptimization(optimize);
+			assembler.readLines(codeLines);
+			assembler.parseAll();
+			return assembler;
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+	}
+
+	static private Architecture run(String[] executable) {
+		Architecture arch = new Architecture(false);
+		arch.readExecLines(executable);
+		arch.controlUnitEexec();
+		return arch;
+	}
+
+	static private OptimizationReport checkEquivalent(String[] codeLines, int expectedWordsSaved) {
+		return TestPeephole.checkEquivalent(codeLines, a -> a.setControlFlowOptimization(true), expectedWordsSaved);
+	}
+
+	@Test
+	public void testThreading() {
+		OptimizationReport report = checkEquivalent(new String[] {
+			"move 0 %reg0",
+			"jz first",
+			"move 1 %reg1",
+			"first:",
+			"jmp second",
+			"second:",
+			"jmp third",
+			"move 5 %reg1",
+			"third:",
+			"move 2 %reg2",
+		}, 7);
+		assertTrue(report.getCount(ControlFlowOptimizer.JUMP_THREADED) > 0);
+		assertEquals(2, report.getCount(ControlFlowOptimizer.UNREACHABLE));
+	}
+
+	@Test
+	public void testUnreachableSubroutine() {
+		OptimizationReport report = checkEquivalent(new String[] {
+			"jmp main",
+			"unused:",
+			"move 1 %reg0",
+			"ret",
+			"used:",
+			"inc %reg0",
+			"ret",
+			"main:",
+			"move 2 %reg0",
+			"call used",
+		}, 4);
+		assertEquals(2, report.getCount(ControlFlowOptimizer.UNREACHABLE));
+	}
+
+	@Test
+	public void testDataReferenceKept() {
+		// the word at `table` is only read as data, but it's still needed
+		OptimizationReport report = checkEquivalent(new String[] {
+			"jmp main",
+			"table:",
+			"move 7 %reg1",
+			"main:",
+			"move table %reg0",
+		}, 0);
+		assertEquals(0, report.getCount(ControlFlowOptimizer.UNREACHABLE));
+	}
+
+	@Test
+	public void testPcWriteKeepsCode() {
+		// a write to %pc may jump anywhere, so nothing is unreachable (this one
+		// loops, so it can't be run to compare)
+		String[] codeLines = new String[] {
+			"jmp start",
+			"skipped:",
+			"inc %reg2",
+			"start:",
+			"move %reg1 %pc",
+		};
+		String[] plain = parseCode(codeLines, false).makeExecutableLines();
+		Assembler assembler = parseCode(codeLines, true);
+		assertArrayEquals(plain, assembler.makeExecutableLines());
+		assertEquals(0, assembler.getOptimizationReport().getCount(ControlFlowOptimizer.UNREACHABLE));
+	}
+
+	@Test
+	public void testUnusedLabels() {
+		Assembler assembler = parseCode(new String[] {
+			"start:",
+			"move 1 %reg0",
+			"loop:",
+			"inc %reg0",
+			"move 5 %reg1",
+			"jgt %reg1 %reg0 loop",
+			"end:",
+		}, true);
+		assembler.makeExecutableLines();
+
+		assertEquals(1, assembler.getLabels().size());
+		assertEquals("loop", assembler.getLabels().get(0));
+		assertEquals(2, assembler.getOptimizationReport().getCount(ControlFlowOptimizer.UNUSED_LABEL));
+	}
+
+	@Test
+	public void testRelocatableKeepsLabels() throws ParseException {
+		Assembler assembler = new Assembler();
+		assembler.setRelocatable(true);
+		assembler.setControlFlowOptimization(true);
+		assembler.readLines(new String[] {
+			"double:",
+			"add %reg0 %reg0",
+			"ret",
+			"add:",
+			"jmp helper",
+			"helper:",
+			"inc %reg0",
+			"ret",
+		});
+		assembler.parseAll();
+		ObjectFile obj = assembler.makeObject("lib");
+
+		assertTrue(obj.getExportNames().contains("double"));
+		assertTrue(obj.getExportNames().contains("add"));
+		assertEquals(7, obj.getCode().size()); // only the jmp is gone
+	}
+
+	@Test
+	public void testExamples() throws IOException, ParseException {
+		String[] examples = new String[] { "examples/ex01", "examples/ex03-call" };
+		for (String path : examples) {
+			Assembler plain = new Assembler();
+			plain.read(path);
+			Assembler optimized = new Assembler();
+			optimized.read(path);
+			optimized.setControlFlowOptimization(true);
+			optimized.setPeephole(true);
+
+			plain.parseAll();
+			optimized.parseAll();
+
+			Architecture a = run(plain.makeExecutableLines());
+			Architecture b = run(optimized.makeExecutableLines());
+			assertEquals(a.tGetREG0().getData(), b.tGetREG0().getData());
+			assertEquals(a.tGetREG1().getData(), b.tGetREG1().getData());
+		}
+	}
+}
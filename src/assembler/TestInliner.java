@@ -0,0 +1,174 @@
+package assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import architecture.Architecture;
+import architecture.Architecture.CommandID;
+import architecture.ExecutionProfile;
+import assembler.Assembler.ParseException;
+
+public class TestInliner {
+	static private Assembler parseCode(String[] codeLines, ExecutionProfile profile, boolean cfo) {
+		try {
+			Assembler assembler = new Assembler();
+			assembler.setProfile(profile);
+			assembler.setControlFlowOptimization(cfo);
+			assembler.readLines(codeLines);
+			assembler.parseAll();
+			return assembler;
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+	}
+
+	static private Architecture run(String[] executable, ExecutionProfile profile) {
+		Architecture arch = new Architecture(false);
+		arch.setProfile(profile);
+		arch.readExecLines(executable);
+		arch.controlUnitEexec();
+		return arch;
+	}
+
+	static private ExecutionProfile profile(String[] codeLines) {
+		ExecutionProfile profile = new ExecutionProfile(new Architecture().getMemorySize());
+		run(parseCode(codeLines, null, false).makeExecutableLines(), profile);
+		return profile;
+	}
+
+	static private int countCalls(String[] executable) {
+		int calls = 0;
+		int i = 0;
+		while (i < executable.length) {
+			CommandID id = CommandID.fromInt(Integer.parseInt(executable[i]));
+			if (id == null)
+				break;
+			if (id == CommandID.CALL)
+				calls++;
+			i += id.getSize();
+		}
+		return calls;
+	}
+
+	static private final String[] CALL_PROGRAM = new String[] {
+		"jmp main",
+		"double:",
+		"add %reg0 %reg0",
+		"ret",
+		"add:",
+		"move 5 %reg1",
+		"add %reg1 %reg0",
+		"ret",
+		"main:",
+		"move 3 %reg0",
+		"call double",
+		"call add",
+	};
+
+	@Test
+	public void testInline() {
+		ExecutionProfile profile = profile(CALL_PROGRAM);
+
+		Assembler assembler = parseCode(CALL_PROGRAM, profile, true);
+		String[] exec = assembler.makeExecutableLines();
+		assertEquals(0, countCalls(exec));
+		assertEquals(2, assembler.getOptimizationReport().getCount(Inliner.INLINED));
+		assertTrue(assembler.getOptimizationReport().getCyclesSaved() > 0);
+
+		Architecture arch = run(exec, null);
+		assertEquals(11, arch.tGetREG0().getData());
+		assertEquals(5, arch.tGetREG1().getData());
+	}
+
+	@Test
+	public void testNotInlined() {
+		String[] program = new String[] {
+			"jmp main",
+			"branchy:",
+			"add %reg0 %reg0",
+			"jz skip",
+			"inc %reg0",
+			"skip:",
+			"ret",
+			"stacky:",
+			"move %stktop %reg1",
+			"ret",
+			"cold:",
+			"inc %reg2",
+			"ret",
+			"main:",
+			"move 3 %reg0",
+			"call branchy",
+			"call stacky",
+			"jz main",
+			"jmp end",
+			"call cold",
+			"end:",
+		};
+
+		Assembler assembler = parseCode(program, profile(program), false);
+		assertEquals(3, countCalls(assembler.makeExecutableLines()));
+		assertEquals(0, assembler.getOptimizationReport().getCount(Inliner.INLINED));
+	}
+
+	@Test
+	public void testLimits() {
+		ExecutionProfile profile = profile(CALL_PROGRAM);
+
+		// `double` takes 3 words, `add` takes 6
+		Assembler assembler = new Assembler();
+		assembler.setProfile(profile);
+		assembler.setInlineLimits(5, 64);
+		assembler.readLines(CALL_PROGRAM);
+		try {
+			assembler.parseAll();
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+
+		String[] exec = assembler.makeExecutableLines();
+		assertEquals(1, countCalls(exec));
+		assertEquals(11, run(exec, null).tGetREG0().getData());
+	}
+
+	@Test
+	public void testThreshold() {
+		ExecutionProfile profile = profile(CALL_PROGRAM);
+
+		// both calls ran once
+		Assembler assembler = new Assembler();
+		assembler.setProfile(profile);
+		assembler.setInlineThreshold(2);
+		assembler.readLines(CALL_PROGRAM);
+		try {
+			assembler.parseAll();
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+
+		assertEquals(2, countCalls(assembler.makeExecutableLines()));
+		assertEquals(0, assembler.getOptimizationReport().getCount(Inliner.INLINED));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadThreshold() {
+		new Assembler().setInlineThreshold(0);
+	}
+
+	@Test
+	public void testProfileWriteRead() throws IOException {
+		ExecutionProfile profile = profile(CALL_PROGRAM);
+		File dir = Files.createTempDirectory("dsfprof").toFile();
+		String path = new File(dir, "prog").getPath();
+
+		profile.write(path);
+		ExecutionProfile read = ExecutionProfile.read(path);
+
+		assertEquals(profile.fingerprint(), read.fingerprint());
+		assertEquals(1, read.getExecutions(0)); // the prefix runs once
+	}
+}
@@ -0,0 +1,143 @@
+package assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import architecture.Architecture;
+import assembler.Assembler.ParseException;
+import assembler.Linker.LinkException;
+
+public class TestLinker {
+	static private ObjectFile assembleModule(String name, String[] codeLines) {
+		try {
+			Assembler assembler = new Assembler();
+			assembler.setRelocatable(true);
+			assembler.readLines(codeLines);
+			assembler.parseAll();
+			return assembler.makeObject(name);
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+	}
+
+	static private String[] assembleProgram(String[] codeLines) {
+		try {
+			Assembler assembler = new Assembler();
+			assembler.readLines(codeLines);
+			assembler.parseAll();
+			return assembler.makeExecutableLines();
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+	}
+
+	static private String[] link(ObjectFile... modules) {
+		try {
+			Linker linker = new Linker();
+			for (ObjectFile m : modules)
+				linker.add(m);
+			return linker.link();
+		} catch (LinkException ex) {
+			throw new RuntimeException("Failed to link: " + ex);
+		}
+	}
+
+	static private final String[] MAIN_MODULE = new String[] {
+		"a",
+		"jmp main",
+		"main:",
+		"move 3 %reg0",
+		"call double",
+		"call add",
+		"move %reg0 a",
+	};
+
+	static private final String[] LIB_MODULE = new String[] {
+		"b",
+		"double:",
+		"add %reg0 %reg0",
+		"ret",
+		"add:",
+		"move 5 %reg1",
+		"move %reg1 b",
+		"add b %reg0",
+		"ret",
+	};
+
+	@Test
+	public void testSingleModuleMatchesAssembler() {
+		String[] program = new String[] {
+			"x",
+			"y",
+			"jmp skip",
+			"inc x",
+			"skip:",
+			"move x %reg0",
+			"move %reg0 y",
+			"move $stackbottom %reg1",
+			"end:",
+		};
+
+		assertArrayEquals(assembleProgram(program), link(assembleModule("prog", program)));
+	}
+
+	@Test
+	public void testLinkAndRun() {
+		ObjectFile main = assembleModule("main", MAIN_MODULE);
+		ObjectFile lib = assembleModule("lib", LIB_MODULE);
+
+		assertEquals(2, main.getImports().size());
+		assertTrue(lib.getImports().isEmpty());
+
+		Architecture arch = new Architecture(false);
+		arch.readExecLines(link(main, lib));
+		arch.controlUnitEexec();
+
+		int memorySize = arch.getMemorySize();
+		assertEquals(11, arch.tGetREG0().getData());
+		assertEquals(11, arch.tGetMemory().getDataList()[memorySize - 1]); // main's "a"
+		assertEquals(5, arch.tGetMemory().getDataList()[memorySize - 2]); // lib's "b"
+	}
+
+	@Test
+	public void testWriteRead() throws IOException {
+		File dir = Files.createTempDirectory("dsfobj").toFile();
+		String path = new File(dir, "lib").getPath();
+
+		ObjectFile lib = assembleModule("lib", LIB_MODULE);
+		lib.write(path);
+		ObjectFile read = ObjectFile.read(path);
+
+		assertEquals(lib.getName(), read.getName());
+		assertEquals(lib.getCode(), read.getCode());
+		assertEquals(lib.getVariables(), read.getVariables());
+		assertEquals(lib.getExportNames(), read.getExportNames());
+		assertEquals(lib.getExportAddresses(), read.getExportAddresses());
+		assertEquals(lib.getRelocations().size(), read.getRelocations().size());
+	}
+
+	@Test
+	public void testErrors() {
+		Linker linker = new Linker();
+		linker.add(assembleModule("main", MAIN_MODULE));
+		try {
+			linker.link();
+			fail("expected undefined symbol");
+		} catch (LinkException ex) {
+			assertTrue(ex.getMessage().contains("undefined symbol"));
+		}
+
+		linker.add(assembleModule("lib", LIB_MODULE));
+		linker.add(assembleModule("lib2", LIB_MODULE));
+		try {
+			linker.link();
+			fail("expected duplicate symbol");
+		} catch (LinkException ex) {
+			assertTrue(ex.getMessage().contains("defined by both"));
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package assembler;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import architecture.Architecture;
+import assembler.Assembler.ParseException;
+
+public class TestPeephole {
+	static private Assembler parseCode(String[] codeLines, boolean optimize) {
+		return parseCode(codeLines, optimize ? a -> a.setPeephole(true) : a -> {});
+	}
+
+	static private Assembler parseCode(String[] codeLines, Consumer<Assembler> setup) {
+		try {
+			Assembler assembler = new Assembler();
+			setup.accept(assembler);
+			assembler.readLines(codeLines);
+			assembler.parseAll();
+			return assembler;
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+	}
+
+	static private Architecture run(String[] executable) {
+		Architecture arch = new Architecture(false);
+		arch.readExecLines(executable);
+		arch.controlUnitEexec();
+		return arch;
+	}
+
+	static private OptimizationReport checkEquivalent(String[] codeLines, int expectedWordsSaved) {
+		return checkEquivalent(codeLines, a -> a.setPeephole(true), expectedWordsSaved);
+	}
+
+	/**
+	 * Assemble the program with and without the optimizations `optimize`
+	 * turns on, check that both versions end up in the same state (registers,
+	 * flags, stack and variables) and return the optimization report. The
+	 * other optimizer tests share it.
+	 */
+	static OptimizationReport checkEquivalent(String[] codeLines, Consumer<Assembler> optimize, int expectedWordsSaved) {
+		String[] plain = parseCode(codeLines, a -> {}).makeExecutableLines();
+		Assembler assembler = parseCode(codeLines, optimize);
+		String[] optimized = assembler.makeExecutableLines();
+		OptimizationReport report = assembler.getOptimizationReport();
+
+		assertEquals(expectedWordsSaved, plain.length - optimized.length);
+		assertEquals(expectedWordsSaved, report.getWordsSaved());
+
+		Architecture a = run(plain);
+		Architecture b = run(optimized);
+		assertEquals(a.tGetREG0().getData(), b.tGetREG0().getData());
+		assertEquals(a.tGetREG1().getData(), b.tGetREG1().getData());
+		assertEquals(a.tGetREG2().getData(), b.tGetREG2().getData());
+		assertEquals(a.tGetREG3().getData(), b.tGetREG3().getData());
+		assertEquals(a.tGetFlags().getBit(0), b.tGetFlags().getBit(0));
+		assertEquals(a.tGetFlags().getBit(1), b.tGetFlags().getBit(1));
+		assertEquals(a.tGetStkTOP().getData(), b.tGetStkTOP().getData());
+		assertEquals(a.tGetStkBOT().getData(), b.tGetStkBOT().getData());
+
+		// the variables live at the end of the memory
+		int[] memA = a.tGetMemory().getDataList();
+		int[] memB = b.tGetMemory().getDataList();
+		for (int i = memA.length - assembler.getVariables().size(); i < memA.length; i++)
+			assertEquals("variable at " + i, memA[i], memB[i]);
+
+		return report;
+	}
+
+	@Test
+	public void testJumpToNext() {
+		OptimizationReport report = checkEquivalent(new String[] {
+			"jmp next",
+			"next:",
+			"move 1 %reg0",
+			"jmp end",
+			"end:",
+		}, 4);
+		assertEquals(2, report.getCount(Peephole.JUMP_TO_NEXT));
+		assertTrue(report.getCyclesSaved() > 0);
+	}
+
+	@Test
+	public void testFoldMoveAdd() {
+		OptimizationReport report = checkEquivalent(new String[] {
+			"a",
+			"move 7 %reg1",
+			"move %reg1 a",
+			"move 0 %reg0",
+			"add %reg1 %reg0",
+			"move 0 %reg2",
+			"add a %reg2",
+			"inc %reg3",
+		}, 6);
+		assertEquals(2, report.getCount(Peephole.MOVE_ADD_FOLDED));
+	}
+
+	@Test
+	public void testFoldKeepsLiveFlags() {
+		// the jz reads the flags set by the add, so it can't become a move
+		OptimizationReport report = checkEquivalent(new String[] {
+			"move 0 %reg0",
+			"add %reg1 %reg0",
+			"jz end",
+			"move 5 %reg2",
+			"end:",
+		}, 0);
+		assertEquals(0, report.getCount(Peephole.MOVE_ADD_FOLDED));
+	}
+
+	@Test
+	public void testSpecialRegistersKept() {
+		// moving into %pc jumps, and %pc reads differently at another address,
+		// so none of these pairs may be changed (and some can't be run to
+		// compare: they loop)
+		String[][] programs = new String[][] {
+			{ "move 0 %pc", "add %reg0 %pc" },
+			{ "move 0 %stktop", "add %reg0 %stktop" },
+			{ "move %pc %reg0", "move %reg0 %pc" },
+			{ "move 0 %reg0", "add %pc %reg0", "inc %reg3" },
+			{ "move 0 %reg0", "add %stktop %reg0", "inc %reg3" },
+		};
+		for (String[] codeLines : programs) {
+			String[] plain = parseCode(codeLines, false).makeExecutableLines();
+			Assembler assembler = parseCode(codeLines, true);
+			assertArrayEquals(plain, assembler.makeExecutableLines());
+			assertEquals(0, assembler.getOptimizationReport().getWordsSaved());
+		}
+	}
+
+	@Test
+	public void testMoveBack() {
+		OptimizationReport report = checkEquivalent(new String[] {
+			"move 3 %reg0",
+			"move %reg0 %reg1",
+			"move %reg1 %reg0",
+		}, 3);
+		assertEquals(1, report.getCount(Peephole.MOVE_BACK));
+	}
+
+	@Test
+	public void testDeadStore() {
+		OptimizationReport report = checkEquivalent(new String[] {
+			"move 3 %reg0",
+			"move 4 %reg1",
+			"move 5 %reg0",
+			"lbl:",
+			"move 6 %reg1",
+		}, 3);
+		// %reg1 is not dead: the store to it is followed by a label
+		assertEquals(1, report.getCount(Peephole.DEAD_STORE));
+	}
+
+	@Test
+	public void testLabelsKept() {
+		checkEquivalent(new String[] {
+			"move 0 %reg0",
+			"jmp skip",
+			"skip:",
+			"jmp loop",
+			"loop:",
+			"inc %reg0",
+			"move 3 %reg1",
+			"jgt %reg1 %reg0 loop",
+		}, 4);
+	}
+
+	@Test
+	public void testExamples() throws IOException, ParseException {
+		// ex02 never halts, so it's left out
+		String[] examples = new String[] { "examples/ex01", "examples/ex03-call" };
+		for (String path : examples) {
+			Assembler plain = new Assembler();
+			plain.read(path);
+			Assembler optimized = new Assembler();
+			optimized.read(path);
+			optimized.setPeephole(true);
+
+			plain.parseAll();
+			optimized.parseAll();
+
+			Architecture a = run(plain.makeExecutableLines());
+			Architecture b = run(optimized.makeExecutableLines());
+			assertEquals(a.tGetREG0().getData(), b.tGetREG0().getData());
+			assertEquals(a.tGetREG1().getData(), b.tGetREG1().getData());
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package assembler;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import architecture.Architecture.CommandID;
+import assembler.Assembler.ParseException;
+import assembler.WcetAnalyzer.WcetException;
+
+public class TestWcetAnalyzer {
+	// the two moves that initialize the stack, and the fetch of the halt
+	static private final int OVERHEAD = 2 * CommandID.MOVE_IMM_REG.getCycles() + CommandID.FETCH_CYCLES;
+
+	static private WcetAnalyzer analyze(String[] codeLines) throws WcetException {
+		try {
+			Assembler assembler = new Assembler();
+			assembler.readLines(codeLines);
+			assembler.parseAll();
+			WcetAnalyzer analyzer = new WcetAnalyzer(assembler);
+			analyzer.analyze();
+			return analyzer;
+		} catch (ParseException ex) {
+			throw new RuntimeException("Failed to run assembler: " + ex);
+		}
+	}
+
+	@Test
+	public void testStraightLine() throws WcetException {
+		WcetAnalyzer analyzer = analyze(new String[] {
+			"move 1 %reg0",
+			"inc %reg0",
+			"jz skip",
+			"add %reg0 %reg1",
+			"skip:",
+		});
+
+		long expected = OVERHEAD + CommandID.MOVE_IMM_REG.getCycles() + CommandID.INC_REG.getCycles()
+			+ CommandID.JZ.getCycles() + CommandID.ADD_REG_REG.getCycles();
+		assertEquals(expected, analyzer.getProgramBound());
+	}
+
+	@Test
+	public void testLoop() throws WcetException {
+		WcetAnalyzer analyzer = analyze(new String[] {
+			"move 0 %reg0",
+			"; @loopbound 5",
+			"loop:",
+			"inc %reg0",
+			"move 5 %reg1",
+			"jgt %reg1 %reg0 loop",
+		});
+
+		long iteration = CommandID.INC_REG.getCycles() + CommandID.MOVE_IMM_REG.getCycles() + CommandID.JGT.getCycles();
+		assertEquals(OVERHEAD + CommandID.MOVE_IMM_REG.getCycles() + 5 * iteration, analyzer.getProgramBound());
+	}
+
+	@Test
+	public void testNestedLoops() throws WcetException {
+		WcetAnalyzer analyzer = analyze(new String[] {
+			"move 0 %reg0",
+			"; @loopbound 3",
+			"outer:",
+			"move 0 %reg1",
+			"; @loopbound 4",
+			"inner:",
+			"inc %reg1",
+			"move 4 %reg2",
+			"jgt %reg2 %reg1 inner",
+			"inc %reg0",
+			"move 3 %reg2",
+			"jgt %reg2 %reg0 outer",
+		});
+
+		long inner = 4 * (CommandID.INC_REG.getCycles() + CommandID.MOVE_IMM_REG.getCycles() + CommandID.JGT.getCycles());
+		long outer = 3 * (CommandID.MOVE_IMM_REG.getCycles() + inner
+			+ CommandID.INC_REG.getCycles() + CommandID.MOVE_IMM_REG.getCycles() + CommandID.JGT.getCycles());
+		assertEquals(OVERHEAD + CommandID.MOVE_IMM_REG.getCycles() + outer, analyzer.getProgramBound());
+	}
+
+	@Test
+	public void testCalls() throws WcetException {
+		WcetAnalyzer analyzer = analyze(new String[] {
+			"jmp main",
+			"double:",
+			"add %reg0 %reg0",
+			"ret",
+			"main:",
+			"move 3 %reg0",
+			"call double",
+			"call double",
+		});
+
+		long double_ = CommandID.ADD_REG_REG.getCycles() + CommandID.RET.getCycles();
+		assertEquals(double_, (long) analyzer.getFunctionBounds().get("double"));
+		assertEquals(OVERHEAD + CommandID.JMP.getCycles() + CommandID.MOVE_IMM_REG.getCycles()
+			+ 2 * (CommandID.CALL.getCycles() + double_), analyzer.getProgramBound());
+	}
+
+	@Test(expected = WcetException.class)
+	public void testUnboundedLoop() throws WcetException {
+		analyze(new String[] {
+			"loop:",
+			"inc %reg0",
+			"jmp loop",
+		});
+	}
+
+	@Test(expected = WcetException.class)
+	public void testRecursion() throws WcetException {
+		analyze(new String[] {
+			"jmp main",
+			"f:",
+			"call f",
+			"ret",
+			"main:",
+			"call f",
+		});
+	}
+
+	@Test(expected = ParseException.class)
+	public void testMisplacedAnnotation() throws ParseException {
+		Assembler assembler = new Assembler();
+		assembler.readLines(new String[] {
+			"; @loopbound 3",
+			"inc %reg0",
+		});
+		assembler.parseAll();
+	}
+}
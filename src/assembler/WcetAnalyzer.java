@@ -0,0 +1,363 @@
+package assembler;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import architecture.Architecture.CommandID;
+import assembler.Assembler.ParseException;
+import assembler.ParsedProgram.Instruction;
+
+/**
+ * Static worst-case execution time analyzer.
+ *
+ * It computes an upper bound on the cycles a program takes to run, using the
+ * cost of each command (see CommandID.getCycles()), so programs that might
+ * not fit a time budget can be rejected without running them.
+ *
+ * The program is split into functions: the program itself, starting at the
+ * first instruction, and every subroutine that is the target of a `call`. A
+ * function is made of the instructions reachable from its start by following
+ * fall-throughs and jumps; it ends at a `ret` or at the end of the program.
+ * A `call` costs its own cycles plus the bound of the called function, so
+ * recursive calls can't be bounded.
+ *
+ * Loops are the natural loops of each function's control flow graph, and each
+ * one must be bounded with an annotation on the line before its header label:
+ *
+ *     ; @loopbound 10
+ *     loop:
+ *
+ * meaning the header runs at most 10 times each time the loop is entered.
+ * Loops are collapsed into single nodes, innermost first, costing the bound
+ * times the longest path through one iteration; the bound of the function is
+ * then the longest path in what is left.
+ */
+public class WcetAnalyzer {
+	public static final String PROGRAM = "(program)";
+
+	private Assembler assembler;
+	private ParsedProgram program;
+	private LinkedHashMap<String, Long> functionBounds;
+	private HashSet<String> inProgress;
+	private long programBound;
+
+	public WcetAnalyzer(Assembler assembler) {
+		this.assembler = assembler;
+	}
+
+	/**
+	 * Analyze the program of the assembler, which must have been parsed.
+	 *
+	 * @return the bound for the whole program, in cycles
+	 */
+	public long analyze() throws WcetException {
+		program = assembler.makeParsedProgram();
+		functionBounds = new LinkedHashMap<>();
+		inProgress = new HashSet<>();
+
+		programBound = bound(0, PROGRAM);
+		return programBound;
+	}
+
+	public long getProgramBound() {
+		return programBound;
+	}
+
+	/**
+	 * Get the bound of each function, callees before their callers, the whole
+	 * program (named PROGRAM) last.
+	 */
+	public LinkedHashMap<String, Long> getFunctionBounds() {
+		return functionBounds;
+	}
+
+	/**
+	 * Get the bound of the function starting at the instruction at `entry`.
+	 */
+	private long bound(int entry, String name) throws WcetException {
+		Long known = functionBounds.get(name);
+		if (known != null)
+			return known;
+		if (!inProgress.add(name))
+			throw new WcetException("recursive call to " + name);
+
+		int n = program.instructions.size();
+
+		// node n is the end of the program, where the halt is fetched
+		ArrayList<Integer> nodes = new ArrayList<>();
+		ArrayList<HashSet<Integer>> out = new ArrayList<>();
+		ArrayList<HashSet<Integer>> in = new ArrayList<>();
+		for (int i = 0; i <= n; i++) {
+			out.add(new HashSet<>());
+			in.add(new HashSet<>());
+		}
+
+		BitSet seen = new BitSet();
+		ArrayDeque<Integer> pending = new ArrayDeque<>();
+		pending.add(entry);
+		seen.set(entry);
+		while (!pending.isEmpty()) {
+			int i = pending.poll();
+			nodes.add(i);
+			for (int s : successors(i, name)) {
+				out.get(i).add(s);
+				in.get(s).add(i);
+				if (!seen.get(s)) {
+					seen.set(s);
+					pending.add(s);
+				}
+			}
+		}
+
+		long[] cost = new long[n + 1];
+		for (int i : nodes)
+			cost[i] = cost(i);
+
+		BitSet[] dom = dominators(entry, nodes, in);
+
+		// find the natural loops, merging the ones with the same header
+		LinkedHashMap<Integer, BitSet> loops = new LinkedHashMap<>();
+		for (int u : nodes) {
+			for (int h : out.get(u)) {
+				if (!dom[u].get(h))
+					continue;
+				BitSet body = loops.computeIfAbsent(h, k -> new BitSet());
+				body.set(h);
+				ArrayDeque<Integer> work = new ArrayDeque<>();
+				if (!body.get(u)) {
+					body.set(u);
+					work.add(u);
+				}
+				while (!work.isEmpty()) {
+					for (int p : in.get(work.poll())) {
+						if (!body.get(p)) {
+							body.set(p);
+							work.add(p);
+						}
+					}
+				}
+			}
+		}
+
+		// collapse them, innermost (smallest) first
+		ArrayList<Map.Entry<Integer, BitSet>> order = new ArrayList<>(loops.entrySet());
+		order.sort((a, b) -> Integer.compare(a.getValue().cardinality(), b.getValue().cardinality()));
+
+		int[] rep = new int[n + 1];
+		for (int i = 0; i <= n; i++)
+			rep[i] = i;
+
+		for (Map.Entry<Integer, BitSet> loop : order) {
+			int h = loop.getKey();
+			BitSet body = loop.getValue();
+
+			int loopBound = loopBound(h);
+			if (loopBound < 0)
+				throw new WcetException(String.format("%s: loop at %s has no @loopbound annotation", name, describe(h)));
+
+			long iteration = longestPath(h, h, body, out, rep, cost, name);
+
+			HashSet<Integer> exits = new HashSet<>();
+			for (int i = body.nextSetBit(0); i >= 0; i = body.nextSetBit(i + 1)) {
+				for (int s : out.get(i)) {
+					if (!body.get(s))
+						exits.add(s);
+				}
+				rep[i] = h;
+			}
+
+			out.set(h, exits);
+			cost[h] = loopBound * iteration;
+		}
+
+		long ret = longestPath(entry, -1, null, out, rep, cost, name);
+
+		inProgress.remove(name);
+		functionBounds.put(name, ret);
+		return ret;
+	}
+
+	/**
+	 * Get the cost of a node, including the called function for calls.
+	 */
+	private long cost(int i) throws WcetException {
+		if (i == program.instructions.size())
+			return CommandID.FETCH_CYCLES;
+
+		Instruction instr = program.instructions.get(i);
+		if (instr.id != CommandID.CALL)
+			return instr.id.getCycles();
+		int callee = program.indexOfLabel(instr.target());
+		if (callee < 0)
+			throw new WcetException("call to unknown label " + instr.target());
+		return instr.id.getCycles() + bound(callee, instr.target());
+	}
+
+	private ArrayList<Integer> successors(int i, String name) throws WcetException {
+		ArrayList<Integer> ret = new ArrayList<>();
+		if (i == program.instructions.size())
+			return ret;
+
+		Instruction instr = program.instructions.get(i);
+		if (instr.id == CommandID.RET)
+			return ret;
+		if (instr.id != CommandID.JMP)
+			ret.add(i + 1);
+
+		String target = instr.target();
+		if (target != null && instr.id != CommandID.CALL) {
+			int t = program.indexOfLabel(target);
+			if (t < 0)
+				throw new WcetException(String.format("%s: jump to unknown label %s", name, target));
+			ret.add(t);
+		}
+		return ret;
+	}
+
+	private static BitSet[] dominators(int entry, ArrayList<Integer> nodes, ArrayList<HashSet<Integer>> in) {
+		BitSet all = new BitSet();
+		for (int i : nodes)
+			all.set(i);
+
+		BitSet[] dom = new BitSet[in.size()];
+		for (int i : nodes)
+			dom[i] = (BitSet) all.clone();
+		dom[entry] = new BitSet();
+		dom[entry].set(entry);
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i : nodes) {
+				if (i == entry)
+					continue;
+				BitSet d = (BitSet) all.clone();
+				for (int p : in.get(i))
+					d.and(dom[p]);
+				d.set(i);
+				if (!d.equals(dom[i])) {
+					dom[i] = d;
+					changed = true;
+				}
+			}
+		}
+		return dom;
+	}
+
+	/**
+	 * Get the longest path starting at `start` in the collapsed graph, costs
+	 * included. Inside a loop (`region` not null), the path stays in the loop
+	 * and doesn't go back to its `header`.
+	 */
+	private static long longestPath(int start, int header, BitSet region, ArrayList<HashSet<Integer>> out,
+			int[] rep, long[] cost, String name) throws WcetException {
+		long[] memo = new long[rep.length];
+		byte[] state = new byte[rep.length]; // 0: new, 1: visiting, 2: done
+		return longestPath(start, header, region, out, rep, cost, memo, state, name);
+	}
+
+	private static long longestPath(int x, int header, BitSet region, ArrayList<HashSet<Integer>> out,
+			int[] rep, long[] cost, long[] memo, byte[] state, String name) throws WcetException {
+		if (state[x] == 2)
+			return memo[x];
+		if (state[x] == 1)
+			throw new WcetException(String.format("%s: irreducible control flow", name));
+		state[x] = 1;
+
+		long longest = 0;
+		for (int s : out.get(x)) {
+			if (region != null && !region.get(s))
+				continue;
+			int y = rep[s];
+			if (y == x || y == header)
+				continue;
+			longest = Math.max(longest, longestPath(y, header, region, out, rep, cost, memo, state, name));
+		}
+
+		state[x] = 2;
+		memo[x] = cost[x] + longest;
+		return memo[x];
+	}
+
+	private int loopBound(int h) {
+		if (h == program.instructions.size())
+			return -1;
+		for (String label : program.instructions.get(h).labels) {
+			int bound = assembler.getLoopBound(label);
+			if (bound >= 0)
+				return bound;
+		}
+		return -1;
+	}
+
+	private String describe(int i) {
+		ArrayList<String> labels = program.labelsAt(i);
+		if (!labels.isEmpty())
+			return labels.get(0);
+		return "address " + program.instructions.get(i).origin;
+	}
+
+	public static class WcetException extends Exception {
+		public WcetException(String message) {
+			super(message);
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: wcet [-O] [--budget <CYCLES>] <INPUT>");
+		System.err.println("INPUT must be the name of a .dsf file, without the extension");
+		System.err.println("With -O, the program is analyzed as optimized by `assembler -O`");
+		System.err.println("With --budget, exits with 1 unless the program surely runs within CYCLES");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String filename = null;
+		boolean optimize = false;
+		long budget = -1;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-O"))
+				optimize = true;
+			else if (args[i].equals("--budget") && i + 1 < args.length)
+				budget = Long.parseLong(args[++i]);
+			else if (filename == null && !args[i].startsWith("-"))
+				filename = args[i];
+			else
+				usage();
+		}
+
+		if (filename == null)
+			usage();
+
+		Assembler assembler = new Assembler();
+		assembler.setPeephole(optimize);
+		assembler.setControlFlowOptimization(optimize);
+
+		WcetAnalyzer analyzer = new WcetAnalyzer(assembler);
+		try {
+			assembler.read(filename);
+			assembler.parseAll();
+			analyzer.analyze();
+		} catch (ParseException ex) {
+			System.err.println("Error while parsing: " + ex);
+			System.exit(1);
+		} catch (WcetException ex) {
+			System.err.println("Can't bound the execution time: " + ex.getMessage());
+			System.exit(1);
+		}
+
+		for (Map.Entry<String, Long> e : analyzer.getFunctionBounds().entrySet())
+			System.out.printf("%s: %d cycles\n", e.getKey(), e.getValue());
+
+		if (budget >= 0 && analyzer.getProgramBound() > budget) {
+			System.err.printf("Over budget: %d > %d cycles\n", analyzer.getProgramBound(), budget);
+			System.exit(1);
+		}
+	}
+}
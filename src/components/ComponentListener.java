@@ -0,0 +1,26 @@
+package components;
+
+/**
+ * Gets told about the data moved by the observed components (ObservedBus,
+ * ObservedRegister, ObservedMemory), right after it moves.
+ *
+ * Listeners are called on the thread running the machine, with the component
+ * and plain values, so dispatching an event allocates nothing; they must not
+ * change the component they are told about.
+ */
+public interface ComponentListener {
+	default void busPut(Bus bus, int data) {
+	}
+
+	/**
+	 * A register got a value from a bus (through store() or internalStore()).
+	 */
+	default void registerStored(Register register, int data) {
+	}
+
+	default void memoryStored(Memory memory, int address, int data) {
+	}
+
+	default void memoryRead(Memory memory, int address, int data) {
+	}
+}
@@ -1,17 +1,46 @@
 package components;
 
+import java.nio.IntBuffer;
+
 public class Memory {
+
+	/**
+	 * Size of the pages used to track which parts of the memory were written.
+	 */
+	public static final int PAGE_SIZE = 16;
+
+	/**
+	 * Kinds of watchpoints, to be or-ed together.
+	 */
+	public static final int WATCH_READ = 1;
+	public static final int WATCH_WRITE = 2;
+	public static final int WATCH_CHANGE = 4;
 	
 	private Bus bus;
 	private int storePosition; //this value indicates that the memory has read an
 					// address and is waiting for a data to be storesd in this position
 	private int size;
 	private int dataList[];
+	private boolean dirtyPages[];
+	// only kept up to date by store() while tracking (see setStoreTracking())
+	private boolean tracking;
+	private long storeCount;
+	private int lastStoreAddress;
+
+	// watchpoint kinds per address (null when there are none), and the last
+	// watchpoint hit since clearWatchHit()
+	private byte watch[];
+	private int watchCount;
+	private int watchHitAddress;
+	private int watchHitKind;
 	
 	public Memory(int size, Bus bus) {
 		storePosition = -1; //negative values indicates the memory is not storing
 		this.size = size;
 		dataList = new int[size];
+		dirtyPages = new boolean[(size + PAGE_SIZE - 1) / PAGE_SIZE];
+		lastStoreAddress = -1;
+		watchHitAddress = -1;
 		this.bus = bus;
 		for (int i=0;i<size;i++) {
 			dataList[i] = 0;
@@ -27,6 +56,150 @@ public class Memory {
 		return dataList;
 	}
 
+	public int getPageCount() {
+		return dirtyPages.length;
+	}
+
+	/**
+	 * Start or stop tracking the stores through the bus: the pages they
+	 * write, how many there were and the last address. It's off by default,
+	 * so a machine nothing looks at doesn't pay for it. Starting it marks
+	 * every page as written, as the stores made before weren't tracked.
+	 * @param tracking
+	 */
+	public void setStoreTracking(boolean tracking) {
+		if (tracking && !this.tracking) {
+			for (int i=0;i<dirtyPages.length;i++) {
+				dirtyPages[i] = true;
+			}
+		}
+		this.tracking = tracking;
+	}
+
+	/**
+	 * Check if a page was written since the last clearDirtyPages().
+	 * @param page
+	 */
+	public boolean isPageDirty(int page) {
+		return dirtyPages[page];
+	}
+
+	public void clearDirtyPages() {
+		for (int i=0;i<dirtyPages.length;i++) {
+			dirtyPages[i] = false;
+		}
+	}
+
+	/**
+	 * Mark the page of an address as written. Host code that writes into
+	 * getDataList() directly must call this for dirty page tracking to work
+	 * (or write through set()).
+	 * @param address
+	 */
+	public void markDirty(int address) {
+		dirtyPages[address / PAGE_SIZE] = true;
+	}
+
+	/**
+	 * Get how many words were stored through the bus while tracking stores.
+	 */
+	public long getStoreCount() {
+		return storeCount;
+	}
+
+	/**
+	 * Get the address of the last word stored through the bus while tracking
+	 * stores (-1 if none).
+	 */
+	public int getLastStoreAddress() {
+		return lastStoreAddress;
+	}
+
+	/**
+	 * Watch an address for the given kinds of access (WATCH_* or-ed together,
+	 * 0 to stop watching it).
+	 * @param address
+	 * @param kinds
+	 */
+	public void watch(int address, int kinds) {
+		if (watch == null) {
+			if (kinds == 0)
+				return;
+			watch = new byte[size];
+		}
+
+		if (watch[address] == 0 && kinds != 0)
+			watchCount++;
+		else if (watch[address] != 0 && kinds == 0)
+			watchCount--;
+		watch[address] = (byte) kinds;
+
+		// no checks at all when nothing is watched
+		if (watchCount == 0)
+			watch = null;
+	}
+
+	/**
+	 * Get the address of the last watchpoint hit, or -1 if none was hit since
+	 * clearWatchHit().
+	 */
+	public int getWatchHitAddress() {
+		return watchHitAddress;
+	}
+
+	/**
+	 * Get the kind of access (WATCH_*) of the last watchpoint hit.
+	 */
+	public int getWatchHitKind() {
+		return watchHitKind;
+	}
+
+	public void clearWatchHit() {
+		watchHitAddress = -1;
+		watchHitKind = 0;
+	}
+
+	/**
+	 * Copy a whole image into the memory, starting at position 0, without
+	 * going through the bus. Positions after the image are left untouched.
+	 * @param image the words to copy (from its position to its limit)
+	 */
+	public void load(IntBuffer image) {
+		if (image.remaining() > size)
+			throw new IllegalArgumentException("image of " + image.remaining() + " words doesn't fit a memory of " + size);
+		int n = image.remaining();
+		image.get(dataList, 0, n);
+		for (int i=0;i<n;i+=PAGE_SIZE) {
+			markDirty(i);
+		}
+	}
+
+	/**
+	 * Write a word from the host, without going through the bus (so no
+	 * watchpoint sees it), marking its page as written.
+	 * @param address
+	 * @param value
+	 */
+	public void set(int address, int value) {
+		dataList[address] = value;
+		markDirty(address);
+	}
+
+	/**
+	 * Fill the memory with zeros and abort any store in progress.
+	 */
+	public void clear() {
+		storePosition = -1;
+		for (int i=0;i<size;i++) {
+			dataList[i] = 0;
+		}
+		for (int i=0;i<dirtyPages.length;i++) {
+			dirtyPages[i] = true;
+		}
+		storeCount = 0;
+		lastStoreAddress = -1;
+	}
+
 	/**
 	 * This method stores into position the data found in the bus
 	 * @param position
@@ -36,7 +209,14 @@ public class Memory {
 			this.storePosition = bus.get();
 		}
 		else {//the storing was initiated, in the bus is the data
+			if (watch != null && watch[storePosition] != 0)
+				checkStoreWatch(storePosition, bus.get());
 			this.dataList[storePosition] = bus.get();
+			if (tracking) {
+				dirtyPages[storePosition / PAGE_SIZE] = true;
+				lastStoreAddress = storePosition;
+				storeCount++;
+			}
 			storePosition = -1; //no storing is being performed anymore
 		}
 	}
@@ -46,8 +226,23 @@ public class Memory {
 	 * @param position
 	 */
 	public void read() {
-		if ((bus.get() < size)&&(bus.get() >=0))
+		if ((bus.get() < size)&&(bus.get() >=0)) {
+			if (watch != null && (watch[bus.get()] & WATCH_READ) != 0) {
+				watchHitAddress = bus.get();
+				watchHitKind = WATCH_READ;
+			}
 			bus.put(dataList[bus.get()]);
+		}
+	}
+
+	private void checkStoreWatch(int position, int value) {
+		if ((watch[position] & WATCH_WRITE) != 0) {
+			watchHitAddress = position;
+			watchHitKind = WATCH_WRITE;
+		} else if ((watch[position] & WATCH_CHANGE) != 0 && dataList[position] != value) {
+			watchHitAddress = position;
+			watchHitKind = WATCH_CHANGE;
+		}
 	}
 	
 	/**
@@ -0,0 +1,19 @@
+package components;
+
+/**
+ * A bus telling a listener about every put().
+ */
+public class ObservedBus extends Bus {
+	private ComponentListener listener;
+
+	public ObservedBus(ComponentListener listener) {
+		super();
+		this.listener = listener;
+	}
+
+	@Override
+	public void put(int data) {
+		super.put(data);
+		listener.busPut(this, data);
+	}
+}
@@ -0,0 +1,48 @@
+package components;
+
+/**
+ * A memory telling a listener about every word stored or read through its
+ * bus.
+ */
+public class ObservedMemory extends Memory {
+	private Bus bus;
+	private ComponentListener listener;
+
+	public ObservedMemory(int size, Bus bus, ComponentListener listener) {
+		super(size, bus);
+		this.bus = bus;
+		this.listener = listener;
+		// store() tells the stores apart by their count
+		setStoreTracking(true);
+	}
+
+	@Override
+	public void store() {
+		long stores = getStoreCount();
+		super.store();
+		if (getStoreCount() != stores) {
+			int address = getLastStoreAddress();
+			listener.memoryStored(this, address, getDataList()[address]);
+		}
+	}
+
+	@Override
+	public void storeIn0() {
+		super.storeIn0();
+		listener.memoryStored(this, 0, getDataList()[0]);
+	}
+
+	@Override
+	public void storeIn1() {
+		super.storeIn1();
+		listener.memoryStored(this, 1, getDataList()[1]);
+	}
+
+	@Override
+	public void read() {
+		int address = bus.get();
+		super.read();
+		if (address >= 0 && address < getDataList().length)
+			listener.memoryRead(this, address, bus.get());
+	}
+}
@@ -0,0 +1,33 @@
+package components;
+
+/**
+ * A register telling a listener about every value it stores from a bus.
+ */
+public class ObservedRegister extends Register {
+	private ComponentListener listener;
+
+	public ObservedRegister(String name, Bus extBus, Bus intBus, ComponentListener listener) {
+		super(name, extBus, intBus);
+		this.listener = listener;
+	}
+
+	/**
+	 * Flags register, see Register(int, Bus).
+	 */
+	public ObservedRegister(int numberOfBits, Bus bus, ComponentListener listener) {
+		super(numberOfBits, bus);
+		this.listener = listener;
+	}
+
+	@Override
+	public void store() {
+		super.store();
+		listener.registerStored(this, getData());
+	}
+
+	@Override
+	public void internalStore() {
+		super.internalStore();
+		listener.registerStored(this, getData());
+	}
+}
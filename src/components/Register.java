@@ -23,6 +23,16 @@ public class Register {
 	public int getData() {
 		return data;
 	}
+
+	/**
+	 * This method sets the data directly, without going through a bus. It's
+	 * meant for the host (loading inputs, resetting the machine), not for the
+	 * micro-operations.
+	 * @param data
+	 */
+	public void setData(int data) {
+		this.data = data;
+	}
 	
 	/**
 	 * This special constructor is used to make Flags register
@@ -2,6 +2,8 @@ package components;
 
 import static org.junit.Assert.*;
 
+import java.nio.IntBuffer;
+
 import org.junit.Test;
 
 public class TestMemory {
@@ -66,5 +68,52 @@ public class TestMemory {
 		assertEquals(10, bus.get());
 	}
 
+	@Test
+	public void testLoad() {
+		Bus bus = new Bus();
+		Memory memory = new Memory(8, bus);
+		bus.put(7);
+		memory.store();
+		bus.put(42);
+		memory.store();
+
+		memory.load(IntBuffer.wrap(new int[] { 3, -1, 5 }));
+		assertArrayEquals(new int[] { 3, -1, 5, 0, 0, 0, 0, 42 }, memory.getDataList());
+
+		bus.put(2);
+		memory.read();
+		assertEquals(5, bus.get());
+	}
 
+	@Test
+	public void testStoreTracking() {
+		Bus bus = new Bus();
+		Memory memory = new Memory(64, bus);
+		memory.clearDirtyPages();
+		bus.put(40);
+		memory.store();
+		bus.put(5);
+		memory.store(); //stored, but nothing is tracked
+		assertEquals(5, memory.getDataList()[40]);
+		assertEquals(0, memory.getStoreCount());
+		assertFalse(memory.isPageDirty(40 / Memory.PAGE_SIZE));
+
+		memory.setStoreTracking(true); //every page may have been written before
+		for (int p = 0; p < memory.getPageCount(); p++)
+			assertTrue(memory.isPageDirty(p));
+		memory.clearDirtyPages();
+		bus.put(3);
+		memory.store();
+		bus.put(6);
+		memory.store();
+		assertEquals(1, memory.getStoreCount());
+		assertEquals(3, memory.getLastStoreAddress());
+		assertTrue(memory.isPageDirty(0));
+		assertFalse(memory.isPageDirty(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLoadTooLarge() {
+		new Memory(2, new Bus()).load(IntBuffer.wrap(new int[3]));
+	}
 }
@@ -18,6 +18,15 @@ public class Ula {
 		reg2 = new Register("UlaReg1", extBus1, intBus);
 	}
 
+	/**
+	 * Zero the internal registers and bus, as in a new ULA.
+	 */
+	public void clear() {
+		intBus.put(0);
+		reg1.setData(0);
+		reg2.setData(0);
+	}
+
 	/**
 	 * This method adds the reg1 and reg2 values, storing the result in reg2.
 	 */